@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
+ * min). Note that we only support aggregates over a single column, grouped by a
+ * single column.
+ * <p>
+ * The child is consumed once, at open, into a hash table of groups (see
+ * {@link IntegerAggregator} and {@link StringAggregator}); rewind replays
+ * the computed groups without reading the child again.
+ */
+public class Aggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+
+    private transient TupleDesc td;
+    private transient OpIterator results;
+
+    /**
+     * Constructor.
+     * 
+     * Implementation hint: depending on the type of afield, you will want to
+     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
+     * you with your implementation of readNext().
+     * 
+     * 
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the groupby
+     *         field index in the <b>INPUT</b> tuples. If not, return
+     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a group by, return the name
+     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     *         null;
+     * */
+    public String groupFieldName() {
+        return gfield == Aggregator.NO_GROUPING ? null : getTupleDesc().getFieldName(0);
+    }
+
+    /**
+     * @return the aggregate field
+     * */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     *         tuples
+     * */
+    public String aggregateFieldName() {
+        TupleDesc out = getTupleDesc();
+        return out.getFieldName(out.numFields() - 1);
+    }
+
+    /**
+     * @return return the aggregate operator
+     * */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public static String nameOfAggregatorOp(Aggregator.Op aop) {
+        return aop.toString();
+    }
+
+    private Aggregator newAggregator() {
+        TupleDesc childTd = child.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+        if (childTd.getFieldType(afield) == Type.INT_TYPE) {
+            return new IntegerAggregator(gfield, gtype, afield, aop);
+        }
+        return new StringAggregator(gfield, gtype, afield, aop);
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        Aggregator agg = newAggregator();
+        child.open();
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+        }
+        results = agg.iterator();
+        results.open();
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple. If there is a group by field, then the first
+     * field is the field by which we are grouping, and the second field is the
+     * result of computing the aggregate. If there is no group by field, then
+     * the result tuple should contain one field representing the result of the
+     * aggregate. Should return null if there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!results.hasNext()) {
+            return null;
+        }
+        Tuple r = results.next();
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            t.setField(i, r.getField(i));
+        }
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        results.rewind();
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Returns the TupleDesc of this Aggregate. If there is no group by field,
+     * this will have one field - the aggregate column. If there is a group by
+     * field, the first field will be the group by field, and the second will be
+     * the aggregate value column.
+     * 
+     * The name of an aggregate column should be informative. For example:
+     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
+     * given in the constructor, and child_td is the TupleDesc of the child
+     * iterator.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc childTd = child.getTupleDesc();
+            String aname = nameOfAggregatorOp(aop) + " (" + childTd.getFieldName(afield) + ")";
+            if (gfield == Aggregator.NO_GROUPING) {
+                td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+            } else {
+                td = new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                        new String[] { childTd.getFieldName(gfield), aname });
+            }
+        }
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+        this.td = null;
+    }
+
+}
@@ -0,0 +1,411 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores the tuples of a
+ * table sorted on one key field, in the leaves of a B+ tree. Looking up a
+ * key reads one page per level of the tree rather than every page of the
+ * table, and a range of keys is read by walking the linked leaves from the
+ * first key in the range.
+ * <p>
+ * Page 0 is a {@link BTreeRootPtrPage} naming the root; the other pages are
+ * {@link BTreeInternalPage}s and {@link BTreeLeafPage}s, all read through
+ * the BufferPool. Trees are built with {@link #bulkLoad} from a file sorted
+ * on the key, which packs the leaves full and builds the internal levels
+ * bottom up; the tree does not support inserts or deletes.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+public class BTreeFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int id;
+    private volatile FileChannel channel;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file, as written by
+     * {@link #bulkLoad}.
+     *
+     * @param f the file that stores the on-disk backing store for this tree
+     * @param keyField the index of the field the tuples are sorted on
+     * @param td the schema of the tuples
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.id = f.getAbsoluteFile().hashCode() + td.hashCode();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the field the tuples are sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /** @return the type of the key field */
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in " + file);
+        }
+        try {
+            ByteBuffer data = ByteBuffer.allocate(pageSize);
+            long offset = (long) pageSize * pid.getPageNumber();
+            FileChannel ch = channel();
+            while (data.hasRemaining()) {
+                if (ch.read(data, offset + data.position()) < 0) {
+                    throw new EOFException("page " + pid.getPageNumber() + " is cut short in " + file);
+                }
+            }
+            return BTreePage.create(new BTreePageId(pid.getTableId(), pid.getPageNumber()), data.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
+        FileChannel ch = channel();
+        while (data.hasRemaining()) {
+            ch.write(data, offset + data.position());
+        }
+    }
+
+    /**
+     * Returns the channel pages are read and written through, opening it on
+     * first use. Positional reads and writes leave the channel's position
+     * alone, so concurrent callers can share it.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    if (file.canWrite()) {
+                        ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    } else {
+                        ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    }
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Releases the file handle held by this BTreeFile. Called by
+     * {@link Catalog#clear}; a later read or write reopens the file.
+     */
+    public synchronized void close() {
+        FileChannel ch = channel;
+        channel = null;
+        if (ch != null) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** @return the number of pages in this file, including the root pointer */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Not supported; build a new tree with {@link #bulkLoad}.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("B+ tree files are built with bulkLoad and cannot be modified");
+    }
+
+    /**
+     * Not supported; build a new tree with {@link #bulkLoad}.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("B+ tree files are built with bulkLoad and cannot be modified");
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNo)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(id, pageNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Descends from the root to the leaf where the first tuple whose key is
+     * at least key is, or would be.
+     *
+     * @param key the key to look for, or null for the leftmost leaf
+     */
+    BTreeLeafPage findLeaf(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0);
+        BTreePage page = getPage(tid, rootPtr.getRootPageNo());
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage node = (BTreeInternalPage) page;
+            int child = key == null ? 0 : node.findChild(key);
+            page = getPage(tid, node.getChild(child));
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    /** Returns the tuples of the table in key order. */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeRangeIterator(tid, null, false, null, false,
+                Collections.<Predicate>emptyList(), null);
+    }
+
+    /**
+     * Returns the tuples whose key satisfies op against key, in key order.
+     * EQUALS and the range operators read only the leaves holding matching
+     * keys; NOT_EQUALS and LIKE scan every leaf.
+     *
+     * @param op the operator to compare the key field with
+     * @param key the operand, of the key field's type
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return iterator(tid, Collections.singletonList(new Predicate(keyField, op, key)), null);
+    }
+
+    /**
+     * Predicates on the key field with EQUALS or a range operator bound the
+     * leaves that are read; every predicate is then checked on each tuple in
+     * that range. Tuples are returned in key order.
+     *
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] projection) {
+        Field lower = null, upper = null;
+        boolean lowerInclusive = false, upperInclusive = false;
+        for (Predicate p : predicates) {
+            if (p.getField() != keyField) {
+                continue;
+            }
+            Predicate.Op op = p.getOp();
+            Field key = p.getOperand();
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+                boolean inclusive = op != Predicate.Op.GREATER_THAN;
+                int c = lower == null ? 1 : BTreePage.compare(key, lower);
+                if (c > 0 || (c == 0 && !inclusive)) {
+                    lower = key;
+                    lowerInclusive = inclusive;
+                }
+            }
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                boolean inclusive = op != Predicate.Op.LESS_THAN;
+                int c = upper == null ? -1 : BTreePage.compare(key, upper);
+                if (c < 0 || (c == 0 && !inclusive)) {
+                    upper = key;
+                    upperInclusive = inclusive;
+                }
+            }
+        }
+        return new BTreeRangeIterator(tid, lower, lowerInclusive, upper, upperInclusive,
+                predicates, projection);
+    }
+
+    /**
+     * Walks the leaves from the first key at or above the lower bound until
+     * a key passes the upper bound.
+     */
+    private class BTreeRangeIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field lower;
+        private final boolean lowerInclusive;
+        private final Field upper;
+        private final boolean upperInclusive;
+        private final CompiledPredicate predicate;
+        private final int[] projection;
+        private final TupleDesc projected;
+        private BTreeLeafPage leaf;
+        private int pos;
+
+        BTreeRangeIterator(TransactionId tid, Field lower, boolean lowerInclusive,
+                Field upper, boolean upperInclusive, List<Predicate> predicates, int[] projection) {
+            this.tid = tid;
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+            this.predicate = predicates.isEmpty() ? null : PredicateCompiler.compile(td, predicates);
+            this.projection = projection;
+            this.projected = projection == null ? null : td.project(projection);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            leaf = findLeaf(tid, lower);
+            if (lower == null) {
+                pos = 0;
+            } else {
+                pos = lowerInclusive ? leaf.lowerBound(lower) : leaf.upperBound(lower);
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                if (pos >= leaf.getNumTuples()) {
+                    int next = leaf.getNextPageNo();
+                    leaf = next < 0 ? null : (BTreeLeafPage) getPage(tid, next);
+                    pos = 0;
+                    continue;
+                }
+                int i = pos++;
+                // equal keys can run on from the leaf the scan started in
+                if (lower != null && !lowerInclusive && leaf.compareKey(i, lower) == 0) {
+                    continue;
+                }
+                if (upper != null) {
+                    int c = leaf.compareKey(i, upper);
+                    if (c > 0 || (c == 0 && !upperInclusive)) {
+                        leaf = null;
+                        return null;
+                    }
+                }
+                Tuple t = leaf.getTuple(i);
+                if (predicate != null && !predicate.matches(t)) {
+                    continue;
+                }
+                if (projected == null) {
+                    return t;
+                }
+                Tuple out = new Tuple(projected);
+                for (int f = 0; f < projection.length; f++) {
+                    out.setField(f, t.getField(projection[f]));
+                }
+                out.setRecordId(t.getRecordId());
+                return out;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            leaf = null;
+        }
+    }
+
+    /**
+     * Builds a B+ tree holding the tuples of source, which must already be
+     * sorted on keyField (e.g. written out from an {@link OrderBy}). Leaves
+     * are packed full and written in order, then each internal level is
+     * built from the first keys of the level below until one root remains.
+     * The pages are written straight to out, which is overwritten; the
+     * returned file still has to be added to the Catalog.
+     *
+     * @param source the tuples to index, read through the BufferPool
+     * @param keyField the field the tuples are sorted on
+     * @param out the file to write the tree to
+     * @throws DbException if source is not sorted on keyField
+     */
+    public static BTreeFile bulkLoad(TransactionId tid, DbFile source, int keyField, File out)
+            throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td = source.getTupleDesc();
+        Type keyType = td.getFieldType(keyField);
+        int leafCapacity = BTreeLeafPage.maxTuples(td);
+        // the first key and page number of each page of the level being built
+        ArrayList<Field> firstKeys = new ArrayList<Field>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            raf.setLength(0);
+            // page 0 is the root pointer, written once the root is known
+            raf.write(new byte[BufferPool.getPageSize()]);
+            int pageNo = 1;
+
+            ArrayList<Tuple> leaf = new ArrayList<Tuple>(leafCapacity);
+            Field last = null;
+            DbFileIterator it = source.iterator(tid);
+            it.open();
+            try {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    Field key = t.getField(keyField);
+                    if (last != null && BTreePage.compare(last, key) > 0) {
+                        throw new DbException("source is not sorted on field " + keyField
+                                + ": " + key + " follows " + last);
+                    }
+                    last = key;
+                    if (leaf.size() == leafCapacity) {
+                        raf.write(BTreeLeafPage.createPageData(td, leaf,
+                                pageNo == 1 ? -1 : pageNo - 1, pageNo + 1));
+                        firstKeys.add(leaf.get(0).getField(keyField));
+                        pages.add(pageNo++);
+                        leaf.clear();
+                    }
+                    leaf.add(t);
+                }
+            } finally {
+                it.close();
+            }
+            raf.write(BTreeLeafPage.createPageData(td, leaf, pageNo == 1 ? -1 : pageNo - 1, -1));
+            firstKeys.add(leaf.isEmpty() ? null : leaf.get(0).getField(keyField));
+            pages.add(pageNo++);
+
+            int fanout = BTreeInternalPage.maxKeys(keyType) + 1;
+            while (pages.size() > 1) {
+                int groups = (pages.size() + fanout - 1) / fanout;
+                ArrayList<Field> upKeys = new ArrayList<Field>(groups);
+                ArrayList<Integer> upPages = new ArrayList<Integer>(groups);
+                int start = 0;
+                for (int g = 0; g < groups; g++) {
+                    // spread the children evenly so no node is left nearly empty
+                    int remaining = pages.size() - start;
+                    int end = start + (remaining + groups - g - 1) / (groups - g);
+                    raf.write(BTreeInternalPage.createPageData(keyType,
+                            firstKeys.subList(start + 1, end), pages.subList(start, end)));
+                    upKeys.add(firstKeys.get(start));
+                    upPages.add(pageNo++);
+                    start = end;
+                }
+                firstKeys = upKeys;
+                pages = upPages;
+            }
+            raf.seek(0);
+            raf.write(BTreeRootPtrPage.createPageData(pages.get(0)));
+        }
+        return new BTreeFile(out, keyField, td);
+    }
+}
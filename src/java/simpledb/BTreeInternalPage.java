@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An internal node of a {@link BTreeFile}: n keys separating n + 1 child
+ * pointers. Child i holds the keys from key i - 1 up to key i; as keys may
+ * repeat, a run of equal keys can end in child i - 1 and continue in child i.
+ * <p>
+ * Layout: the category byte, the number of keys n, then room for
+ * {@link #maxKeys} + 1 child page numbers followed by room for maxKeys keys,
+ * each serialized as its Field type does.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 5;
+
+    private final int numKeys;
+    private final int[] children;
+    private final Field[] keys;
+
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, file(id).getKeyType());
+    }
+
+    BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data, INTERNAL);
+        this.numKeys = view.getInt(1);
+        int max = maxKeys(keyType);
+        if (numKeys < 0 || numKeys > max) {
+            throw new IOException("page " + id + " claims " + numKeys + " keys");
+        }
+        // internal nodes are few and hot, so they are decoded once up front
+        this.children = new int[numKeys + 1];
+        for (int i = 0; i <= numKeys; i++) {
+            children[i] = view.getInt(HEADER_SIZE + 4 * i);
+        }
+        this.keys = new Field[numKeys];
+        int keyStart = HEADER_SIZE + 4 * (max + 1);
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = keyType.parse(view, keyStart + i * keyType.getLen());
+        }
+    }
+
+    /** @return the most keys an internal page can hold for this key type */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (4 + keyType.getLen());
+    }
+
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * @return the index of the child to descend into to find the first
+     *         entry whose key is at least key: the number of keys strictly
+     *         less than it
+     */
+    public int findChild(Field key) {
+        int lo = 0, hi = numKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the image of an internal page with the given separator keys
+     *         and keys.size() + 1 children
+     */
+    static byte[] createPageData(Type keyType, List<Field> keys, List<Integer> children)
+            throws IOException {
+        int max = maxKeys(keyType);
+        if (keys.size() > max || children.size() != keys.size() + 1) {
+            throw new IllegalArgumentException("bad internal page: " + keys.size()
+                    + " keys, " + children.size() + " children");
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        data[0] = INTERNAL;
+        buf.putInt(1, keys.size());
+        for (int i = 0; i < children.size(); i++) {
+            buf.putInt(HEADER_SIZE + 4 * i, children.get(i));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keys.size() * keyType.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (Field key : keys) {
+            key.serialize(dos);
+        }
+        byte[] keyBytes = baos.toByteArray();
+        System.arraycopy(keyBytes, 0, data, HEADER_SIZE + 4 * (max + 1), keyBytes.length);
+        return data;
+    }
+}
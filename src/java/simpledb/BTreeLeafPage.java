@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A leaf of a {@link BTreeFile}: whole tuples sorted on the key field, plus
+ * links to the neighbouring leaves so range scans can walk the leaf level
+ * without going back up the tree.
+ * <p>
+ * Layout: the category byte, the number of tuples, the page numbers of the
+ * previous and next leaves (or -1), then the tuples packed back to back in
+ * key order. Tuples are decoded lazily, field by field, from the page image.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 13;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int keyOffset;
+    private final boolean intKey;
+    private final int tupleSize;
+    private final int numTuples;
+    private final int prevPageNo;
+    private final int nextPageNo;
+
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, file(id).getTupleDesc(), file(id).keyField());
+    }
+
+    BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, data, LEAF);
+        this.td = td;
+        this.keyField = keyField;
+        this.keyOffset = td.getFieldOffset(keyField);
+        this.intKey = td.getFieldType(keyField) == Type.INT_TYPE;
+        this.tupleSize = td.getSize();
+        this.numTuples = view.getInt(1);
+        this.prevPageNo = view.getInt(5);
+        this.nextPageNo = view.getInt(9);
+        if (numTuples < 0 || numTuples > maxTuples(td)) {
+            throw new IOException("page " + id + " claims " + numTuples + " tuples");
+        }
+    }
+
+    /** @return the most tuples a leaf can hold for this schema */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the page number of the leaf before this one, or -1 */
+    public int getPrevPageNo() {
+        return prevPageNo;
+    }
+
+    /** @return the page number of the leaf after this one, or -1 */
+    public int getNextPageNo() {
+        return nextPageNo;
+    }
+
+    /** @return tuple i, whose RecordId is this page and i */
+    public Tuple getTuple(int i) {
+        Tuple t = new Tuple(td, view, HEADER_SIZE + i * tupleSize);
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the key of tuple i */
+    public Field getKey(int i) {
+        return td.getFieldType(keyField).parse(view, HEADER_SIZE + i * tupleSize + keyOffset);
+    }
+
+    /** Compares the key of tuple i with key, without decoding int keys. */
+    int compareKey(int i, Field key) {
+        if (intKey) {
+            int k = view.getInt(HEADER_SIZE + i * tupleSize + keyOffset);
+            return Integer.compare(k, ((IntField) key).getValue());
+        }
+        return compare(getKey(i), key);
+    }
+
+    /** @return the index of the first tuple whose key is at least key */
+    public int lowerBound(Field key) {
+        int lo = 0, hi = numTuples;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the index of the first tuple whose key is greater than key */
+    public int upperBound(Field key) {
+        int lo = 0, hi = numTuples;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(mid, key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the image of a leaf holding tuples, which must already be in
+     *         key order
+     */
+    static byte[] createPageData(TupleDesc td, List<Tuple> tuples, int prevPageNo, int nextPageNo)
+            throws IOException {
+        if (tuples.size() > maxTuples(td)) {
+            throw new IllegalArgumentException(tuples.size() + " tuples do not fit on a leaf");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(LEAF);
+        dos.writeInt(tuples.size());
+        dos.writeInt(prevPageNo);
+        dos.writeInt(nextPageNo);
+        for (Tuple t : tuples) {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(dos);
+            }
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, written.length);
+        return data;
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Common state of the pages of a {@link BTreeFile}. Every page starts with a
+ * one byte category (the root pointer, an internal node or a leaf), so a page
+ * read from disk can be decoded without knowing in advance what it holds.
+ * Pages are views over their page image, which is not modified after the
+ * page is built.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    static final byte ROOT_PTR = 0;
+    static final byte INTERNAL = 1;
+    static final byte LEAF = 2;
+
+    protected final BTreePageId pid;
+    protected final byte[] data;
+    protected final ByteBuffer view;
+
+    private volatile TransactionId dirtier;
+
+    protected BTreePage(BTreePageId id, byte[] data, byte category) throws IOException {
+        if (data.length < BufferPool.getPageSize()) {
+            throw new IOException("page " + id + " is truncated");
+        }
+        if (data[0] != category) {
+            throw new IOException("page " + id + " has category " + data[0] + ", expected " + category);
+        }
+        this.pid = id;
+        this.data = data;
+        this.view = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Decodes a page of a B+ tree file, choosing the page class from its
+     * category byte.
+     */
+    static BTreePage create(BTreePageId id, byte[] data) throws IOException {
+        switch (data[0]) {
+        case ROOT_PTR:
+            return new BTreeRootPtrPage(id, data);
+        case INTERNAL:
+            return new BTreeInternalPage(id, data);
+        case LEAF:
+            return new BTreeLeafPage(id, data);
+        default:
+            throw new IOException("page " + id + " has unknown category " + data[0]);
+        }
+    }
+
+    /** @return the B+ tree file this page belongs to, from the Catalog. */
+    protected static BTreeFile file(BTreePageId id) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    /**
+     * Compares two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *         than, equal to or greater than b
+     */
+    static int compare(Field a, Field b) {
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** Pages are not modified in place, so a page is its own before image. */
+    public BTreePage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+        // nothing to save; see getBeforeImage
+    }
+}
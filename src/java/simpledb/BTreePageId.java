@@ -0,0 +1,67 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that file; page 0 holds the root pointer
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the table number and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (tableId << 16) + pageNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass()) return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == tableId && other.pageNo == pageNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNo };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pageNo + ")";
+    }
+}
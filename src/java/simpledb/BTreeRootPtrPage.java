@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of a {@link BTreeFile}, which records where the root of the tree
+ * is. Layout: the category byte, then the page number of the root.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private final int rootPageNo;
+
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data, ROOT_PTR);
+        this.rootPageNo = view.getInt(1);
+    }
+
+    /** @return the page number of the root, an internal node or a leaf */
+    public int getRootPageNo() {
+        return rootPageNo;
+    }
+
+    /** @return the image of a root pointer page pointing at rootPageNo */
+    static byte[] createPageData(int rootPageNo) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = ROOT_PTR;
+        ByteBuffer.wrap(data).putInt(1, rootPageNo);
+        return data;
+    }
+}
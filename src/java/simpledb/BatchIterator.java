@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the block-at-a-time counterpart of {@link OpIterator}:
+ * each call returns a {@link TupleBatch} of many rows in column form rather
+ * than a single Tuple. Use {@link BatchToTupleIterator} and
+ * {@link TupleToBatchIterator} to connect batch and tuple operators.
+ * <p>
+ * If the iterator is not open, none of the methods should work, and should
+ * throw an IllegalStateException.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch may have no selected rows (for
+     * example when a filter rejected all of them) but that does not mean the
+     * iteration is over. The batch is only valid until the next call.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of every batch
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Presents a BatchIterator as an OpIterator, returning the selected rows of
+ * each batch one Tuple at a time.
+ */
+public class BatchToTupleIterator implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int next;
+    private transient boolean open;
+
+    public BatchToTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("iterator is not open");
+        }
+        while (batch == null || next >= batch.selectedCount()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("There is no next tuple");
+        }
+        return batch.getTuple(batch.selected(next++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        open = false;
+    }
+}
@@ -1,8 +1,17 @@
 package simpledb;
 
 import java.io.*;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
 
 
 
@@ -15,6 +24,26 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a ConcurrentHashMap, so a hit is a single lock-free
+ * lookup and threads scanning different pages never contend. Misses are
+ * single-flight: concurrent requests for the same missing page wait on one
+ * load instead of each reading it from disk. Only frame reservation and
+ * eviction run under the BufferPool monitor.
+ * <p>
+ * Pages are locked shared for READ_ONLY and exclusive for READ_WRITE
+ * requests, and the locks are held until the transaction completes; see
+ * {@link LockManager}. A transaction's dirty pages stay in the pool until
+ * then, and are written out if it commits or dropped if it aborts.
+ * <p>
+ * A transaction started with {@link #beginSnapshot} is read-only and takes
+ * no locks: it sees every page as of the last commit before it began, so it
+ * neither waits for writers nor holds them up.
+ * <p>
+ * {@link #bulkInsert} loads many tuples into a HeapFile without caching
+ * the pages it fills: they are written straight to new pages at the end of
+ * the file, after one log record per page, and emptied again if the
+ * loading transaction aborts.
  * 
  * @Threadsafe, all fields are final
  */
@@ -29,19 +58,96 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default upper bound on the number of pages read ahead of a sequential scan. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
+
+    private Integer numPages;
+    private ConcurrentHashMap<PageId, Page> Page_Table;
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading;
+    private final EvictionPolicy policy;
+    private final ReadAheadPrefetcher prefetcher;
+    private final LockManager lockManager;
+    private final VersionStore versionStore;
+
+    /** Primary key index entries of deleted tuples, removed when the deleting transaction commits */
+    private final ConcurrentHashMap<TransactionId, List<IndexEntry>> pendingIndexDeletes;
+
+    /** Primary key index entries added for inserted tuples, removed if the inserting transaction aborts */
+    private final ConcurrentHashMap<TransactionId, List<IndexEntry>> pendingIndexInserts;
+
+    private static final class IndexEntry {
+        final int tableId;
+        final Field key;
+        final RecordId rid;
+
+        IndexEntry(int tableId, Field key, RecordId rid) {
+            this.tableId = tableId;
+            this.key = key;
+            this.rid = rid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexEntry)) {
+                return false;
+            }
+            IndexEntry e = (IndexEntry) o;
+            return tableId == e.tableId && key.equals(e.key) && rid.equals(e.rid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * rid.hashCode() + key.hashCode();
+        }
+    }
+
+    /** Most pages a bulk load fills and writes at once */
+    public static final int BULK_LOAD_PAGES = HeapFile.MAX_EXTENT_PAGES;
+
+    /** Pages written by bulk loads of transactions that have not completed, by transaction */
+    private final ConcurrentHashMap<TransactionId, List<PageId>> bulkLoads;
+
+    /** The loading transaction of each page in bulkLoads */
+    private final ConcurrentHashMap<PageId, TransactionId> bulkPages;
+
+    /** Frames claimed by loads that have not installed their page yet; protected by this */
+    private int loadsInFlight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
-   
-    private Integer numPages;
-    private Hashtable<PageId, Page> Page_Table;
-    
-    
     public BufferPool(int numPages) {
+        this(numPages, new ClockEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to pick pages to evict when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must have room for numPages pages
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         this.numPages = numPages;
-        this.Page_Table = new Hashtable<PageId, Page>();
+        this.Page_Table = new ConcurrentHashMap<PageId, Page>();
+        this.loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        this.policy = policy;
+        this.prefetcher = new ReadAheadPrefetcher(this, numPages, DEFAULT_READ_AHEAD_PAGES);
+        this.lockManager = new LockManager();
+        this.versionStore = new VersionStore();
+        this.pendingIndexDeletes = new ConcurrentHashMap<TransactionId, List<IndexEntry>>();
+        this.pendingIndexInserts = new ConcurrentHashMap<TransactionId, List<IndexEntry>>();
+        this.bulkLoads = new ConcurrentHashMap<TransactionId, List<PageId>>();
+        this.bulkPages = new ConcurrentHashMap<PageId, TransactionId>();
+        this.loadsInFlight = 0;
     }
     
     public static int getPageSize() {
@@ -72,24 +178,227 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *     deadlock; the caller should then abort tid
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	if (Page_Table.containsKey(pid)) {
-        	return Page_Table.get(pid);
+    	boolean snapshot = tid != null && versionStore.isSnapshot(tid);
+    	if (snapshot) {
+    		if (perm == Permissions.READ_WRITE) {
+    			throw new DbException("snapshot transaction " + tid.getId() + " cannot write " + pid);
+    		}
+    		if (bulkPages.containsKey(pid)) {
+    			// not yet committed, so empty as of any snapshot
+    			return emptyBulkPage(pid);
+    		}
+    	} else if (tid != null) {
+    		lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+    	}
+    	Page page = Page_Table.get(pid);
+    	if (page != null) {
+    		hits.increment();
+    		policy.pageAccessed(pid);
+    	} else {
+    		page = loadPage(pid, true);
+    	}
+    	prefetcher.pageRequested(tid, pid);
+    	if (snapshot) {
+    		return versionStore.read(tid, pid, page.getBeforeImage());
+    	}
+    	return page;
+    }
+
+    /**
+     * Starts tid as a read-only snapshot transaction. Its getPage calls take
+     * no locks and return the pages as of the last commit before this call;
+     * they must ask for READ_ONLY. The snapshot ends with
+     * transactionComplete.
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        versionStore.begin(tid);
+    }
+
+    /**
+     * Sets how many pages may be read ahead of a sequential scan; 0 turns
+     * read-ahead off. The effective window also backs off on its own when
+     * prefetched pages get evicted unused.
+     */
+    public void setReadAheadPages(int pages) {
+        prefetcher.setMaxWindow(pages);
+    }
+
+    /** @return the upper bound on pages read ahead of a sequential scan. */
+    public int getReadAheadPages() {
+        return prefetcher.getMaxWindow();
+    }
+
+    /** @return true if pid is in the pool or being read into it. */
+    boolean isResident(PageId pid) {
+        return Page_Table.containsKey(pid) || loading.containsKey(pid);
+    }
+
+    /**
+     * Reads pid into the pool ahead of demand. Prefetch reads are counted
+     * separately from misses, and are never allowed to fail a transaction.
+     *
+     * @return true if the page is now resident
+     */
+    boolean prefetchPage(PageId pid) {
+        if (bulkPages.containsKey(pid)) {
+            // on disk as zeros until the load writes it; caching that would hide the rows
+            return false;
+        }
+        try {
+            loadPage(pid, false);
+            return true;
+        } catch (DbException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
         }
-        else {
-        	if (Page_Table.size() >= numPages) {
-        		throw new DbException("too many pages in buffer");        	
-        	}
-        	else {
-        		Page newPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        		Page_Table.put(pid, newPage);
-        		return newPage;
-        	}
+    }
+
+    /**
+     * Brings pid into the pool, or waits for the thread that is already
+     * doing so.
+     *
+     * @param demand false if this is a read-ahead rather than a request
+     */
+    private Page loadPage(final PageId pid, final boolean demand) throws DbException {
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return readIntoPool(pid, demand);
+            }
+        });
+        FutureTask<Page> inFlight = loading.putIfAbsent(pid, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(pid, task);
+            }
+        } else if (demand) {
+            hits.increment();
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for page " + pid);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
         }
     }
 
+    /**
+     * Reads pid from its DbFile into a frame of its own. Runs at most once at
+     * a time per page, on the thread that won the race in loadPage.
+     */
+    private Page readIntoPool(PageId pid, boolean demand) throws DbException {
+        // another load may have installed the page since our lookup missed
+        Page page = Page_Table.get(pid);
+        if (page != null) {
+            if (demand) {
+                hits.increment();
+                policy.pageAccessed(pid);
+            }
+            return page;
+        }
+        if (demand) {
+            misses.increment();
+        } else {
+            prefetches.increment();
+        }
+
+        reserveFrame();
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (page == null) {
+                throw new DbException("could not read page " + pid);
+            }
+        } catch (RuntimeException e) {
+            releaseFrame(null);
+            throw e;
+        } catch (DbException e) {
+            releaseFrame(null);
+            throw e;
+        }
+        releaseFrame(page);
+        return page;
+    }
+
+    /** Claims a frame for a page about to be read, evicting if the pool is full. */
+    private synchronized void reserveFrame() throws DbException {
+        while (Page_Table.size() + loadsInFlight >= numPages) {
+            try {
+                evictPage();
+            } catch (DbException e) {
+                if (loadsInFlight == 0) {
+                    throw e;
+                }
+                // the remaining frames are still being filled; wait for one to land
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for a free frame");
+                }
+            }
+        }
+        loadsInFlight++;
+    }
+
+    /** Installs a freshly read page (if any) in the frame claimed by reserveFrame. */
+    private synchronized void releaseFrame(Page page) {
+        if (page != null) {
+            Page_Table.put(page.getId(), page);
+            policy.pageLoaded(page.getId());
+        }
+        loadsInFlight--;
+        notifyAll();
+    }
+
+    /** @return the number of getPage calls served from the pool. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to wait for a disk read. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of pages evicted to make room for others. */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of pages read ahead of demand. A request for a page
+     *         that was read ahead counts as a hit.
+     */
+    public long getPrefetchCount() {
+        return prefetches.sum();
+    }
+
+    /** Zero the hit, miss, eviction and prefetch counters. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        prefetches.reset();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -100,8 +409,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -110,15 +418,12 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -130,8 +435,116 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        prefetcher.transactionComplete(tid);
+        if (versionStore.isSnapshot(tid)) {
+            versionStore.end(tid);
+            return;
+        }
+        List<IndexEntry> deletes = pendingIndexDeletes.remove(tid);
+        List<IndexEntry> inserts = pendingIndexInserts.remove(tid);
+        List<PageId> loaded = bulkLoads.remove(tid);
+        try {
+            if (commit && loaded != null) {
+                Database.getLogFile().logCommit(tid);
+            }
+            Set<Integer> written = completePages(tid, commit, loaded);
+            if (!commit && loaded != null) {
+                Database.getLogFile().logAbort(tid);
+            }
+            List<IndexEntry> undone = commit ? deletes : inserts;
+            if (undone != null) {
+                for (IndexEntry e : undone) {
+                    HashIndex index = Database.getCatalog().openPrimaryKeyIndex(e.tableId);
+                    if (index != null) {
+                        index.delete(e.key, e.rid);
+                    }
+                }
+            }
+            for (int tableId : written) {
+                HashIndex index = Database.getCatalog().openPrimaryKeyIndex(tableId);
+                if (index != null) {
+                    index.markSynced(((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).syncVersion());
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Writes out the pages tid dirtied, making each page's current contents
+     * its before image, or drops them so that they are read back from disk.
+     * The pages of a commit become visible to snapshots all at once.
+     * Pages loaded by tid are already on disk; an abort empties them again.
+     *
+     * @return the ids of the tables whose files were written
+     */
+    private synchronized Set<Integer> completePages(TransactionId tid, boolean commit, List<PageId> loaded)
+        throws IOException {
+        long ts = versionStore.nextCommit();
+        boolean wrote = false;
+        Set<Integer> written = new HashSet<Integer>();
+        for (Page page : Page_Table.values()) {
+            if (!tid.equals(page.isDirty())) {
+                continue;
+            }
+            if (commit) {
+                versionStore.replaced(page, ts);
+                flushPage(page.getId());
+                page.setBeforeImage();
+                written.add(page.getId().getTableId());
+                wrote = true;
+            } else {
+                if (page instanceof HeapPage) {
+                    HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+                    hf.restoreFreeSpace((HeapPage) page);
+                }
+                discardPage(page.getId());
+            }
+        }
+        if (loaded != null) {
+            for (PageId pid : loaded) {
+                if (commit) {
+                    // snapshots that began earlier still see the page empty
+                    if (versionStore.hasSnapshots()) {
+                        versionStore.replaced(emptyBulkPage(pid), ts);
+                    }
+                    // drop any empty copy a read-ahead installed while the page was being written
+                    discardPage(pid);
+                    wrote = true;
+                } else {
+                    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    HashIndex index = Database.getCatalog().openPrimaryKeyIndex(pid.getTableId());
+                    if (index != null) {
+                        // the entries of a load are not kept per tuple, but the page still lists them
+                        int key = primaryKeyField(pid.getTableId());
+                        Iterator<Tuple> it = ((HeapPage) file.readPage(pid)).iterator();
+                        while (it.hasNext()) {
+                            Tuple t = it.next();
+                            index.delete(t.getField(key), t.getRecordId());
+                        }
+                    }
+                    file.writePage(emptyBulkPage(pid));
+                    discardPage(pid);
+                }
+                written.add(pid.getTableId());
+                bulkPages.remove(pid);
+            }
+        }
+        if (wrote) {
+            versionStore.publish(ts);
+        }
+        return written;
+    }
+
+    /** @return true if tid is a running snapshot transaction */
+    boolean isSnapshot(TransactionId tid) {
+        return versionStore.isSnapshot(tid);
+    }
+
+    /** @return the number of old page images kept for running snapshots */
+    int retainedVersions() {
+        return versionStore.retainedVersions();
     }
 
     /**
@@ -151,8 +564,19 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, file.insertTuple(tid, t));
+        // the entry is added now so that tid finds the tuple, and removed if tid aborts
+        HashIndex index = Database.getCatalog().openPrimaryKeyIndex(tableId);
+        if (index != null) {
+            IndexEntry e = new IndexEntry(tableId, t.getField(primaryKeyField(tableId)), t.getRecordId());
+            if (index.insert(e.key, e.rid)) {
+                pendingEntries(pendingIndexInserts, tid).add(e);
+            } else {
+                // tid deleted a tuple with this key from the same slot; its entry now serves this one
+                pendingEntries(pendingIndexDeletes, tid).remove(e);
+            }
+        }
     }
 
     /**
@@ -170,8 +594,141 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple has no record id");
+        }
+        RecordId rid = t.getRecordId();
+        int tableId = rid.getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, file.deleteTuple(tid, t));
+        // the index keeps the entry until commit, so an abort need not restore it
+        if (Database.getCatalog().openPrimaryKeyIndex(tableId) != null) {
+            pendingEntries(pendingIndexDeletes, tid).add(new IndexEntry(tableId, t.getField(primaryKeyField(tableId)), rid));
+        }
+    }
+
+    /** @return tid's list in pending, created if it has none */
+    private static List<IndexEntry> pendingEntries(ConcurrentHashMap<TransactionId, List<IndexEntry>> pending,
+            TransactionId tid) {
+        List<IndexEntry> entries = pending.get(tid);
+        if (entries == null) {
+            entries = Collections.synchronizedList(new ArrayList<IndexEntry>());
+            List<IndexEntry> raced = pending.putIfAbsent(tid, entries);
+            if (raced != null) {
+                entries = raced;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Adds every tuple of the iterator to the specified table on behalf of
+     * transaction tid, much faster than calling insertTuple for each.
+     * <p>
+     * The tuples are packed onto new pages at the end of the table, up to
+     * {@link #BULK_LOAD_PAGES} pages at a time. Each batch of pages is locked
+     * exclusively, logged with one update record per page, and written to
+     * the file in one sequential write once the log is forced. The pages do
+     * not pass through the pool, so a load does not evict the pages of
+     * other transactions and is not bounded by the size of the pool. As
+     * with insertTuple, the rows become visible to other transactions when
+     * tid commits, and are removed if it aborts.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to; must be a HeapFile
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     */
+    public int bulkInsert(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new DbException("bulk insert needs a HeapFile, not " + file.getClass().getName());
+        }
+        if (versionStore.isSnapshot(tid)) {
+            throw new DbException("snapshot transaction " + tid.getId() + " cannot write table " + tableId);
+        }
+        HeapFile hf = (HeapFile) file;
+        LogFile log = Database.getLogFile();
+        HashIndex index = Database.getCatalog().openPrimaryKeyIndex(tableId);
+        int count = 0;
+        for (;;) {
+            List<HeapPage> pages = hf.fillBulkPages(tuples, BULK_LOAD_PAGES);
+            if (pages.isEmpty()) {
+                return count;
+            }
+            List<PageId> loaded = bulkLoads.get(tid);
+            if (loaded == null) {
+                loaded = Collections.synchronizedList(new ArrayList<PageId>());
+                List<PageId> raced = bulkLoads.putIfAbsent(tid, loaded);
+                if (raced != null) {
+                    loaded = raced;
+                } else {
+                    log.logXactionBegin(tid);
+                }
+            }
+            // recorded before locking, so an abort empties the pages whatever happens next
+            for (HeapPage page : pages) {
+                loaded.add(page.getId());
+                bulkPages.put(page.getId(), tid);
+            }
+            for (HeapPage page : pages) {
+                lockManager.acquire(tid, page.getId(), true);
+                // another transaction may have read the page before it was locked
+                discardPage(page.getId());
+                log.logWrite(tid, page.getBeforeImage(), page);
+            }
+            log.force();
+            hf.writeBulkPages(pages);
+            for (HeapPage page : pages) {
+                // a read-ahead that began before the page was reserved may have cached it empty
+                discardPage(page.getId());
+            }
+            int slots = HeapPage.slotsPerPage(hf.getTupleDesc());
+            for (HeapPage page : pages) {
+                count += slots - page.getNumEmptySlots();
+                if (index != null) {
+                    int key = primaryKeyField(tableId);
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        index.insert(t.getField(key), t.getRecordId());
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return pid as a page with no tuples; pid must be a page of a bulk load */
+    private static Page emptyBulkPage(PageId pid) {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        return hf.emptyPage(pid.getPageNumber());
+    }
+
+    private static int primaryKeyField(int tableId) {
+        Catalog catalog = Database.getCatalog();
+        return catalog.getTupleDesc(tableId).fieldNameToIndex(catalog.getPrimaryKey(tableId));
+    }
+
+    /**
+     * Marks pages changed by tid dirty and makes sure the pool holds these
+     * versions of them, evicting another page if one has to be added.
+     */
+    private void cacheDirtied(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            if (Page_Table.get(page.getId()) == page) {
+                continue;
+            }
+            synchronized (this) {
+                if (Page_Table.containsKey(page.getId())) {
+                    Page_Table.put(page.getId(), page);
+                    continue;
+                }
+            }
+            reserveFrame();
+            releaseFrame(page);
+        }
     }
 
     /**
@@ -180,9 +737,9 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        for (PageId pid : Page_Table.keySet()) {
+            flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -194,8 +751,9 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+        if (Page_Table.remove(pid) != null) {
+            policy.pageRemoved(pid);
+        }
     }
 
     /**
@@ -203,24 +761,46 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        Page page = Page_Table.get(pid);
+        if (page == null || page.isDirty() == null) {
+            return;
+        }
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        for (Page page : Page_Table.values()) {
+            if (tid.equals(page.isDirty())) {
+                flushPage(page.getId());
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, as chosen by the eviction policy.
+     * Only clean pages are evicted: a dirty page holds changes of a running
+     * transaction and is written out by flushPage when that transaction
+     * commits, never behind its back.
+     *
+     * @throws DbException if every page in the pool is dirty
      */
     private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        PageId victim = policy.chooseVictim(new EvictionPolicy.Candidate() {
+            public boolean isEvictable(PageId pid) {
+                Page page = Page_Table.get(pid);
+                return page != null && page.isDirty() == null;
+            }
+        });
+        if (victim == null) {
+            throw new DbException("all pages in buffer are dirty");
+        }
+        Page_Table.remove(victim);
+        policy.pageRemoved(victim);
+        prefetcher.pageEvicted(victim);
+        evictions.increment();
     }
 
 }
@@ -26,6 +26,8 @@ public class Catalog {
 		public String Name = null;
 		public DbFile File =null;
 		public String PrimeKey =null;
+		public HashIndex PKIndex = null;
+		public TableStats Stats = null;
 		
 		// get the file id: file.getId()
 		// get the file schema: file.getTupleDesc()
@@ -65,7 +67,10 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
     	if (name_id_Map.containsKey(name)) {
     		Integer id = name_id_Map.get(name);
-    		db_table.remove(id);
+    		TableCatalog old = db_table.remove(id);
+    		if (old != null) {
+    			close(old);
+    		}
     	}
         this.db_table.put(file.getId(), new TableCatalog(name, file, pkeyField)); 
         this.name_id_Map.put(name, file.getId());
@@ -78,6 +83,22 @@ public class Catalog {
         addTable(file, name, "");
     }
 
+    /**
+     * Add a new table to the catalog, choosing how its pages are read.
+     * @param file the contents of the table to add; must be a HeapFile
+     * @param name the name of the table, as for {@link #addTable(DbFile, String, String)}
+     * @param pkeyField the name of the primary key field
+     * @param readMode whether the table's pages are read through a channel or memory-mapped
+     * @throws IllegalArgumentException if file is not a HeapFile
+     */
+    public void addTable(DbFile file, String name, String pkeyField, HeapFile.ReadMode readMode) {
+    	if (!(file instanceof HeapFile)) {
+    		throw new IllegalArgumentException("read modes only apply to heap files");
+    	}
+    	((HeapFile) file).setReadMode(readMode);
+    	addTable(file, name, pkeyField);
+    }
+
     /**
      * Add a new table to the catalog.
      * This table has tuples formatted using the specified TupleDesc and its
@@ -135,6 +156,150 @@ public class Catalog {
         }
     }
 
+    /**
+     * Returns the hash index on the primary key of a HeapFile table. The
+     * index lives next to the table's data file, as
+     * <code>name.pkfield.hidx</code> for <code>name.dat</code>; it is built
+     * with a scan of the table the first time it is asked for, and rebuilt
+     * if the table has been written since the index last matched it (see
+     * {@link HeapFile#syncVersion}) or the index cannot be read.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the index, or null if the table has no primary key or is not
+     *     stored in a HeapFile
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws DbException if the index cannot be read or built
+     */
+    public synchronized HashIndex getPrimaryKeyIndex(int tableid)
+    		throws NoSuchElementException, DbException, TransactionAbortedException {
+    	TableCatalog table = db_table.get(tableid);
+    	if (table == null) {
+    		throw new NoSuchElementException();
+    	}
+    	if (table.PKIndex != null) {
+    		return table.PKIndex;
+    	}
+    	if (table.PrimeKey == null || table.PrimeKey.isEmpty() || !(table.File instanceof HeapFile)) {
+    		return null;
+    	}
+    	HeapFile hf = (HeapFile) table.File;
+    	int keyField = hf.getTupleDesc().fieldNameToIndex(table.PrimeKey);
+    	String path = hf.getFile().getPath();
+    	if (path.endsWith(".dat")) {
+    		path = path.substring(0, path.length() - ".dat".length());
+    	}
+    	File indexFile = new File(path + "." + table.PrimeKey + ".hidx");
+    	try {
+    		if (indexFile.exists()) {
+    			table.PKIndex = openIndex(indexFile, hf, keyField);
+    		}
+    		if (table.PKIndex == null) {
+    			TransactionId tid = new TransactionId();
+    			table.PKIndex = HashIndex.build(tid, hf, keyField, indexFile);
+    			Database.getBufferPool().transactionComplete(tid);
+    			table.PKIndex.markSynced(hf.syncVersion());
+    		}
+    	} catch (IOException e) {
+    		throw new DbException("cannot open primary key index " + indexFile + ": " + e.getMessage());
+    	}
+    	return table.PKIndex;
+    }
+
+    /**
+     * @return the index saved in indexFile, or null if it is unreadable or
+     *     the table has changed since it was saved
+     */
+    private static HashIndex openIndex(File indexFile, HeapFile hf, int keyField) {
+    	HashIndex index;
+    	try {
+    		index = new HashIndex(indexFile, hf.getTupleDesc().getFieldType(keyField), hf.getId());
+    	} catch (IOException e) {
+    		return null;
+    	}
+    	if (index.getTableVersion() != hf.currentVersion()) {
+    		index.close();
+    		return null;
+    	}
+    	return index;
+    }
+
+    /**
+     * @return the primary key index of a table if it has been opened, or
+     *     null; unlike getPrimaryKeyIndex, this never builds the index
+     */
+    synchronized HashIndex openPrimaryKeyIndex(int tableid) {
+    	TableCatalog table = db_table.get(tableid);
+    	return table == null ? null : table.PKIndex;
+    }
+
+    /**
+     * Returns the statistics of a table. They are read from next to the
+     * table's data file (see {@link TableStats#fileFor}) the first time they
+     * are asked for, or gathered with a scan of the table and saved if that
+     * copy is missing or older than the data file.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws DbException if the table cannot be scanned
+     */
+    public synchronized TableStats getTableStats(int tableid)
+    		throws NoSuchElementException, DbException, TransactionAbortedException {
+    	TableCatalog table = db_table.get(tableid);
+    	if (table == null) {
+    		throw new NoSuchElementException();
+    	}
+    	if (table.Stats != null && table.Stats.getPageSize() == BufferPool.getPageSize()) {
+    		return table.Stats;
+    	}
+    	File dataFile = dataFile(table.File);
+    	if (dataFile != null) {
+    		File statsFile = TableStats.fileFor(dataFile);
+    		if (statsFile.lastModified() >= dataFile.lastModified()) {
+    			table.Stats = TableStats.read(statsFile, table.File.getTupleDesc(), BufferPool.getPageSize());
+    			if (table.Stats != null) {
+    				return table.Stats;
+    			}
+    		}
+    	}
+    	return analyze(tableid);
+    }
+
+    /**
+     * Gathers the statistics of a table afresh and saves them next to its
+     * data file.
+     *
+     * @see #getTableStats
+     */
+    public synchronized TableStats analyze(int tableid)
+    		throws NoSuchElementException, DbException, TransactionAbortedException {
+    	TableCatalog table = db_table.get(tableid);
+    	if (table == null) {
+    		throw new NoSuchElementException();
+    	}
+    	table.Stats = TableStats.compute(table.File);
+    	File dataFile = dataFile(table.File);
+    	if (dataFile != null && dataFile.exists()) {
+    		try {
+    			table.Stats.write(TableStats.fileFor(dataFile));
+    		} catch (IOException e) {
+    			// the statistics still serve this process; the next one gathers them again
+    		}
+    	}
+    	return table.Stats;
+    }
+
+    private static File dataFile(DbFile file) {
+    	if (file instanceof HeapFile) {
+    		return ((HeapFile) file).getFile();
+    	}
+    	if (file instanceof BTreeFile) {
+    		return ((BTreeFile) file).getFile();
+    	}
+    	return null;
+    }
+
     public Iterator<Integer> tableIdIterator() {
     	return db_table.keySet().iterator();
     }
@@ -148,14 +313,32 @@ public class Catalog {
     }
     
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
+    	for (TableCatalog table : db_table.values()) {
+    		close(table);
+    	}
         db_table.clear();
         name_id_Map.clear();
     }
+
+    /** Releases the file handles of a table and of its primary key index. */
+    private static void close(TableCatalog table) {
+    	if (table.File instanceof HeapFile) {
+    		((HeapFile) table.File).close();
+    	} else if (table.File instanceof BTreeFile) {
+    		((BTreeFile) table.File).close();
+    	}
+    	if (table.PKIndex != null) {
+    		table.PKIndex.close();
+    	}
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <code>name (field type [pk] [bloom], ...) [mmap]</code>;
+     * <code>bloom</code> gives a field per-page Bloom filters, and a trailing
+     * <code>mmap</code> memory-maps the table's file for reading.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -172,6 +355,7 @@ public class Catalog {
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                ArrayList<Integer> bloomFields = new ArrayList<Integer>();
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
@@ -184,19 +368,31 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("bloom"))
+                            bloomFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                HeapFile.ReadMode readMode = HeapFile.ReadMode.CHANNEL;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.toLowerCase().equals("mmap"))
+                    readMode = HeapFile.ReadMode.MEMORY_MAPPED;
+                else if (options.length() > 0) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, readMode);
+                for (int f : bloomFields)
+                    tabHf.enableBloomFilter(f);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
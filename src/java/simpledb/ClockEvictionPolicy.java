@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages occupy frames arranged
+ * in a circle, each with a reference bit that is set on every hit. The
+ * clock hand sweeps the frames, clearing set bits and evicting the first
+ * evictable page whose bit is already clear.
+ * <p>
+ * Recording a hit only sets a bit, so it never blocks; this makes CLOCK the
+ * cheapest policy for scan-heavy workloads and the BufferPool default.
+ *
+ * @Threadsafe
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final PageId[] frames;
+    private final AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * @param capacity the number of frames, i.e. the maximum number of pages
+     *            that will ever be resident at once
+     */
+    public ClockEvictionPolicy(int capacity) {
+        this.frames = new PageId[capacity];
+        this.referenced = new AtomicIntegerArray(capacity);
+        this.frameOf = new ConcurrentHashMap<PageId, Integer>();
+        this.freeFrames = new ArrayDeque<Integer>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeFrames.add(i);
+        }
+        this.hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            throw new IllegalStateException("no free frame for page " + pid);
+        }
+        frames[frame] = pid;
+        referenced.set(frame, 1);
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced.set(frame, 0);
+            freeFrames.add(frame);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Candidate candidates) {
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(frame, 0) == 1) {
+                continue;
+            }
+            if (candidates.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
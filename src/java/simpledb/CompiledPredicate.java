@@ -0,0 +1,26 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A predicate (or conjunction of predicates) specialized for one field type
+ * and operator by {@link PredicateCompiler}. It can be tested against a
+ * Tuple or directly against a tuple serialized in a page image.
+ *
+ * @see Predicate
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * @return true if t satisfies this predicate
+     */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * Tests the tuple serialized in buf starting at offset, in the format
+     * HeapPage uses. buf's position is not used or changed.
+     *
+     * @return true if the tuple satisfies this predicate
+     */
+    public abstract boolean matches(ByteBuffer buf, int offset);
+}
@@ -68,6 +68,62 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples of this DbFile that satisfy every
+     * predicate, holding only the projected fields. Files that can test
+     * predicates without decoding whole tuples should override this; the
+     * default filters and projects the tuples of {@link #iterator}.
+     *
+     * @param predicates predicates on fields of {@link #getTupleDesc()};
+     *            may be empty
+     * @param projection the indexes of the fields to return, in order, or
+     *            null for all fields. Tuples keep their RecordIds.
+     * @return an iterator over the matching, projected tuples.
+     */
+    public default DbFileIterator iterator(TransactionId tid,
+            final List<Predicate> predicates, final int[] projection) {
+        final DbFileIterator all = iterator(tid);
+        final TupleDesc projected = projection == null ? null : getTupleDesc().project(projection);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                all.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                all.rewind();
+            }
+
+            public void close() {
+                super.close();
+                all.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (all.hasNext()) {
+                    Tuple t = all.next();
+                    boolean matches = true;
+                    for (int i = 0; matches && i < predicates.size(); i++) {
+                        matches = predicates.get(i).filter(t);
+                    }
+                    if (!matches) {
+                        continue;
+                    }
+                    if (projected == null) {
+                        return t;
+                    }
+                    Tuple out = new Tuple(projected);
+                    for (int i = 0; i < projection.length; i++) {
+                        out.setField(i, t.getField(projection[i]));
+                    }
+                    out.setRecordId(t.getRecordId());
+                    return out;
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
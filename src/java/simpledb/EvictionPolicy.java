@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should give up
+ * when it needs a free frame. The BufferPool reports every page that enters
+ * the pool, every hit on a resident page, and every page that leaves the
+ * pool; the policy keeps whatever bookkeeping it needs and nominates a
+ * victim on request.
+ * <p>
+ * Implementations must be safe to call from several threads at once, since
+ * hits are reported without holding the BufferPool lock.
+ *
+ * @see BufferPool
+ * @see ClockEvictionPolicy
+ * @see LruKEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Filter used by the BufferPool to veto victims the policy proposes,
+     * e.g. dirty pages that cannot be written out yet.
+     */
+    public interface Candidate {
+        /** @return true if the page may be evicted right now. */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /** Called when pid has been read into the pool. */
+    public void pageLoaded(PageId pid);
+
+    /** Called on every request for a page that is already resident. */
+    public void pageAccessed(PageId pid);
+
+    /** Called when pid leaves the pool, whether evicted or discarded. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the next page to evict.
+     *
+     * @param candidates decides whether a given page may be evicted
+     * @return the page to evict, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(Candidate candidates);
+}
@@ -0,0 +1,40 @@
+package simpledb;
+
+/**
+ * 64-bit hashes of field values for the probabilistic structures
+ * ({@link PageBloomFilter}, {@link HyperLogLog}). Field.hashCode is only 32
+ * bits and, for IntField, the value itself, which is too regular for them.
+ */
+final class FieldHash {
+
+    private FieldHash() {
+    }
+
+    /** @return a well-mixed 64-bit hash of value */
+    static long hash64(Field value) {
+        long h;
+        if (value instanceof IntField) {
+            h = ((IntField) value).getValue();
+        } else {
+            // FNV-1a: String.hashCode alone leaves too many collisions
+            String s = ((StringField) value).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return mix(h);
+    }
+
+    /** @return a well-mixed 64-bit hash of an int value */
+    static long hash64(int value) {
+        return mix(value);
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
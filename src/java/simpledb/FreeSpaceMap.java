@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A FreeSpaceMap records, one bit per page, which pages of a HeapFile have
+ * an empty slot, so an insert finds a page with room without reading page
+ * headers. The map is saved next to the data file (see {@link #fileFor}).
+ * <p>
+ * The bits are hints: a page marked free is checked before it is used.
+ * Inserts and deletes update a page's bit at once, and an abort puts it
+ * back (see {@link HeapFile#restoreFreeSpace}). {@link #findFree} starts at the
+ * first word that may have a set bit, so finding a page costs amortized
+ * constant time.
+ * <p>
+ * The file starts with a header of three ints: a magic number, the page
+ * size and the number of pages. The bitmap follows as longs, page i at bit
+ * i % 64 of word i / 64.
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31;
+    private static final int HEADER_BYTES = 12;
+    private static final int NUM_PAGES_OFFSET = 8;
+
+    private final int pageSize;
+    private long[] words;
+    private int numPages;
+    // every word before this one is zero
+    private int firstWord;
+    private final SideFile out = new SideFile();
+
+    /** Creates an empty map for a file with pages of the given size. */
+    public FreeSpaceMap(int pageSize) {
+        this.pageSize = pageSize;
+        this.words = new long[1];
+    }
+
+    /** @return the file holding the map of the table in dataFile */
+    public static File fileFor(File dataFile) {
+        String path = dataFile.getPath();
+        if (path.endsWith(".dat")) {
+            path = path.substring(0, path.length() - ".dat".length());
+        }
+        return new File(path + ".fsm");
+    }
+
+    /** @return the size of the pages this map describes */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the number of pages recorded */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** Records whether a page has an empty slot, extending the map if needed. */
+    public synchronized void setFree(int pageNo, boolean free) {
+        int w = pageNo >>> 6;
+        if (w >= words.length) {
+            words = Arrays.copyOf(words, Math.max(w + 1, words.length * 2));
+        }
+        numPages = Math.max(numPages, pageNo + 1);
+        if (free) {
+            words[w] |= 1L << pageNo;
+            firstWord = Math.min(firstWord, w);
+        } else {
+            words[w] &= ~(1L << pageNo);
+        }
+    }
+
+    /** @return true if the page is marked as having an empty slot */
+    public synchronized boolean isFree(int pageNo) {
+        return pageNo < numPages && (words[pageNo >>> 6] & (1L << pageNo)) != 0;
+    }
+
+    /** @return the lowest page marked as having an empty slot, or -1 */
+    public synchronized int findFree() {
+        int last = (numPages + 63) >>> 6;
+        while (firstWord < last && words[firstWord] == 0) {
+            firstWord++;
+        }
+        if (firstWord == last) {
+            return -1;
+        }
+        return (firstWord << 6) + Long.numberOfTrailingZeros(words[firstWord]);
+    }
+
+    /** Writes the whole map to f, replacing its contents. */
+    public synchronized void write(File f) throws IOException {
+        int n = (numPages + 63) >>> 6;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + n * 8);
+        buf.putInt(MAGIC).putInt(pageSize).putInt(numPages);
+        buf.asLongBuffer().put(words, 0, n);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(buf.array());
+        }
+    }
+
+    /**
+     * Writes the word holding a page's bit, and the page count, to the map
+     * in f, along with any words between the end of f and that word.
+     */
+    public synchronized void writePage(File f, int pageNo) throws IOException {
+        FileChannel ch = out.channel(f);
+        if (ch.size() < HEADER_BYTES) {
+            write(f);
+            return;
+        }
+        int w = pageNo >>> 6;
+        int from = (int) Math.min(w, (ch.size() - HEADER_BYTES) / 8);
+        ByteBuffer buf = ByteBuffer.allocate((w - from + 1) * 8);
+        buf.asLongBuffer().put(words, from, w - from + 1);
+        SideFile.write(ch, buf, HEADER_BYTES + (long) from * 8);
+        SideFile.writeInt(ch, numPages, NUM_PAGES_OFFSET);
+    }
+
+    /** Releases the file handle kept by {@link #writePage}; a later write reopens it. */
+    public synchronized void close() {
+        out.close();
+    }
+
+    /**
+     * Reads the map stored in f.
+     *
+     * @return the map, or null if f is missing or does not hold a map for
+     *         pages of this size
+     */
+    public static FreeSpaceMap read(File f, int pageSize) {
+        if (!f.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readInt() != pageSize) {
+                return null;
+            }
+            int pages = in.readInt();
+            int n = (pages + 63) >>> 6;
+            if (pages < 0 || f.length() - HEADER_BYTES < n * 8L) {
+                return null;
+            }
+            FreeSpaceMap map = new FreeSpaceMap(pageSize);
+            map.words = new long[Math.max(1, n)];
+            for (int i = 0; i < n; i++) {
+                map.words[i] = in.readLong();
+            }
+            map.numPages = pages;
+            return map;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An on-disk linear hash index from the values of one field of a table to
+ * the RecordIds of the tuples holding them. An equality lookup reads the
+ * one page of the key's bucket, plus the overflow pages chained to it; the
+ * index keeps the average bucket at most three-quarters full by splitting
+ * one bucket at a time, so chains stay short as the table grows.
+ * <p>
+ * File layout, in pages of the size the index was created with:
+ * <ul>
+ * <li>page 0 is the header: the hashing state, the number of entries, the
+ * head of the free page list, the version of the table the index last
+ * matched (see {@link #markSynced}), and the page number of each bucket,
+ * with buckets that do not fit continued on a chain of directory pages;</li>
+ * <li>every other page is a bucket page: the number of entries, the next
+ * page of the bucket's overflow chain (or -1), then entries made of the
+ * serialized key, the page number and the tuple number.</li>
+ * </ul>
+ * Pages are read and written directly rather than through the BufferPool,
+ * and every change is written through immediately.
+ */
+public class HashIndex {
+
+    private static final int MAGIC = 0x48494433;
+    private static final int HEADER_INTS = 12;
+    private static final int BUCKET_HEADER = 8;
+    private static final double MAX_LOAD = 0.75;
+
+    private final File file;
+    private final Type keyType;
+    private final int tableId;
+    private final int keyLen;
+    private final int entrySize;
+    private FileChannel channel;
+
+    private int pageSize;
+    private int entriesPerPage;
+    private int level;
+    private int split;
+    private int numEntries;
+    private int freeHead;
+    private int numPages;
+    private int[] bucketPages;
+    private int numBuckets;
+    private final ArrayList<Integer> dirPages = new ArrayList<Integer>();
+    private boolean dirChanged;
+    private boolean bulk;
+    private long pageReads;
+    private long tableVersion;
+
+    /**
+     * Opens the index stored in f, creating an empty one if f is empty or
+     * does not exist.
+     *
+     * @param keyType the type of the indexed field
+     * @param tableId the id of the indexed table, for the RecordIds returned
+     * @throws IOException if f is not an index on keys of keyType
+     */
+    public HashIndex(File f, Type keyType, int tableId) throws IOException {
+        this.file = f;
+        this.keyType = keyType;
+        this.tableId = tableId;
+        this.keyLen = keyType.getLen();
+        this.entrySize = keyLen + 8;
+        this.channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (channel.size() == 0) {
+                initialize();
+            } else {
+                readMeta();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds a new index on field keyField of table, replacing whatever f
+     * held.
+     */
+    public static HashIndex build(TransactionId tid, DbFile table, int keyField, File f)
+            throws IOException, DbException, TransactionAbortedException {
+        if (f.exists() && !f.delete()) {
+            throw new IOException("cannot replace " + f);
+        }
+        HashIndex index = new HashIndex(f, table.getTupleDesc().getFieldType(keyField), table.getId());
+        DbFileIterator it = table.iterator(tid);
+        index.bulk = true;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                index.insert(t.getField(keyField), t.getRecordId());
+            }
+        } finally {
+            it.close();
+            index.bulk = false;
+        }
+        index.writeMeta();
+        return index;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the number of keys in the index */
+    public synchronized int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return the number of buckets the keys are hashed into */
+    public synchronized int getNumBuckets() {
+        return numBuckets;
+    }
+
+    /** @return the number of pages read from disk since the index was opened */
+    public synchronized long getPageReads() {
+        return pageReads;
+    }
+
+    /**
+     * Records that the index holds an entry for every tuple of the table as
+     * of a version of it (see {@link HeapFile#syncVersion}). Entries may
+     * outlive their tuples, as the inserts of a transaction still running
+     * are indexed at once, but none is missing.
+     */
+    public synchronized void markSynced(long version) throws IOException {
+        if (version != tableVersion) {
+            tableVersion = version;
+            writeMeta();
+        }
+    }
+
+    /** @return the table version last recorded with {@link #markSynced}, or 0 */
+    public synchronized long getTableVersion() {
+        return tableVersion;
+    }
+
+    /** Releases the file handle; the index may not be used afterwards. */
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the RecordIds of the tuples whose key equals key, in no
+     *         particular order
+     */
+    public synchronized List<RecordId> lookup(Field key) throws IOException {
+        byte[] k = serialize(key);
+        ArrayList<RecordId> out = new ArrayList<RecordId>(1);
+        int pageNo = bucketPages[bucketOf(key)];
+        while (pageNo >= 0) {
+            ByteBuffer page = readPage(pageNo);
+            int count = page.getInt(0);
+            for (int i = 0; i < count; i++) {
+                int off = BUCKET_HEADER + i * entrySize;
+                if (keyEquals(page, off, k)) {
+                    out.add(new RecordId(new HeapPageId(tableId, page.getInt(off + keyLen)),
+                            page.getInt(off + keyLen + 4)));
+                }
+            }
+            pageNo = page.getInt(4);
+        }
+        return out;
+    }
+
+    /**
+     * Adds an entry mapping key to rid.
+     *
+     * @return false if the index already had that entry
+     */
+    public synchronized boolean insert(Field key, RecordId rid) throws IOException {
+        byte[] k = serialize(key);
+        int pageNo = bucketPages[bucketOf(key)];
+        ByteBuffer page = readPage(pageNo);
+        for (;;) {
+            if (hasEntry(page, k, rid)) {
+                return false;
+            }
+            if (page.getInt(4) < 0) {
+                break;
+            }
+            pageNo = page.getInt(4);
+            page = readPage(pageNo);
+        }
+        int count = page.getInt(0);
+        if (count == entriesPerPage) {
+            int overflow = allocPage();
+            page.putInt(4, overflow);
+            writePage(pageNo, page);
+            pageNo = overflow;
+            page = emptyPage();
+            count = 0;
+        }
+        putEntry(page, count, k, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+        page.putInt(0, count + 1);
+        writePage(pageNo, page);
+
+        numEntries++;
+        if (numEntries > MAX_LOAD * numBuckets * entriesPerPage) {
+            splitBucket();
+        }
+        if (!bulk) {
+            writeMeta();
+        }
+        return true;
+    }
+
+    /** @return true if the bucket page holds the entry mapping key to rid */
+    private boolean hasEntry(ByteBuffer page, byte[] key, RecordId rid) {
+        int count = page.getInt(0);
+        for (int i = 0; i < count; i++) {
+            int off = BUCKET_HEADER + i * entrySize;
+            if (keyEquals(page, off, key) && page.getInt(off + keyLen) == rid.getPageId().getPageNumber()
+                    && page.getInt(off + keyLen + 4) == rid.getTupleNumber()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the entry mapping key to rid.
+     *
+     * @return false if there was no such entry
+     */
+    public synchronized boolean delete(Field key, RecordId rid) throws IOException {
+        int bucket = bucketOf(key);
+        byte[] k = serialize(key);
+        List<byte[]> entries = readChain(bucketPages[bucket]);
+        int pageNo = rid.getPageId().getPageNumber();
+        for (Iterator<byte[]> it = entries.iterator(); it.hasNext();) {
+            ByteBuffer e = ByteBuffer.wrap(it.next());
+            if (keyEquals(e, 0, k) && e.getInt(keyLen) == pageNo
+                    && e.getInt(keyLen + 4) == rid.getTupleNumber()) {
+                it.remove();
+                writeChain(bucketPages[bucket], entries);
+                numEntries--;
+                writeMeta();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hash(Field key) {
+        // spread the bits: IntField hashes to its value, which is often dense
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 15);
+    }
+
+    private int bucketOf(Field key) {
+        return bucketOf(hash(key));
+    }
+
+    private int bucketOf(int h) {
+        int n = 1 << level;
+        int b = h & (n - 1);
+        return b < split ? h & (2 * n - 1) : b;
+    }
+
+    /**
+     * Splits the bucket at the split pointer into itself and a new bucket
+     * at the end, by one more bit of the hash.
+     */
+    private void splitBucket() throws IOException {
+        int n = 1 << level;
+        int old = split;
+        int added = numBuckets;
+        if (numBuckets == bucketPages.length) {
+            bucketPages = Arrays.copyOf(bucketPages, numBuckets * 2);
+        }
+        bucketPages[numBuckets++] = allocPage();
+        writePage(bucketPages[added], emptyPage());
+        dirChanged = true;
+
+        List<byte[]> entries = readChain(bucketPages[old]);
+        ArrayList<byte[]> stay = new ArrayList<byte[]>();
+        ArrayList<byte[]> move = new ArrayList<byte[]>();
+        for (byte[] e : entries) {
+            Field key = keyType.parse(ByteBuffer.wrap(e), 0);
+            ((hash(key) & (2 * n - 1)) == old ? stay : move).add(e);
+        }
+        writeChain(bucketPages[old], stay);
+        writeChain(bucketPages[added], move);
+
+        if (++split == n) {
+            level++;
+            split = 0;
+        }
+    }
+
+    private List<byte[]> readChain(int pageNo) throws IOException {
+        ArrayList<byte[]> entries = new ArrayList<byte[]>();
+        while (pageNo >= 0) {
+            ByteBuffer page = readPage(pageNo);
+            int count = page.getInt(0);
+            for (int i = 0; i < count; i++) {
+                byte[] e = new byte[entrySize];
+                System.arraycopy(page.array(), BUCKET_HEADER + i * entrySize, e, 0, entrySize);
+                entries.add(e);
+            }
+            pageNo = page.getInt(4);
+        }
+        return entries;
+    }
+
+    /**
+     * Rewrites the chain starting at first to hold entries, reusing its
+     * pages, adding overflow pages if needed and freeing those left over.
+     */
+    private void writeChain(int first, List<byte[]> entries) throws IOException {
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        for (int p = first; p >= 0; p = readPage(p).getInt(4)) {
+            pages.add(p);
+        }
+        int needed = Math.max(1, (entries.size() + entriesPerPage - 1) / entriesPerPage);
+        while (pages.size() < needed) {
+            pages.add(allocPage());
+        }
+        for (int i = 0; i < needed; i++) {
+            ByteBuffer page = emptyPage();
+            int from = i * entriesPerPage;
+            int to = Math.min(entries.size(), from + entriesPerPage);
+            for (int j = from; j < to; j++) {
+                System.arraycopy(entries.get(j), 0, page.array(),
+                        BUCKET_HEADER + (j - from) * entrySize, entrySize);
+            }
+            page.putInt(0, to - from);
+            page.putInt(4, i + 1 < needed ? pages.get(i + 1) : -1);
+            writePage(pages.get(i), page);
+        }
+        for (int i = needed; i < pages.size(); i++) {
+            freePage(pages.get(i));
+        }
+    }
+
+    private ByteBuffer emptyPage() {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        page.putInt(4, -1);
+        return page;
+    }
+
+    private void putEntry(ByteBuffer page, int i, byte[] key, int pageNo, int tupleNo) {
+        int off = BUCKET_HEADER + i * entrySize;
+        System.arraycopy(key, 0, page.array(), off, keyLen);
+        page.putInt(off + keyLen, pageNo);
+        page.putInt(off + keyLen + 4, tupleNo);
+    }
+
+    private boolean keyEquals(ByteBuffer buf, int off, byte[] key) {
+        byte[] a = buf.array();
+        for (int i = 0; i < keyLen; i++) {
+            if (a[off + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] serialize(Field key) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keyLen);
+        key.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    private int allocPage() throws IOException {
+        if (freeHead < 0) {
+            return numPages++;
+        }
+        int page = freeHead;
+        freeHead = readPage(page).getInt(4);
+        return page;
+    }
+
+    private void freePage(int pageNo) throws IOException {
+        ByteBuffer page = emptyPage();
+        page.putInt(4, freeHead);
+        writePage(pageNo, page);
+        freeHead = pageNo;
+    }
+
+    private ByteBuffer readPage(int pageNo) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        long offset = (long) pageSize * pageNo;
+        while (page.hasRemaining()) {
+            if (channel.read(page, offset + page.position()) < 0) {
+                throw new IOException("page " + pageNo + " is past the end of " + file);
+            }
+        }
+        pageReads++;
+        page.clear();
+        return page;
+    }
+
+    private void writePage(int pageNo, ByteBuffer page) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(page.array());
+        long offset = (long) pageSize * pageNo;
+        while (data.hasRemaining()) {
+            channel.write(data, offset + data.position());
+        }
+    }
+
+    private void initialize() throws IOException {
+        pageSize = BufferPool.getPageSize();
+        entriesPerPage = (pageSize - BUCKET_HEADER) / entrySize;
+        if (entriesPerPage < 1) {
+            throw new IOException("pages of " + pageSize + " bytes cannot hold an index entry");
+        }
+        level = 0;
+        split = 0;
+        numEntries = 0;
+        freeHead = -1;
+        numPages = 1;
+        bucketPages = new int[16];
+        bucketPages[0] = allocPage();
+        numBuckets = 1;
+        writePage(bucketPages[0], emptyPage());
+        dirChanged = true;
+        writeMeta();
+    }
+
+    private int headerCapacity() {
+        return pageSize / 4 - HEADER_INTS;
+    }
+
+    /** Writes the header, and the directory pages if the directory changed. */
+    private void writeMeta() throws IOException {
+        int inHeader = headerCapacity();
+        int perDirPage = pageSize / 4 - 1;
+        if (dirChanged) {
+            int needed = Math.max(0, (numBuckets - inHeader + perDirPage - 1) / perDirPage);
+            while (dirPages.size() < needed) {
+                dirPages.add(allocPage());
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(pageSize);
+        header.putInt(MAGIC).putInt(pageSize).putInt(keyType.ordinal()).putInt(level)
+                .putInt(split).putInt(numEntries).putInt(freeHead).putInt(numPages)
+                .putInt(numBuckets).putInt(dirPages.isEmpty() ? -1 : dirPages.get(0))
+                .putLong(tableVersion);
+        int b = 0;
+        for (; b < Math.min(numBuckets, inHeader); b++) {
+            header.putInt(bucketPages[b]);
+        }
+        writePage(0, header);
+        if (!dirChanged) {
+            return;
+        }
+        for (int d = 0; d < dirPages.size(); d++) {
+            ByteBuffer page = ByteBuffer.allocate(pageSize);
+            page.putInt(d + 1 < dirPages.size() ? dirPages.get(d + 1) : -1);
+            for (int i = 0; i < perDirPage && b < numBuckets; i++, b++) {
+                page.putInt(bucketPages[b]);
+            }
+            writePage(dirPages.get(d), page);
+        }
+        dirChanged = false;
+    }
+
+    private void readMeta() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 * HEADER_INTS);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 4 * HEADER_INTS || header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a hash index");
+        }
+        pageSize = header.getInt();
+        if (header.getInt() != keyType.ordinal()) {
+            throw new IOException(file + " does not index keys of type " + keyType);
+        }
+        entriesPerPage = (pageSize - BUCKET_HEADER) / entrySize;
+        level = header.getInt();
+        split = header.getInt();
+        numEntries = header.getInt();
+        freeHead = header.getInt();
+        numPages = header.getInt();
+        numBuckets = header.getInt();
+        int dirPage = header.getInt();
+        tableVersion = header.getLong();
+
+        bucketPages = new int[Math.max(16, numBuckets)];
+        ByteBuffer page = readPage(0);
+        page.position(4 * HEADER_INTS);
+        int b = 0;
+        for (; b < Math.min(numBuckets, headerCapacity()); b++) {
+            bucketPages[b] = page.getInt();
+        }
+        while (dirPage >= 0) {
+            dirPages.add(dirPage);
+            page = readPage(dirPage);
+            dirPage = page.getInt();
+            while (b < numBuckets && page.hasRemaining()) {
+                bucketPages[b++] = page.getInt();
+            }
+        }
+        pageReads = 0;
+    }
+}
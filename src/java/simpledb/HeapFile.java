@@ -1,6 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -9,12 +14,57 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional I/O on one FileChannel that
+ * stays open for the life of the HeapFile, so concurrent page loads never
+ * share a file pointer. The channel is opened on first use and reopened
+ * after {@link #close}.
+ * <p>
+ * In {@link ReadMode#MEMORY_MAPPED} mode the file is instead mapped
+ * read-only in segments of up to 1GB, and each HeapPage is built straight
+ * from a slice of the mapping with no intermediate byte array. This suits
+ * read-mostly tables; writes still go through the channel, which the
+ * mapping observes since both share the OS page cache. Because of that, a
+ * mapped page's tuples are copied out of the mapping as they are read, so
+ * a tuple handed out earlier keeps its values when the page is rewritten;
+ * the page's own accessors such as {@link HeapPage#getInt} read the
+ * mapping as it is now.
+ * <p>
+ * Scans with predicates consult the file's {@link ZoneMap}, and the
+ * {@link PageBloomFilter}s of fields that have one, and skip the pages
+ * these rule out without reading them.
+ * <p>
+ * Inserts find a page with room in the file's {@link FreeSpaceMap}. When
+ * no page has room the file grows by an extent of empty pages at once,
+ * between {@link #MIN_EXTENT_PAGES} and {@link #MAX_EXTENT_PAGES} pages and
+ * about an eighth of its size, rather than a page at a time. Bulk loads
+ * instead fill whole pages past the end of the file and write them in one
+ * go; see {@link BufferPool#bulkInsert}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** How pages of a HeapFile are brought in from disk. */
+    public enum ReadMode {
+        /** Positional reads into a fresh buffer per page. */
+        CHANNEL,
+        /** Pages are views of a read-only memory mapping of the file. */
+        MEMORY_MAPPED
+    }
+
+    private static final int VERSION_MAGIC = 0x56455253;
+
+    /** Bytes covered by one mapping; a MappedByteBuffer cannot exceed 2GB. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /** Fewest pages the file grows by when no page has room for an insert. */
+    public static final int MIN_EXTENT_PAGES = 4;
+
+    /** Most pages the file grows by at once. */
+    public static final int MAX_EXTENT_PAGES = 256;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -26,11 +76,49 @@ public class HeapFile implements DbFile {
 	private File file;
 	private TupleDesc tupleDesc;
 	private Integer id;
+	private volatile FileChannel channel;
+	private volatile ReadMode readMode;
+	private volatile MappedByteBuffer[] segments;
+	private volatile int segmentPageSize;
+	private volatile ZoneMap zoneMap;
+	private volatile FreeSpaceMap freeSpace;
+	// per field: whether it has a Bloom filter, and the filter once loaded
+	private final boolean[] bloomFields;
+	private final PageBloomFilter[] bloomFilters;
+	// the write version of the file, 0 until read; see syncVersion
+	private long version;
+	// false until the first write since the version was last handed out
+	private volatile boolean versionOpen;
+	private final SideFile versionOut = new SideFile();
 	
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, ReadMode.CHANNEL);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, reading its pages
+     * in the given mode.
+     */
+    public HeapFile(File f, TupleDesc td, ReadMode mode) {
     	this.file = f;
         this.tupleDesc = td;
         this.id = this.file.hashCode() + this.tupleDesc.hashCode();
+        this.readMode = mode;
+        this.bloomFields = new boolean[td.numFields()];
+        this.bloomFilters = new PageBloomFilter[td.numFields()];
+    }
+
+    /** @return how this file reads its pages. */
+    public ReadMode getReadMode() {
+        return this.readMode;
+    }
+
+    /** Switch how this file reads its pages; pages already cached are unaffected. */
+    public synchronized void setReadMode(ReadMode mode) {
+        this.readMode = mode;
+        if (mode != ReadMode.MEMORY_MAPPED) {
+        	segments = null;
+        }
     }
 
     /**
@@ -69,31 +157,598 @@ public class HeapFile implements DbFile {
     
 //     see DbFile.java for javadocs
     public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageSize * pid.getPageNumber();
         try {
-        	RandomAccessFile raf = new RandomAccessFile(file, "r");
-        	int pageSize = BufferPool.getPageSize();
-        	int pageNum = pid.getPageNumber();
-        	int offSet = pageSize * pageNum;
-        	byte[] data = new byte[pageSize];
-        	raf.seek(offSet);
-        	raf.read(data);
-        	raf.close();
         	HeapPageId hpid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-        	return new HeapPage(hpid, data);
-        	
+        	if (readMode == ReadMode.MEMORY_MAPPED && pid.getPageNumber() >= 0) {
+        		ByteBuffer mapped = mappedPage(pid.getPageNumber());
+        		if (mapped != null) {
+        			return new HeapPage(hpid, mapped);
+        		}
+        		// partial or missing last page: let the channel path sort it out
+        	}
+        	ByteBuffer data = ByteBuffer.allocate(pageSize);
+        	FileChannel ch = channel(false);
+        	// a positional read may return short; a partial last page reads as zero padded
+        	while (data.hasRemaining()) {
+        		if (ch.read(data, offset + data.position()) < 0) {
+        			if (data.position() == 0) {
+        				throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in " + file);
+        			}
+        			break;
+        		}
+        	}
+        	return new HeapPage(hpid, data.array());
+        }
+        catch (NoSuchFileException ex) {
+        	throw new IllegalArgumentException("table file " + file + " does not exist");
         }
         catch (IOException ex) {
         	ex.printStackTrace();
         	return null;
         }
     }
-    
-    
 
-    // see DbFile.java for javadocs
+    /**
+     * Writes a page, and its entries in the maps of this file. The zone map
+     * and Bloom filter entries are first widened to cover both the old and
+     * the new page and saved, and only made exact once the page is on disk,
+     * so a crash in between never leaves them ruling out tuples the page
+     * holds. The free space map is only a hint and follows the page.
+     *
+     * @see DbFile#writePage
+     */
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        int pgNo = page.getId().getPageNumber();
+        HeapPage hp = page instanceof HeapPage ? (HeapPage) page : null;
+        ZoneMap zones = zoneMap;
+        if (hp != null) {
+        	if (zones != null && zones.widenPage(pgNo, hp)) {
+        		zones.writePage(ZoneMap.fileFor(file), pgNo);
+        	}
+        	synchronized (this) {
+        		for (int f = 0; f < bloomFilters.length; f++) {
+        			PageBloomFilter filter = bloomFilters[f];
+        			if (filter != null && filter.widenPage(pgNo, hp)) {
+        				filter.writePage(PageBloomFilter.fileFor(file, f), pgNo);
+        			}
+        		}
+        	}
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) BufferPool.getPageSize() * pgNo;
+        FileChannel ch = writeChannel();
+        while (data.hasRemaining()) {
+        	ch.write(data, offset + data.position());
+        }
+        if (hp == null) {
+        	return;
+        }
+
+        if (zones != null) {
+        	zones.recordPage(pgNo, hp);
+        	zones.writePage(ZoneMap.fileFor(file), pgNo);
+        }
+        FreeSpaceMap free = freeSpace;
+        if (free != null) {
+        	free.setFree(pgNo, hp.getNumEmptySlots() > 0);
+        	free.writePage(FreeSpaceMap.fileFor(file), pgNo);
+        }
+        synchronized (this) {
+        	for (int f = 0; f < bloomFilters.length; f++) {
+        		PageBloomFilter filter = bloomFilters[f];
+        		if (filter != null) {
+        			filter.recordPage(pgNo, hp);
+        			filter.writePage(PageBloomFilter.fileFor(file, f), pgNo);
+        		}
+        	}
+        }
+    }
+
+    /**
+     * Gives a field of this file a Bloom filter per page, so scans with an
+     * EQUALS predicate on it can skip the pages that cannot hold the value.
+     * The filter is built, or read from next to the file (see
+     * {@link PageBloomFilter#fileFor}), the first time a scan needs it.
+     */
+    public synchronized void enableBloomFilter(int field) {
+        if (field < 0 || field >= bloomFields.length) {
+        	throw new IllegalArgumentException("no field " + field + " in " + tupleDesc);
+        }
+        bloomFields[field] = true;
+    }
+
+    /**
+     * Returns the Bloom filter of a field, reading it on first use, or
+     * rebuilding it from the pages on disk and saving it if that copy is
+     * missing or older than the file.
+     *
+     * @return the filter, or null if the field has none
+     * @see #enableBloomFilter
+     */
+    public synchronized PageBloomFilter getBloomFilter(int field) {
+        if (!bloomFields[field]) {
+        	return null;
+        }
+        int pageSize = BufferPool.getPageSize();
+        PageBloomFilter filter = bloomFilters[field];
+        if (filter != null && filter.getPageSize() == pageSize) {
+        	return filter;
+        }
+        File bf = PageBloomFilter.fileFor(file, field);
+        int pages = numPages();
+        filter = null;
+        if (bf.lastModified() >= file.lastModified()) {
+        	filter = PageBloomFilter.read(bf, tupleDesc.getFieldType(field), field, pageSize);
+        	if (filter != null && filter.numBlocks() != (pages + filter.getPagesPerBlock() - 1) / filter.getPagesPerBlock()) {
+        		filter = null;
+        	}
+        }
+        if (filter == null) {
+        	filter = PageBloomFilter.create(tupleDesc, field, pageSize);
+        	for (int p = 0; p < pages; p++) {
+        		HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), p));
+        		if (page != null) {
+        			filter.recordPage(p, page);
+        		}
+        	}
+        	if (file.exists()) {
+        		try {
+        			filter.write(bf);
+        		} catch (IOException e) {
+        			// the filter still serves this process; the next one rebuilds it
+        		}
+        	}
+        }
+        if (bloomFilters[field] != null) {
+        	bloomFilters[field].close();
+        }
+        bloomFilters[field] = filter;
+        return filter;
+    }
+
+    /**
+     * Returns the zone map of this file. It is read from next to the file
+     * (see {@link ZoneMap#fileFor}) on first use, or rebuilt from the pages
+     * on disk and saved if that copy is missing or older than the file.
+     * The map follows every page written through {@link #writePage}.
+     */
+    public ZoneMap getZoneMap() {
+        ZoneMap zones = zoneMap;
+        if (zones == null || zones.getPageSize() != BufferPool.getPageSize()) {
+        	synchronized (this) {
+        		zones = zoneMap;
+        		if (zones == null || zones.getPageSize() != BufferPool.getPageSize()) {
+        			zones = loadZoneMap();
+        			if (zoneMap != null) {
+        				zoneMap.close();
+        			}
+        			zoneMap = zones;
+        		}
+        	}
+        }
+        return zones;
+    }
+
+    private ZoneMap loadZoneMap() {
+        File zf = ZoneMap.fileFor(file);
+        Type[] types = new Type[tupleDesc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+        	types[i] = tupleDesc.getFieldType(i);
+        }
+        int pageSize = BufferPool.getPageSize();
+        int pages = numPages();
+        if (zf.lastModified() >= file.lastModified()) {
+        	ZoneMap zones = ZoneMap.read(zf, types, pageSize);
+        	if (zones != null && zones.numPages() == pages) {
+        		return zones;
+        	}
+        }
+        ZoneMap zones = new ZoneMap(types, pageSize);
+        for (int p = 0; p < pages; p++) {
+        	HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), p));
+        	if (page != null) {
+        		zones.recordPage(p, page);
+        	}
+        }
+        if (file.exists()) {
+        	try {
+        		zones.write(zf);
+        	} catch (IOException e) {
+        		// the map still serves this process; the next one rebuilds it
+        	}
+        }
+        return zones;
+    }
+
+    /**
+     * Returns the free space map of this file. Like the zone map, it is read
+     * from next to the file on first use, or rebuilt from the page headers
+     * and saved if that copy is missing or older than the file.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        FreeSpaceMap free = freeSpace;
+        if (free == null || free.getPageSize() != BufferPool.getPageSize()) {
+        	synchronized (this) {
+        		free = freeSpace;
+        		if (free == null || free.getPageSize() != BufferPool.getPageSize()) {
+        			free = loadFreeSpaceMap();
+        			if (freeSpace != null) {
+        				freeSpace.close();
+        			}
+        			freeSpace = free;
+        		}
+        	}
+        }
+        return free;
+    }
+
+    private FreeSpaceMap loadFreeSpaceMap() {
+        File ff = FreeSpaceMap.fileFor(file);
+        int pageSize = BufferPool.getPageSize();
+        int pages = numPages();
+        if (ff.lastModified() >= file.lastModified()) {
+        	FreeSpaceMap free = FreeSpaceMap.read(ff, pageSize);
+        	if (free != null && free.numPages() == pages) {
+        		return free;
+        	}
+        }
+        FreeSpaceMap free = new FreeSpaceMap(pageSize);
+        for (int p = 0; p < pages; p++) {
+        	HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), p));
+        	free.setFree(p, page != null && page.getNumEmptySlots() > 0);
+        }
+        if (file.exists()) {
+        	try {
+        		free.write(ff);
+        	} catch (IOException e) {
+        		// the map still serves this process; the next one rebuilds it
+        	}
+        }
+        return free;
+    }
+
+    /**
+     * Appends an extent of empty pages to the file, unless another insert
+     * has made room since the caller looked.
+     */
+    private synchronized void grow(FreeSpaceMap free) throws IOException {
+        if (free.findFree() >= 0) {
+        	return;
+        }
+        int pageSize = BufferPool.getPageSize();
+        int pages = numPages();
+        int extent = Math.max(MIN_EXTENT_PAGES, Math.min(MAX_EXTENT_PAGES, pages / 8));
+        ByteBuffer zeros = ByteBuffer.allocate(extent * pageSize);
+        FileChannel ch = writeChannel();
+        long offset = (long) pages * pageSize;
+        while (zeros.hasRemaining()) {
+        	ch.write(zeros, offset + zeros.position());
+        }
+        ZoneMap zones = zoneMap;
+        for (int p = pages; p < pages + extent; p++) {
+        	free.setFree(p, true);
+        	if (zones != null) {
+        		zones.recordPage(p, null, null, true);
+        	}
+        }
+        try {
+        	free.write(FreeSpaceMap.fileFor(file));
+        	if (zones != null) {
+        		zones.writePage(ZoneMap.fileFor(file), pages + extent - 1);
+        	}
+        } catch (IOException e) {
+        	// the maps still serve this process; the next one rebuilds them
+        }
+    }
+
+    /**
+     * Takes tuples from the iterator and fills new pages at the end of the
+     * file with them, up to maxPages pages, for a bulk load by
+     * {@link BufferPool#bulkInsert}. The pages are reserved by extending
+     * the file, so concurrent loads and inserts never share one, and are
+     * marked full in the free space map; they read as empty until the
+     * caller writes them with {@link #writeBulkPages}.
+     *
+     * @return the filled pages, in page order, or an empty list if the
+     *         iterator has no more tuples
+     * @throws DbException if a tuple does not match the TupleDesc of this file
+     */
+    List<HeapPage> fillBulkPages(Iterator<Tuple> tuples, int maxPages) throws DbException, IOException {
+        int slots = HeapPage.slotsPerPage(tupleDesc);
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        while (batch.size() < maxPages * slots && tuples.hasNext()) {
+        	Tuple t = tuples.next();
+        	if (!tupleDesc.equals(t.getTupleDesc())) {
+        		throw new DbException("tuple does not match the TupleDesc of " + file);
+        	}
+        	batch.add(t);
+        }
+        ArrayList<HeapPage> pages = new ArrayList<HeapPage>();
+        if (batch.isEmpty()) {
+        	return pages;
+        }
+        int n = (batch.size() + slots - 1) / slots;
+        FreeSpaceMap free = getFreeSpaceMap();
+        int first;
+        synchronized (this) {
+        	first = numPages();
+        	// one byte at the end claims the pages without writing them twice
+        	writeChannel().write(ByteBuffer.allocate(1), (long) (first + n) * BufferPool.getPageSize() - 1);
+        	for (int p = first; p < first + n; p++) {
+        		free.setFree(p, false);
+        	}
+        }
+        for (int i = 0; i < n; i++) {
+        	HeapPage page = emptyPage(first + i);
+        	for (Tuple t : batch.subList(i * slots, Math.min(batch.size(), (i + 1) * slots))) {
+        		page.insertTuple(t);
+        	}
+        	pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Writes pages filled by {@link #fillBulkPages} in one sequential write,
+     * then records them in the maps of this file and saves each map once.
+     */
+    void writeBulkPages(List<HeapPage> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer data = ByteBuffer.allocate(pages.size() * pageSize);
+        for (HeapPage page : pages) {
+        	data.put(page.getPageData());
+        }
+        data.flip();
+        long offset = (long) pageSize * pages.get(0).getId().getPageNumber();
+        FileChannel ch = writeChannel();
+        while (data.hasRemaining()) {
+        	ch.write(data, offset + data.position());
+        }
+        ZoneMap zones = zoneMap;
+        FreeSpaceMap free = getFreeSpaceMap();
+        for (HeapPage page : pages) {
+        	int pgNo = page.getId().getPageNumber();
+        	free.setFree(pgNo, page.getNumEmptySlots() > 0);
+        	if (zones != null) {
+        		zones.recordPage(pgNo, page);
+        	}
+        }
+        try {
+        	free.write(FreeSpaceMap.fileFor(file));
+        	if (zones != null) {
+        		zones.write(ZoneMap.fileFor(file));
+        	}
+        	synchronized (this) {
+        		for (int f = 0; f < bloomFilters.length; f++) {
+        			PageBloomFilter filter = bloomFilters[f];
+        			if (filter != null) {
+        				for (HeapPage page : pages) {
+        					filter.recordPage(page.getId().getPageNumber(), page);
+        				}
+        				filter.write(PageBloomFilter.fileFor(file, f));
+        			}
+        		}
+        	}
+        } catch (IOException e) {
+        	// the maps still serve this process; the next one rebuilds them
+        }
+    }
+
+    /** @return a new page pgNo of this file with no tuples on it */
+    HeapPage emptyPage(int pgNo) {
+        try {
+        	return new HeapPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData(), tupleDesc);
+        } catch (IOException e) {
+        	throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a read-only view of page pgNo within the mapping of this file,
+     * or null if the file does not hold all of that page.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pagesPerSegment = SEGMENT_BYTES / pageSize;
+        int seg = (int) (pgNo / pagesPerSegment);
+        int start = (int) ((pgNo % pagesPerSegment) * pageSize);
+
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer segment = null;
+        if (segs != null && seg < segs.length && segmentPageSize == pageSize) {
+        	segment = segs[seg];
+        }
+        if (segment == null || segment.capacity() < start + pageSize) {
+        	segment = mapSegment(seg, pagesPerSegment * pageSize, start + pageSize);
+        	if (segment == null) {
+        		return null;
+        	}
+        }
+        ByteBuffer page = segment.duplicate();
+        page.limit(start + pageSize);
+        page.position(start);
+        return page.slice();
+    }
+
+    /**
+     * Maps (or remaps, if the file has grown since) segment seg of this file.
+     *
+     * @return the mapping, or null if the file ends before minBytes of the segment
+     */
+    private synchronized MappedByteBuffer mapSegment(int seg, long segmentBytes, int minBytes) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (segmentPageSize != pageSize) {
+        	// segment boundaries depend on the page size, which tests may change
+        	segments = null;
+        	segmentPageSize = pageSize;
+        }
+        MappedByteBuffer[] segs = segments;
+        if (segs != null && seg < segs.length && segs[seg] != null
+        		&& segs[seg].capacity() >= minBytes) {
+        	return segs[seg];
+        }
+
+        FileChannel ch = channel(false);
+        long offset = seg * segmentBytes;
+        long length = Math.min(segmentBytes, ch.size() - offset);
+        if (length < minBytes) {
+        	return null;
+        }
+        MappedByteBuffer segment = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+        MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(seg + 1, segs == null ? 0 : segs.length)];
+        if (segs != null) {
+        	System.arraycopy(segs, 0, grown, 0, segs.length);
+        }
+        grown[seg] = segment;
+        segments = grown;
+        return segment;
+    }
+
+    /**
+     * Returns the channel backing this file, opening it if this is the first
+     * access since construction or {@link #close}.
+     *
+     * @param create whether to create the file if it does not exist; only
+     *     writes may, so that reading a missing table does not leave an empty
+     *     file behind
+     * @throws NoSuchFileException if the file does not exist and create is
+     *     false
+     */
+    private FileChannel channel(boolean create) throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+        	synchronized (this) {
+        		ch = channel;
+        		if (ch == null || !ch.isOpen()) {
+        			if (file.canWrite()) {
+        				ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        						StandardOpenOption.WRITE);
+        			} else if (create && !file.exists()) {
+        				ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        						StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        			} else {
+        				ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        			}
+        			channel = ch;
+        		}
+        	}
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the channel for a write. The first write since the version of
+     * the file was last handed out by {@link #syncVersion} first moves the
+     * file to a new version and saves it, so the version on disk changes
+     * before the data does.
+     */
+    private FileChannel writeChannel() throws IOException {
+        if (!versionOpen) {
+        	synchronized (this) {
+        		if (!versionOpen) {
+        			version = currentVersion() + 1;
+        			saveVersion();
+        			versionOpen = true;
+        		}
+        	}
+        }
+        return channel(true);
+    }
+
+    /** @return the file holding the write version of the table in dataFile */
+    public static File versionFileFor(File dataFile) {
+        String path = dataFile.getPath();
+        if (path.endsWith(".dat")) {
+        	path = path.substring(0, path.length() - ".dat".length());
+        }
+        return new File(path + ".ver");
+    }
+
+    /**
+     * Returns the write version of this file, and makes the next write move
+     * the file to a new one. Data derived from the table, such as its
+     * {@link HashIndex}, records the version it matches and is stale if
+     * the version has changed since. The version is saved next to the file
+     * (see {@link #versionFileFor}).
+     */
+    public synchronized long syncVersion() {
+        long v = currentVersion();
+        versionOpen = false;
+        return v;
+    }
+
+    /**
+     * Returns the write version of this file, reading it on first use. A
+     * file without a saved version starts from the clock, so it does not
+     * repeat a version recorded against an earlier copy of the table.
+     */
+    public synchronized long currentVersion() {
+        if (version != 0) {
+        	return version;
+        }
+        File vf = versionFileFor(file);
+        if (vf.exists()) {
+        	try (DataInputStream in = new DataInputStream(new FileInputStream(vf))) {
+        		if (in.readInt() == VERSION_MAGIC) {
+        			version = in.readLong();
+        		}
+        	} catch (IOException e) {
+        		// unreadable; start a new version below
+        	}
+        }
+        if (version == 0) {
+        	version = System.currentTimeMillis() << 16;
+        	try {
+        		saveVersion();
+        	} catch (IOException e) {
+        		// derived data then cannot match this version after a restart
+        	}
+        }
+        return version;
+    }
+
+    private synchronized void saveVersion() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        buf.putInt(VERSION_MAGIC).putLong(version).flip();
+        SideFile.write(versionOut.channel(versionFileFor(file)), buf, 0);
+    }
+
+    /**
+     * Releases the file handles held by this HeapFile, for its data file and
+     * the side files its maps write to. Called by
+     * {@link Catalog#clear}; a later read or write reopens the file.
+     */
+    public synchronized void close() {
+        versionOut.close();
+        // the next user of the file may not be watching for writes
+        versionOpen = false;
+        if (zoneMap != null) {
+        	zoneMap.close();
+        }
+        if (freeSpace != null) {
+        	freeSpace.close();
+        }
+        for (PageBloomFilter filter : bloomFilters) {
+        	if (filter != null) {
+        		filter.close();
+        	}
+        }
+        FileChannel ch = channel;
+        channel = null;
+        // mappings stay valid until collected, but drop ours so they can be
+        // unmapped once the pages still reading from them are gone
+        segments = null;
+        if (ch != null) {
+        	try {
+        		ch.close();
+        	} catch (IOException e) {
+        		e.printStackTrace();
+        	}
+        }
     }
 
     /**
@@ -106,24 +761,331 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        if (!tupleDesc.equals(t.getTupleDesc())) {
+        	throw new DbException("tuple does not match the TupleDesc of " + file);
+        }
+        FreeSpaceMap free = getFreeSpaceMap();
+        for (;;) {
+        	int pgNo = free.findFree();
+        	if (pgNo < 0) {
+        		grow(free);
+        		continue;
+        	}
+        	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+        			new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+        	if (page.getNumEmptySlots() == 0) {
+        		// the map was behind; correct it and look again
+        		free.setFree(pgNo, false);
+        		continue;
+        	}
+        	page.insertTuple(t);
+        	if (page.getNumEmptySlots() == 0) {
+        		free.setFree(pgNo, false);
+        	}
+        	// scans by this transaction must not skip the page before it is
+        	// written, so the maps are loaded now if they were not already
+        	getZoneMap().widen(pgNo, t);
+        	synchronized (this) {
+        		for (int f = 0; f < bloomFields.length; f++) {
+        			PageBloomFilter filter = getBloomFilter(f);
+        			if (filter != null) {
+        				filter.addValue(pgNo, t.getField(f));
+        			}
+        		}
+        	}
+        	ArrayList<Page> dirtied = new ArrayList<Page>();
+        	dirtied.add(page);
+        	return dirtied;
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+        		|| rid.getPageId().getPageNumber() >= numPages()) {
+        	throw new DbException("tuple is not stored in " + file);
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+        		rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        getFreeSpaceMap().setFree(rid.getPageId().getPageNumber(), true);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
     }
 
     
+    /**
+     * Puts the free space map entry of a page back as the page's before
+     * image has it. insertTuple and deleteTuple update the entry as soon as
+     * they change a page, so when the transaction aborts and the page is
+     * dropped, the entry is put back with it.
+     */
+    void restoreFreeSpace(HeapPage page) {
+        getFreeSpaceMap().setFree(page.getId().getPageNumber(),
+        		page.getBeforeImage().getNumEmptySlots() > 0);
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
     	return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * Predicates are compiled once and tested against the page bytes; only
+     * the projected fields of matching tuples are decoded.
+     *
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] projection) {
+    	return new FilteredHeapFileIterator(tid, predicates, projection);
+    }
+
+    /**
+     * Returns the matching tuples of this file in batches, decoding the
+     * projected fields of each matching slot straight into the batch's
+     * column arrays.
+     *
+     * @param predicates predicates on fields of {@link #getTupleDesc()};
+     *            may be empty
+     * @param projection the indexes of the fields to return, in order, or
+     *            null for all fields
+     * @param batchSize the maximum number of rows per batch
+     * @see #iterator(TransactionId, List, int[])
+     */
+    public BatchIterator batchIterator(TransactionId tid, List<Predicate> predicates,
+            int[] projection, int batchSize) {
+        return new HeapFileBatchIterator(tid, predicates, projection, batchSize);
+    }
+
+    /**
+     * @return a pruner for a scan by tid, or null if the scan must read
+     *         every page: the maps describe the pages as last written, so a
+     *         snapshot, which may see older versions, cannot trust them
+     */
+    private PagePruner pagePruner(TransactionId tid, List<Predicate> predicates) {
+        if (tid != null && Database.getBufferPool().isSnapshot(tid)) {
+        	return null;
+        }
+        return new PagePruner(predicates);
+    }
+
+    /**
+     * Decides from the zone map and Bloom filters which pages of a scan
+     * with predicates can be skipped.
+     */
+    private class PagePruner {
+        private final List<Predicate> predicates;
+        private final ZoneMap zones;
+        private final PageBloomFilter[] filters;
+        private final Field[] values;
+
+        PagePruner(List<Predicate> predicates) {
+            this.predicates = predicates;
+            this.zones = getZoneMap();
+            ArrayList<PageBloomFilter> filters = new ArrayList<PageBloomFilter>();
+            ArrayList<Field> values = new ArrayList<Field>();
+            for (Predicate p : predicates) {
+                if (p.getOp() == Predicate.Op.EQUALS) {
+                    PageBloomFilter filter = getBloomFilter(p.getField());
+                    if (filter != null) {
+                        filters.add(filter);
+                        values.add(p.getOperand());
+                    }
+                }
+            }
+            this.filters = filters.toArray(new PageBloomFilter[filters.size()]);
+            this.values = values.toArray(new Field[values.size()]);
+        }
+
+        /** @return false if no tuple on the page can satisfy the predicates */
+        boolean mightMatch(int pageNo) {
+            if (!zones.mightMatch(pageNo, predicates)) {
+                return false;
+            }
+            for (int i = 0; i < filters.length; i++) {
+                if (!filters[i].mightContain(pageNo, values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private class HeapFileBatchIterator implements BatchIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final List<Predicate> predicates;
+        private final CompiledPredicate predicate;
+        private final int[] projection;
+        private final TupleDesc projected;
+        private final int batchSize;
+        private transient PagePruner pruner;
+        private transient TupleBatch batch;
+        private transient HeapPage page;
+        private transient int pageNo;
+        private transient int slot;
+
+        HeapFileBatchIterator(TransactionId tid, List<Predicate> predicates, int[] projection, int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batch size must be positive");
+            }
+            TupleDesc td = HeapFile.this.getTupleDesc();
+            this.tid = tid;
+            this.predicates = predicates;
+            this.predicate = predicates.isEmpty() ? null
+                    : PredicateCompiler.compile(td, predicates);
+            if (projection == null) {
+                projection = new int[td.numFields()];
+                for (int i = 0; i < projection.length; i++) {
+                    projection[i] = i;
+                }
+            }
+            this.projection = projection;
+            this.projected = td.project(projection);
+            this.batchSize = batchSize;
+        }
+
+        public void open() {
+            batch = new TupleBatch(projected, batchSize);
+            pruner = predicate == null ? null : pagePruner(tid, predicates);
+            page = null;
+            pageNo = -1;
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (batch == null) {
+                throw new IllegalStateException("iterator is not open");
+            }
+            batch.clear();
+            while (!batch.isFull()) {
+                if (page != null) {
+                    slot = page.nextUsedSlot(slot + 1);
+                    if (slot >= 0) {
+                        if (predicate == null || page.matches(slot, predicate)) {
+                            addRow(page, slot);
+                        }
+                        continue;
+                    }
+                }
+                if (pageNo + 1 >= numPages()) {
+                    page = null;
+                    break;
+                }
+                pageNo++;
+                if (pruner != null && !pruner.mightMatch(pageNo)) {
+                    page = null;
+                    continue;
+                }
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+                slot = -1;
+            }
+            return batch.size() == 0 ? null : batch;
+        }
+
+        private void addRow(HeapPage page, int slot) {
+            int row = batch.addRow(new RecordId(page.getId(), slot));
+            for (int c = 0; c < projection.length; c++) {
+                if (projected.getFieldType(c) == Type.INT_TYPE) {
+                    batch.setInt(c, row, page.getInt(slot, projection[c]));
+                } else {
+                    batch.setString(c, row, ((StringField) page.getField(slot, projection[c])).getValue());
+                }
+            }
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return projected;
+        }
+
+        public void close() {
+            batch = null;
+            page = null;
+        }
+    }
+
+    /**
+     * Scans pages in order like HeapFileIterator, walking the used slots of
+     * each page directly instead of going through its tuple iterator, and
+     * skipping the pages the zone map and Bloom filters rule out.
+     */
+    private class FilteredHeapFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final List<Predicate> predicates;
+        private final CompiledPredicate predicate;
+        private final int[] projection;
+        private final TupleDesc projected;
+        private PagePruner pruner;
+        private HeapPage page;
+        private int pageNo;
+        private int slot;
+        private boolean isOpen;
+
+        FilteredHeapFileIterator(TransactionId tid, List<Predicate> predicates, int[] projection) {
+            this.tid = tid;
+            this.predicates = predicates;
+            this.predicate = predicates.isEmpty() ? null
+                    : PredicateCompiler.compile(getTupleDesc(), predicates);
+            this.projection = projection;
+            this.projected = projection == null ? null : getTupleDesc().project(projection);
+        }
+
+        public void open() {
+            pruner = predicate == null ? null : pagePruner(tid, predicates);
+            page = null;
+            pageNo = -1;
+            isOpen = true;
+        }
+
+        protected Tuple readNext() throws TransactionAbortedException, DbException {
+            if (!isOpen) {
+                return null;
+            }
+            while (true) {
+                if (page != null) {
+                    slot = page.nextUsedSlot(slot + 1);
+                    if (slot >= 0) {
+                        if (predicate == null || page.matches(slot, predicate)) {
+                            return projected == null ? page.getTuple(slot)
+                                    : page.project(slot, projection, projected);
+                        }
+                        continue;
+                    }
+                }
+                if (pageNo + 1 >= numPages()) {
+                    page = null;
+                    return null;
+                }
+                pageNo++;
+                if (pruner != null && !pruner.mightMatch(pageNo)) {
+                    page = null;
+                    continue;
+                }
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+                slot = -1;
+            }
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+            isOpen = false;
+        }
+    }
     
     
     
@@ -134,6 +1096,7 @@ public class HeapFile implements DbFile {
 		private Integer currPage;
 		private HeapFile hf;
 		private TransactionId tid;
+		private boolean isOpen;
 		
 		public HeapFileIterator(HeapFile hf, TransactionId tid) {
 	        this.tid = tid;
@@ -144,8 +1107,17 @@ public class HeapFile implements DbFile {
 		
 		public void open() throws DbException, TransactionAbortedException{
 	    	currPage = -1; 
+	    	isOpen = true;
 	    }
+
+        /*
+         * Pages are requested strictly in order, which is what lets the
+         * BufferPool recognize the scan and read the following pages ahead.
+         */
         protected Tuple readNext() throws TransactionAbortedException, DbException {
+            if (!isOpen) {
+                return null;
+            }
             if (tuple_iterator != null){
             	if (!tuple_iterator.hasNext()) {
             		tuple_iterator = null;
@@ -180,6 +1152,7 @@ public class HeapFile implements DbFile {
         public void close() {
         	currPage = -1;
         	tuple_iterator = null;
+        	isOpen = false;
         	super.close();
 
         }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,7 +77,7 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. A {@link ZoneMap} of the output is written alongside it.
     *
     * @see HeapPage
     * @see HeapFile
@@ -120,6 +121,12 @@ public class HeapFileEncoder {
     ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
     DataOutputStream pageStream = new DataOutputStream(pageBAOS);
 
+    ZoneMap zones = new ZoneMap(Arrays.copyOf(typeAr, numFields), npagebytes);
+    int[] mins = new int[numFields];
+    int[] maxs = new int[numFields];
+    Arrays.fill(mins, Integer.MAX_VALUE);
+    Arrays.fill(maxs, Integer.MIN_VALUE);
+
     boolean done = false;
     boolean first = true;
     while (!done) {
@@ -140,7 +147,10 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    mins[fieldNo] = Math.min(mins[fieldNo], v);
+                    maxs[fieldNo] = Math.max(maxs[fieldNo], v);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -215,6 +225,10 @@ public class HeapFileEncoder {
             headerStream = new DataOutputStream(headerBAOS);
             pageBAOS = new ByteArrayOutputStream(npagebytes);
             pageStream = new DataOutputStream(pageBAOS);
+
+            zones.recordPage(npages, mins, maxs, recordcount == 0);
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
             
             recordcount = 0;
             npages++;
@@ -222,5 +236,8 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    zones.write(ZoneMap.fileFor(outFile));
+    // a new table: nothing derived from an earlier one may match it
+    HeapFile.versionFileFor(outFile).delete();
   }
 }
@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.lang.Math;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
@@ -16,12 +18,34 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    /*
+     * The header bitmap, 64 slots per word: slot i is used iff bit (i % 64)
+     * of usedSlots[i / 64] is set. Bits past numSlots are always clear.
+     */
+    final long[] usedSlots;
+
+    /*
+     * The page image. Tuples are decoded from it on first use and cached in
+     * tuples; individual fields can be decoded without building a Tuple at
+     * all. The image is shared with the before-image (and with the caller's
+     * array or buffer the page was built from), so it is copied before the
+     * page is first modified. view always covers the image; data is its
+     * backing array, or null while the image is a caller's buffer, such as a
+     * slice of a memory-mapped file.
+     */
+    private byte[] data;
+    private ByteBuffer view;
+    private boolean dataShared;
+    private final AtomicReferenceArray<Tuple> tuples;
+    private final int headerSize;
+    private final int tupleSize;
+
+    private ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -35,44 +59,112 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page does not copy data; it must not be modified afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a file that is not in the Catalog, such as a
+     * temporary file, whose schema is given explicitly.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        if (data.length < headerSize + numSlots * tupleSize) {
+            throw new IOException("page " + id + " is truncated");
+        }
+
+        this.data = data;
+        this.view = ByteBuffer.wrap(data);
+        this.dataShared = true;
+        this.usedSlots = readHeader(view);
+        this.tuples = new AtomicReferenceArray<Tuple>(numSlots);
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page image, e.g. a slice of
+     * a memory-mapped file. The page reads the remaining bytes of the buffer
+     * in place and copies them only when it is first modified; its position
+     * and limit are not modified. Like an array passed to the other
+     * constructors, the bytes must not change while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++) {
-        	header[i] = dis.readByte();
-        }
-            
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++) {
-            	tuples[i] = readNextTuple(dis,i);
-            }  
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        if (data.remaining() < headerSize + numSlots * tupleSize) {
+            throw new IOException("page " + id + " is truncated");
         }
-        dis.close();
+
+        this.view = data.slice();
+        this.dataShared = true;
+        this.usedSlots = readHeader(view);
+        this.tuples = new AtomicReferenceArray<Tuple>(numSlots);
 
         setBeforeImage();
     }
 
+    /**
+     * Packs the header bytes into longs, eight bytes to a word with the
+     * first byte in the low bits, which keeps slot i at bit i.
+     */
+    private long[] readHeader(ByteBuffer image) {
+        long[] words = new long[(numSlots + 63) >>> 6];
+        for (int b = 0; b < headerSize; b++) {
+            words[b >>> 3] |= (image.get(b) & 0xffL) << ((b & 7) << 3);
+        }
+        if ((numSlots & 63) != 0) {
+            words[words.length - 1] &= (1L << numSlots) - 1;
+        }
+        return words;
+    }
+
+    private static byte[] copyOf(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
+    	return slotsPerPage(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a HeapFile with the
+     *         given schema
+     */
+    public static int slotsPerPage(TupleDesc td) {
     	return (int) Math.floor((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
     }
 
+    /**
+     * @return the number of header bytes on a page of a HeapFile with the
+     *         given schema
+     */
+    public static int headerBytes(TupleDesc td) {
+    	return (slotsPerPage(td) + 7) / 8;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -82,15 +174,17 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery.
+        An image that is still a caller's buffer is copied, since a
+        mapped file changes under it once the page is written back. */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid, oldDataRef.hasArray() && oldDataRef.arrayOffset() == 0 ? oldDataRef.array() : copyOf(oldDataRef), td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,7 +196,24 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // the image is copied on the next write instead of now
+        oldData = view;
+        dataShared = true;
+        }
+    }
+
+    /**
+     * Gives this page a private copy of its image if the current one is
+     * shared. Must be called before any change to data.
+     */
+    private void makeDataWritable() {
+        synchronized(oldDataLock)
+        {
+        if (dataShared) {
+            data = copyOf(view);
+            view = ByteBuffer.wrap(data);
+            dataShared = false;
+        }
         }
     }
 
@@ -114,36 +225,117 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, decoded on first use, or null if the slot
+     *         is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        Tuple t = tuples.get(i);
+        if (t == null) {
+            t = readTuple(i);
+            if (!tuples.compareAndSet(i, null, t)) {
+                t = tuples.get(i);
             }
+        }
+        return t;
+    }
+
+    /**
+     * Decodes a single field straight from the page image, without
+     * materializing the rest of its tuple.
+     *
+     * @param slot the slot holding the tuple
+     * @param i the index of the field in the page's TupleDesc
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slot, int i) {
+        if (!isSlotUsed(slot)) {
             return null;
         }
+        Tuple t = tuples.get(slot);
+        if (t != null) {
+            return t.getField(i);
+        }
+        return td.getFieldType(i).parse(view, slotOffset(slot) + td.getFieldOffset(i));
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Reads an INT_TYPE field straight from the page image.
+     *
+     * @param slot a used slot
+     * @param i the index of an INT_TYPE field in the page's TupleDesc
+     */
+    public int getInt(int slot, int i) {
+        Tuple t = tuples.get(slot);
+        if (t != null) {
+            return t.getInt(i);
         }
+        return view.getInt(slotOffset(slot) + td.getFieldOffset(i));
+    }
 
+    /**
+     * Tests a compiled predicate on the tuple in a used slot, against the
+     * page image unless the tuple has already been decoded.
+     *
+     * @param p a predicate compiled for this page's TupleDesc
+     */
+    public boolean matches(int slot, CompiledPredicate p) {
+        Tuple t = tuples.get(slot);
+        if (t != null) {
+            return p.matches(t);
+        }
+        return p.matches(view, slotOffset(slot));
+    }
+
+    /**
+     * Builds a tuple holding only some fields of the tuple in a used slot;
+     * the other fields are never decoded.
+     *
+     * @param projection indexes into this page's TupleDesc
+     * @param projected the TupleDesc of the result, i.e.
+     *            td.project(projection)
+     */
+    public Tuple project(int slot, int[] projection, TupleDesc projected) {
+        Tuple t = new Tuple(projected);
+        for (int i = 0; i < projection.length; i++) {
+            t.setField(i, getField(slot, projection[i]));
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    private int slotOffset(int slot) {
+        return headerSize + slot * tupleSize;
+    }
+
+    /**
+     * Creates a view of the tuple stored in slotId. Its fields are decoded
+     * from the page image as they are used, so the image is handed out as
+     * shared and will be copied before the page is next modified. A
+     * caller's buffer, such as a memory mapping, changes when the file is
+     * written, so a tuple of such a page gets a copy of its own bytes.
+     */
+    private Tuple readTuple(int slotId) {
+        ByteBuffer buf;
+        int offset = slotOffset(slotId);
+        synchronized(oldDataLock)
+        {
+        if (data == null) {
+            byte[] bytes = new byte[tupleSize];
+            for (int i = 0; i < tupleSize; i++) {
+                bytes[i] = view.get(offset + i);
+            }
+            buf = ByteBuffer.wrap(bytes);
+            offset = 0;
+        } else {
+            dataShared = true;
+            buf = view;
+        }
+        }
+        Tuple t = new Tuple(td, buf, offset);
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
@@ -159,65 +351,10 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized(oldDataLock)
+        {
+        return data != null ? data.clone() : copyOf(view);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -242,8 +379,16 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid);
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        }
+        markSlotUsed(slot, false);
+        tuples.set(slot, null);
     }
 
     /**
@@ -254,8 +399,43 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the TupleDesc of page " + pid);
+        }
+        int slot = nextEmptySlot();
+        if (slot < 0) {
+            throw new DbException("page " + pid + " is full");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(bytes);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        synchronized(oldDataLock)
+        {
+        makeDataWritable();
+        System.arraycopy(bytes.toByteArray(), 0, data, slotOffset(slot), tupleSize);
+        }
+        markSlotUsed(slot, true);
+        tuples.set(slot, null);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** @return the first empty slot, or -1 if the page is full */
+    private int nextEmptySlot() {
+        for (int w = 0; w < usedSlots.length; w++) {
+            long free = ~usedSlots[w];
+            if (free != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(free);
+                return slot < numSlots ? slot : -1;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -263,50 +443,73 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return this.dirtier;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int ans = 0;
-        for (int i = 0; this.numSlots > i; i++) {
-        	if (!isSlotUsed(i)) {
-        		ans++;
-        	}
+        int used = 0;
+        for (long word : usedSlots) {
+            used += Long.bitCount(word);
         }
-        return ans;
+        return numSlots - used;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-         int header_index = i / 8;
-         int offset = i % 8;
-         if (((header[header_index] >> offset) & 1) == 1) {
-        	 return true;
-         }
-         return false;
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return (usedSlots[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return the first used slot at or after from, or -1 if there is none.
+     */
+    public int nextUsedSlot(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int w = from >>> 6;
+        if (w >= usedSlots.length) {
+            return -1;
+        }
+        long word = usedSlots[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == usedSlots.length) {
+                return -1;
+            }
+            word = usedSlots[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        synchronized(oldDataLock)
+        {
+        makeDataWritable();
+        if (value) {
+            usedSlots[i >>> 6] |= 1L << i;
+            data[i >>> 3] |= (byte) (1 << (i & 7));
+        } else {
+            usedSlots[i >>> 6] &= ~(1L << i);
+            data[i >>> 3] &= (byte) ~(1 << (i & 7));
+        }
+        }
     }
 
     /**
@@ -314,14 +517,38 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-    	//some code goes here'
-    	 ArrayList<Tuple> temp_tuples = new ArrayList<Tuple>();
-    	 for (int i = 0; this.numSlots > i; i++) {
-    		 if (isSlotUsed(i)) {
-         		temp_tuples.add(tuples[i]);
-         	}
-    	 }
-    	 return temp_tuples.iterator();
+        return new UsedSlotIterator();
     }
-}
 
+    /**
+     * Walks the header a word at a time, so runs of 64 empty slots cost one
+     * comparison and nothing is collected up front.
+     */
+    private class UsedSlotIterator implements Iterator<Tuple> {
+        private int wordIndex = -1;
+        private long word = 0;
+
+        public boolean hasNext() {
+            while (word == 0) {
+                if (wordIndex + 1 >= usedSlots.length) {
+                    return false;
+                }
+                word = usedSlots[++wordIndex];
+            }
+            return true;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int slot = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+            return getTuple(slot);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
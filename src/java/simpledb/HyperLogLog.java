@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch estimates the number of distinct values in a stream
+ * in constant space: 2^precision one-byte registers, each holding the
+ * longest run of leading zeros seen among the hashes routed to it. With the
+ * default precision of 12 the sketch takes 4KB and its estimates are within
+ * about 1.6% (one standard error).
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /** Creates an empty sketch with the default precision. */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /** Creates an empty sketch with 2^precision registers. */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Adds a value, given as a well-mixed 64-bit hash of it. */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the remaining bits, with a sentinel so the run is at most 64 - precision
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /** Adds a field value. */
+    public void add(Field value) {
+        addHash(FieldHash.hash64(value));
+    }
+
+    /** Adds an int value; the same as adding the equivalent IntField. */
+    public void add(int value) {
+        addHash(FieldHash.hash64(value));
+    }
+
+    /** Folds another sketch of the same precision into this one. */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge sketches of different precisions");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * (double) m / sum;
+        if (e <= 2.5 * m && zeros > 0) {
+            // small range correction: linear counting
+            e = m * Math.log((double) m / zeros);
+        }
+        return Math.round(e);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    public static HyperLogLog read(DataInput in) throws IOException {
+        HyperLogLog h = new HyperLogLog(in.readByte());
+        in.readFully(h.registers);
+        return h;
+    }
+}
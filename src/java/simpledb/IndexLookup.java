@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * IndexLookup is an access method that answers an equality predicate on the
+ * primary key of a table through the table's {@link HashIndex}, reading the
+ * index bucket and then only the pages holding matching tuples instead of
+ * scanning the whole table.
+ *
+ * @see Catalog#getPrimaryKeyIndex
+ */
+public class IndexLookup extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate predicate;
+    private transient List<RecordId> rids;
+    private transient int next;
+
+    /**
+     * Creates a lookup of the tuples of a table satisfying p.
+     *
+     * @param tid
+     *            The transaction this lookup is running as a part of.
+     * @param tableid
+     *            the table to read; it must be a HeapFile with a primary key
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param p
+     *            an EQUALS predicate on the table's primary key field
+     * @throws IllegalArgumentException if the table is not a HeapFile or p
+     *             is not an EQUALS predicate on the primary key
+     */
+    public IndexLookup(TransactionId tid, int tableid, String tableAlias, Predicate p) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("index lookups need a HeapFile table, not table " + tableid);
+        }
+        String pk = Database.getCatalog().getPrimaryKey(tableid);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (p.getOp() != Predicate.Op.EQUALS || pk == null || pk.isEmpty()
+                || !pk.equals(td.getFieldName(p.getField()))) {
+            throw new IllegalArgumentException("index lookups need EQUALS on the primary key, not " + p);
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicate = p;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return the RecordIds the index holds for the key, without reading
+     *         the table
+     */
+    public List<RecordId> getRecordIds() throws DbException, TransactionAbortedException {
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        if (index == null) {
+            throw new DbException("table " + tableid + " has no primary key index");
+        }
+        try {
+            return index.lookup(predicate.getOperand());
+        } catch (IOException e) {
+            throw new DbException("cannot read primary key index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed by the
+     * alias, as {@link SeqScan#getTupleDesc} does.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        return TupleDesc.withAlias(td, tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        rids = getRecordIds();
+        next = 0;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (next < rids.size()) {
+            RecordId rid = rids.get(next++);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+            int slot = rid.getTupleNumber();
+            // the entry may be stale if the table changed behind the index
+            if (page.isSlotUsed(slot)) {
+                Tuple t = page.getTuple(slot);
+                if (predicate.filter(t)) {
+                    return t;
+                }
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        next = 0;
+        super.close();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        rids = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** A class to represent a fixed-width histogram over a single integer-based field. */
+public class IntHistogram {
+
+    private final int min;
+    private final int max;
+    private final int[] counts;
+    // width of every bucket but possibly the last, which ends at max
+    private final double width;
+    private long ntups;
+
+    /**
+     * Create a new IntHistogram.
+     *
+     * This IntHistogram should maintain a histogram of integer values that it receives.
+     * It should split the histogram into "buckets" buckets.
+     *
+     * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
+     *
+     * Your implementation should use space and have execution time that are both
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
+     * simply store every value that you see in a sorted list.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum integer value that will ever be passed to this class for histogramming
+     * @param max The maximum integer value that will ever be passed to this class for histogramming
+     */
+    public IntHistogram(int buckets, int min, int max) {
+        if (buckets < 1 || max < min) {
+            throw new IllegalArgumentException("bad histogram range");
+        }
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.counts = new int[(int) Math.min(buckets, range)];
+        this.width = (double) range / counts.length;
+    }
+
+    private int bucket(int v) {
+        return (int) Math.min(counts.length - 1, ((long) v - min) / width);
+    }
+
+    private long bucketLeft(int b) {
+        return min + (long) Math.ceil(b * width);
+    }
+
+    /** @return the number of distinct ints in bucket b */
+    private long widthOf(int b) {
+        long right = b == counts.length - 1 ? (long) max + 1 : bucketLeft(b + 1);
+        return right - bucketLeft(b);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(int v) {
+        if (v < min || v > max) {
+            throw new IllegalArgumentException(v + " is outside [" + min + ", " + max + "]");
+        }
+        counts[bucket(v)]++;
+        ntups++;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /** @return the number of values added */
+    public long getCount() {
+        return ntups;
+    }
+
+    /**
+     * @return the fraction of the values that fell in the bucket of v, or 0
+     *         if v is outside the histogram
+     */
+    public double bucketFraction(int v) {
+        if (v < min || v > max || ntups == 0) {
+            return 0;
+        }
+        return (double) counts[bucket(v)] / ntups;
+    }
+
+    /** @return how many distinct ints the bucket of v covers */
+    public long bucketWidth(int v) {
+        return widthOf(bucket(Math.max(min, Math.min(max, v))));
+    }
+
+    /** @return the fraction of the values that are less than v */
+    private double fractionBelow(int v) {
+        if (v <= min) {
+            return 0;
+        }
+        if (v > max) {
+            return 1;
+        }
+        int b = bucket(v);
+        long below = 0;
+        for (int i = 0; i < b; i++) {
+            below += counts[i];
+        }
+        // assume values spread evenly within the bucket
+        double part = (double) (v - bucketLeft(b)) / widthOf(b);
+        return (below + part * counts[b]) / ntups;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (ntups == 0) {
+            return 0;
+        }
+        double eq = v < min || v > max ? 0 : bucketFraction(v) / bucketWidth(v);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        case LESS_THAN:
+            return fractionBelow(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, fractionBelow(v) + eq);
+        case GREATER_THAN:
+            return Math.max(0, 1 - fractionBelow(v) - eq);
+        case GREATER_THAN_OR_EQ:
+            return 1 - fractionBelow(v);
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /**
+     * @return
+     *     the average selectivity of this histogram.
+     *
+     *     This is not an indispensable method to implement the basic
+     *     join optimization. It may be needed if you want to
+     *     implement a more efficient optimization
+     * */
+    public double avgSelectivity() {
+        if (ntups == 0) {
+            return 0;
+        }
+        // the chance that two values drawn at random are equal
+        double sum = 0;
+        for (int b = 0; b < counts.length; b++) {
+            double f = (double) counts[b] / ntups;
+            sum += f * f / widthOf(b);
+        }
+        return sum;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeInt(counts.length);
+        out.writeLong(ntups);
+        for (int c : counts) {
+            out.writeInt(c);
+        }
+    }
+
+    public static IntHistogram read(DataInput in) throws IOException {
+        int min = in.readInt();
+        int max = in.readInt();
+        IntHistogram h = new IntHistogram(in.readInt(), min, max);
+        h.ntups = in.readLong();
+        for (int i = 0; i < h.counts.length; i++) {
+            h.counts[i] = in.readInt();
+        }
+        return h;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("IntHistogram[").append(min).append(", ").append(max).append("]:");
+        for (int b = 0; b < counts.length; b++) {
+            sb.append(' ').append(counts[b]);
+        }
+        return sb.toString();
+    }
+}
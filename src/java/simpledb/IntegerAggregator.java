@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are kept in a hash table keyed on the group-by field, each holding
+ * a running count, sum, minimum and maximum, so every tuple is merged in
+ * constant time regardless of the operator.
+ */
+public class IntegerAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+    private final LinkedHashMap<Field, long[]> groups;
+
+    // indexes into the per-group state
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    /**
+     * Aggregate constructor
+     * 
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if what is SUM_COUNT or SC_AVG, which are not supported
+     */
+
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.groups = new LinkedHashMap<Field, long[]>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     * 
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        long[] state = groups.get(key);
+        if (state == null) {
+            state = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+            groups.put(key, state);
+        }
+        long value = tup.getInt(afield);
+        state[COUNT]++;
+        state[SUM] += value;
+        state[MIN] = Math.min(state[MIN], value);
+        state[MAX] = Math.max(state[MAX], value);
+    }
+
+    private int result(long[] state) {
+        switch (what) {
+        case COUNT:
+            return (int) state[COUNT];
+        case SUM:
+            return (int) state[SUM];
+        case AVG:
+            return (int) (state[SUM] / state[COUNT]);
+        case MIN:
+            return (int) state[MIN];
+        case MAX:
+            return (int) state[MAX];
+        default:
+            throw new IllegalStateException("unsupported aggregate " + what);
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     * 
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[] { Type.INT_TYPE })
+                : new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+        ArrayList<Tuple> out = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<Field, long[]> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                t.setField(0, new IntField(result(e.getValue())));
+            } else {
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField(result(e.getValue())));
+            }
+            out.add(t);
+        }
+        return new TupleIterator(td, out);
+    }
+
+}
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The Join operator implements the relational join operation.
+ * <p>
+ * Equi-joins are hash joins: the tuples of child2 are loaded into a hash
+ * table on their join field and the tuples of child1 probe it, so the join
+ * runs in time linear in its inputs and output. If child2 does not fit in
+ * the memory budget, both inputs are partitioned by the hash of their join
+ * field into temporary files and each pair of partitions is joined in turn
+ * (Grace hash join); a partition that is still too large is joined a
+ * budget-sized chunk at a time. Joins on other operators fall back to
+ * nested loops.
+ * <p>
+ * Output tuples hold the fields of the child1 tuple followed by those of the
+ * child2 tuple; their order is unspecified.
+ */
+public class Join extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages, for the hash table of a join. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    private static final int MAX_PARTITIONS = 64;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final int memoryPages;
+
+    private transient TupleDesc td;
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchIndex;
+    private transient Tuple probeTuple;
+
+    // Grace partitions; null while the build side fits in memory
+    private transient SpillFile[] buildParts;
+    private transient SpillFile[] probeParts;
+    private transient int part;
+    private transient Iterator<Tuple> buildIt;
+    private transient Iterator<Tuple> probeIt;
+
+    // nested loop state
+    private transient Tuple outer;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how much of child2, in pages of serialized tuples, may be
+     *            held in memory before the join spills to disk
+     * @see #Join(JoinPredicate, OpIterator, OpIterator)
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("a join needs at least one page of memory");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+     *      implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        }
+        return td;
+    }
+
+    private boolean isHashJoin() {
+        return p.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        if (isHashJoin()) {
+            try {
+                build();
+            } catch (IOException e) {
+                closeSpills();
+                throw new DbException("join could not spill to disk: " + e.getMessage());
+            }
+        }
+        resetProbe();
+        super.open();
+    }
+
+    /**
+     * Loads child2 into the hash table, switching to partitioned files
+     * once the budget is exceeded; in that case child1 is partitioned too.
+     */
+    private void build() throws DbException, TransactionAbortedException, IOException {
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        long tupleBytes = child2.getTupleDesc().getSize();
+        long used = 0;
+        int f2 = p.getField2();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            Field key = t.getField(f2);
+            if (key == null) {
+                continue;
+            }
+            if (buildParts == null && used + tupleBytes > budget) {
+                startSpilling();
+            }
+            if (buildParts != null) {
+                buildParts[partition(key)].add(t);
+            } else {
+                addToTable(key, t);
+                used += tupleBytes;
+            }
+        }
+        if (buildParts == null) {
+            return;
+        }
+
+        int f1 = p.getField1();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            Field key = t.getField(f1);
+            if (key != null) {
+                probeParts[partition(key)].add(t);
+            }
+        }
+        for (int i = 0; i < buildParts.length; i++) {
+            buildParts[i].finish();
+            probeParts[i].finish();
+        }
+        table.clear();
+    }
+
+    private void startSpilling() throws IOException {
+        int n = Math.max(2, Math.min(MAX_PARTITIONS, memoryPages));
+        buildParts = new SpillFile[n];
+        probeParts = new SpillFile[n];
+        for (int i = 0; i < n; i++) {
+            buildParts[i] = new SpillFile(child2.getTupleDesc());
+            probeParts[i] = new SpillFile(child1.getTupleDesc());
+        }
+        for (Map.Entry<Field, ArrayList<Tuple>> e : table.entrySet()) {
+            SpillFile target = buildParts[partition(e.getKey())];
+            for (Tuple t : e.getValue()) {
+                target.add(t);
+            }
+        }
+        table.clear();
+    }
+
+    private int partition(Field key) {
+        // scramble the hash so partitions do not mirror the HashMap buckets
+        int h = key.hashCode() * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % buildParts.length;
+    }
+
+    private void addToTable(Field key, Tuple t) {
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>(1);
+            table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    private void resetProbe() {
+        matches = null;
+        matchIndex = 0;
+        probeTuple = null;
+        outer = null;
+        part = -1;
+        buildIt = null;
+        probeIt = null;
+        if (buildParts != null) {
+            table.clear();
+        }
+    }
+
+    private void closeSpills() {
+        if (buildParts != null) {
+            for (int i = 0; i < buildParts.length; i++) {
+                if (buildParts[i] != null) {
+                    buildParts[i].delete();
+                }
+                if (probeParts[i] != null) {
+                    probeParts[i].delete();
+                }
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        closeSpills();
+        table = null;
+        resetProbe();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the hash table or the partitions are kept; only probing restarts
+        if (!isHashJoin() || buildParts == null) {
+            child1.rewind();
+        }
+        if (!isHashJoin()) {
+            child2.rewind();
+        }
+        resetProbe();
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!isHashJoin()) {
+            return nestedLoopNext();
+        }
+        while (true) {
+            if (matches != null && matchIndex < matches.size()) {
+                return merge(probeTuple, matches.get(matchIndex++));
+            }
+            matches = null;
+            probeTuple = nextProbe();
+            if (probeTuple == null) {
+                return null;
+            }
+            Field key = probeTuple.getField(p.getField1());
+            if (key != null) {
+                matches = table.get(key);
+                matchIndex = 0;
+            }
+        }
+    }
+
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (buildParts == null) {
+            return child1.hasNext() ? child1.next() : null;
+        }
+        try {
+            while (probeIt == null || !probeIt.hasNext()) {
+                if (!loadNextChunk()) {
+                    return null;
+                }
+            }
+            return probeIt.next();
+        } catch (IOException e) {
+            throw new DbException("join could not read its spill files: " + e.getMessage());
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new DbException("join could not read its spill files: " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the next budget-sized chunk of the current build partition into
+     * the hash table, moving to the next non-empty partition pair if the
+     * current one is done, and restarts its probe partition.
+     *
+     * @return false once every partition has been joined
+     */
+    private boolean loadNextChunk() throws IOException {
+        while (buildIt == null || !buildIt.hasNext()) {
+            if (++part >= buildParts.length) {
+                return false;
+            }
+            if (buildParts[part].size() == 0 || probeParts[part].size() == 0) {
+                buildIt = null;
+                continue;
+            }
+            buildIt = buildParts[part].iterator();
+        }
+        table.clear();
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        long tupleBytes = child2.getTupleDesc().getSize();
+        long used = 0;
+        int f2 = p.getField2();
+        do {
+            Tuple t = buildIt.next();
+            addToTable(t.getField(f2), t);
+            used += tupleBytes;
+        } while (buildIt.hasNext() && used + tupleBytes <= budget);
+        probeIt = probeParts[part].iterator();
+        return true;
+    }
+
+    private Tuple nestedLoopNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+                child2.rewind();
+            }
+            while (child2.hasNext()) {
+                Tuple inner = child2.next();
+                if (p.filter(outer, inner)) {
+                    return merge(outer, inner);
+                }
+            }
+            outer = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        TupleDesc out = getTupleDesc();
+        Tuple t = new Tuple(out);
+        int n1 = child1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < out.numFields() - n1; i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = null;
+    }
+
+}
@@ -0,0 +1,380 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The JoinOptimizer orders the joins of a query and picks the algorithm
+ * for each, producing a left-deep tree of {@link Join} operators over the
+ * access paths the {@link LogicalPlan} chose for the tables.
+ * <p>
+ * Queries joining up to {@link #DP_MAX_RELATIONS} tables are planned with
+ * Selinger-style dynamic programming over subsets of tables, which finds
+ * the cheapest left-deep order. Larger queries are planned greedily: the
+ * cheapest pair first, then at each step the table whose join is cheapest.
+ * Only orders that join along predicates are considered; the tables must
+ * form a connected join graph.
+ * <p>
+ * Costs are in the units of {@link TableStats#IOCOSTPERPAGE}, with a cost of
+ * one per tuple handled in memory. An equi-join is a hash join that builds
+ * on its smaller input and, once that exceeds the join's memory budget,
+ * pays to write and read both inputs once more. Other joins are nested
+ * loops, which rescan their inner input for every outer tuple.
+ */
+public class JoinOptimizer {
+
+    /** Largest number of tables planned by dynamic programming. */
+    public static final int DP_MAX_RELATIONS = 12;
+
+    /** Selectivity assumed for a join on an inequality. */
+    static final double RANGE_JOIN_SELECTIVITY = 1.0 / 3;
+
+    /** A table with its access path, as chosen by the LogicalPlan. */
+    static class Relation {
+        final String alias;
+        final OpIterator plan;
+        final double cost;
+        final double card;
+        final TableStats stats;
+        final TupleDesc td;
+
+        /**
+         * @param plan the operator reading the table, filters applied
+         * @param cost the estimated cost of running plan once
+         * @param card the estimated number of tuples plan returns
+         * @param td the table's TupleDesc, without the alias
+         */
+        Relation(String alias, OpIterator plan, double cost, double card, TableStats stats, TupleDesc td) {
+            this.alias = alias;
+            this.plan = plan;
+            this.cost = cost;
+            this.card = card;
+            this.stats = stats;
+            this.td = td;
+        }
+    }
+
+    /** A left-deep plan: a smaller plan joined with one more table. */
+    private static class Plan {
+        final long mask;
+        final double cost;
+        final double card;
+        // null for a plan that reads one table
+        final Plan outer;
+        final int rel;
+        // for a hash join, whether the new table is the build side; for a
+        // nested loop, whether it is the inner side
+        final boolean relIsChild2;
+
+        Plan(long mask, double cost, double card, Plan outer, int rel, boolean relIsChild2) {
+            this.mask = mask;
+            this.cost = cost;
+            this.card = card;
+            this.outer = outer;
+            this.rel = rel;
+            this.relIsChild2 = relIsChild2;
+        }
+    }
+
+    private final Relation[] relations;
+    private final List<LogicalJoinNode> joins;
+    private final HashMap<String, Integer> aliases;
+    // per table, the tables it shares a join predicate with
+    private final long[] adjacent;
+
+    /**
+     * @param relations the tables of the query
+     * @param joins the join predicates between them, by alias
+     */
+    JoinOptimizer(List<Relation> relations, List<LogicalJoinNode> joins) {
+        this.relations = relations.toArray(new Relation[relations.size()]);
+        this.joins = joins;
+        this.aliases = new HashMap<String, Integer>();
+        for (int i = 0; i < this.relations.length; i++) {
+            aliases.put(this.relations[i].alias, i);
+        }
+        this.adjacent = new long[this.relations.length];
+        for (LogicalJoinNode j : joins) {
+            int a = aliases.get(j.t1Alias);
+            int b = aliases.get(j.t2Alias);
+            adjacent[a] |= 1L << b;
+            adjacent[b] |= 1L << a;
+        }
+    }
+
+    /**
+     * @return the cheapest plan found, with each Join's estimated
+     *         cardinality set
+     * @throws DbException if some tables are not joined to the others
+     */
+    OpIterator bestPlan() throws DbException {
+        Plan best = relations.length <= DP_MAX_RELATIONS ? dynamicProgram() : greedy();
+        if (best == null) {
+            throw new DbException("tables must be joined by predicates; cross products are not supported");
+        }
+        return build(best);
+    }
+
+    private Plan base(int r) {
+        return new Plan(1L << r, relations[r].cost, relations[r].card, null, r, false);
+    }
+
+    private Plan dynamicProgram() {
+        int n = relations.length;
+        Plan[] best = new Plan[1 << n];
+        for (int r = 0; r < n; r++) {
+            best[1 << r] = base(r);
+        }
+        // every proper subset of a mask is smaller than it
+        for (int mask = 1; mask < best.length; mask++) {
+            if (Integer.bitCount(mask) < 2) {
+                continue;
+            }
+            for (int r = 0; r < n; r++) {
+                int rest = mask & ~(1 << r);
+                if ((mask & (1 << r)) == 0 || best[rest] == null || (adjacent[r] & rest) == 0) {
+                    continue;
+                }
+                Plan p = join(best[rest], r);
+                if (best[mask] == null || p.cost < best[mask].cost) {
+                    best[mask] = p;
+                }
+            }
+        }
+        return best[best.length - 1];
+    }
+
+    private Plan greedy() {
+        int n = relations.length;
+        Plan plan = null;
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                if ((adjacent[a] & (1L << b)) != 0) {
+                    Plan p = join(base(a), b);
+                    if (plan == null || p.cost < plan.cost) {
+                        plan = p;
+                    }
+                }
+            }
+        }
+        if (plan == null) {
+            return n == 1 ? base(0) : null;
+        }
+        for (int step = 2; step < n; step++) {
+            Plan next = null;
+            for (int r = 0; r < n; r++) {
+                if ((plan.mask & (1L << r)) == 0 && (adjacent[r] & plan.mask) != 0) {
+                    Plan p = join(plan, r);
+                    if (next == null || p.cost < next.cost) {
+                        next = p;
+                    }
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            plan = next;
+        }
+        return plan;
+    }
+
+    /** @return the join predicates between the tables of mask and table r */
+    private List<LogicalJoinNode> connecting(long mask, int r) {
+        ArrayList<LogicalJoinNode> out = new ArrayList<LogicalJoinNode>();
+        String alias = relations[r].alias;
+        for (LogicalJoinNode j : joins) {
+            if (j.t2Alias.equals(alias) && (mask & (1L << aliases.get(j.t1Alias))) != 0) {
+                out.add(j);
+            } else if (j.t1Alias.equals(alias) && (mask & (1L << aliases.get(j.t2Alias))) != 0) {
+                out.add(j.swapInnerOuter());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Picks the predicate the Join operator evaluates: an equality if there
+     * is one, since that allows a hash join; the rest become filters.
+     */
+    private static LogicalJoinNode primary(List<LogicalJoinNode> preds) {
+        for (LogicalJoinNode j : preds) {
+            if (j.p == Predicate.Op.EQUALS) {
+                return j;
+            }
+        }
+        return preds.get(0);
+    }
+
+    /** @return the estimated distinct values of alias.field among card tuples */
+    private double distinct(String alias, String field, double card) {
+        Relation r = relations[aliases.get(alias)];
+        double d = r.stats.estimateDistinct(r.td.fieldNameToIndex(field));
+        return Math.max(1, Math.min(d, card));
+    }
+
+    /** @return the estimated selectivity of a join predicate */
+    private double selectivity(LogicalJoinNode j, double card1, double card2) {
+        switch (j.p) {
+        case EQUALS:
+            return 1 / Math.max(distinct(j.t1Alias, j.f1PureName, card1),
+                    distinct(j.t2Alias, j.f2PureName, card2));
+        case NOT_EQUALS:
+            return 1 - 1 / Math.max(distinct(j.t1Alias, j.f1PureName, card1),
+                    distinct(j.t2Alias, j.f2PureName, card2));
+        default:
+            return RANGE_JOIN_SELECTIVITY;
+        }
+    }
+
+    /** @return the pages card tuples of the given width take up */
+    private static double pages(double card, int tupleBytes) {
+        return Math.ceil(card * tupleBytes / BufferPool.getPageSize());
+    }
+
+    private int width(long mask) {
+        int w = 0;
+        for (int r = 0; r < relations.length; r++) {
+            if ((mask & (1L << r)) != 0) {
+                w += relations[r].td.getSize();
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Estimates the cost of a hash join of inputs with the given costs and
+     * cardinalities, building on the second. Adding a tuple to the hash
+     * table is counted as twice the work of probing it.
+     */
+    static double estimateHashJoinCost(double cost1, double card1, double pages1,
+            double cost2, double card2, double pages2) {
+        double cost = cost1 + cost2 + card1 + 2 * card2;
+        if (pages2 > Join.DEFAULT_MEMORY_PAGES) {
+            // both sides are partitioned to disk and read back
+            cost += 2.0 * TableStats.IOCOSTPERPAGE * (pages1 + pages2);
+        }
+        return cost;
+    }
+
+    /**
+     * Estimates the cost of a nested loop join; the inner input is run once
+     * per outer tuple.
+     */
+    static double estimateNestedLoopCost(double outerCost, double outerCard,
+            double innerCost, double innerCard) {
+        return outerCost + outerCard * innerCost + outerCard * innerCard;
+    }
+
+    /** @return plan joined with table r, with the cheaper orientation */
+    private Plan join(Plan plan, int r) {
+        Relation rel = relations[r];
+        List<LogicalJoinNode> preds = connecting(plan.mask, r);
+        double card = plan.card * rel.card;
+        for (LogicalJoinNode j : preds) {
+            card *= selectivity(j, plan.card, rel.card);
+        }
+        long mask = plan.mask | (1L << r);
+        boolean relIsChild2;
+        double cost;
+        if (primary(preds).p == Predicate.Op.EQUALS) {
+            double planPages = pages(plan.card, width(plan.mask));
+            double relPages = pages(rel.card, rel.td.getSize());
+            double buildRel = estimateHashJoinCost(plan.cost, plan.card, planPages, rel.cost, rel.card, relPages);
+            double buildPlan = estimateHashJoinCost(rel.cost, rel.card, relPages, plan.cost, plan.card, planPages);
+            relIsChild2 = buildRel <= buildPlan;
+            cost = Math.min(buildRel, buildPlan);
+        } else {
+            double relInner = estimateNestedLoopCost(plan.cost, plan.card, rel.cost, rel.card);
+            double planInner = estimateNestedLoopCost(rel.cost, rel.card, plan.cost, plan.card);
+            relIsChild2 = relInner <= planInner;
+            cost = Math.min(relInner, planInner);
+        }
+        // every extra predicate is a filter over the join's output
+        cost += (preds.size() - 1) * card;
+        return new Plan(mask, cost, card, plan, r, relIsChild2);
+    }
+
+    private OpIterator build(Plan plan) {
+        Relation rel = relations[plan.rel];
+        if (plan.outer == null) {
+            return rel.plan;
+        }
+        OpIterator outer = build(plan.outer);
+        OpIterator inner = rel.plan;
+        List<LogicalJoinNode> preds = connecting(plan.outer.mask, plan.rel);
+        LogicalJoinNode first = primary(preds);
+        int outerField = outer.getTupleDesc().fieldNameToIndex(first.f1QuantifiedName);
+        int innerField = inner.getTupleDesc().fieldNameToIndex(first.f2QuantifiedName);
+        Join join;
+        if (plan.relIsChild2) {
+            join = new Join(new JoinPredicate(outerField, first.p, innerField), outer, inner);
+        } else {
+            join = new Join(new JoinPredicate(innerField, LogicalJoinNode.reverse(first.p), outerField),
+                    inner, outer);
+        }
+        OpIterator out = join;
+        for (LogicalJoinNode j : preds) {
+            if (j != first) {
+                out = new FieldComparison(j, out);
+            }
+        }
+        join.setEstimatedCardinality((int) Math.min(Integer.MAX_VALUE, Math.round(plan.card)));
+        return out;
+    }
+
+    /** Keeps the tuples whose two fields satisfy an extra join predicate. */
+    private static class FieldComparison extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator child;
+        private final int field1;
+        private final int field2;
+        private final Predicate.Op op;
+
+        FieldComparison(LogicalJoinNode j, OpIterator child) {
+            this.child = child;
+            this.field1 = child.getTupleDesc().fieldNameToIndex(j.f1QuantifiedName);
+            this.field2 = child.getTupleDesc().fieldNameToIndex(j.f2QuantifiedName);
+            this.op = j.p;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            super.close();
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                Field a = t.getField(field1);
+                Field b = t.getField(field2);
+                if (a != null && b != null && a.compare(op, b)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            this.child = children[0];
+        }
+    }
+}
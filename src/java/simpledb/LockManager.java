@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared and exclusive page locks for the BufferPool, held by transactions
+ * until they complete (strict two-phase locking).
+ * <p>
+ * Any number of transactions may hold a page shared; one may hold it
+ * exclusive, and a transaction that is the only sharer of a page can
+ * upgrade its lock to exclusive. Each page has its own lock object, so
+ * transactions locking different pages never contend, and a transaction
+ * asking again for a lock it already holds does not synchronize at all.
+ * <p>
+ * A transaction that has to wait records the transactions it waits for in a
+ * waits-for graph. If that closes a cycle, the transaction is aborted at once
+ * with a TransactionAbortedException instead of waiting for a timeout. A
+ * transaction may wait on several threads at once (see
+ * {@link ParallelSeqScan}), so the graph keeps one entry per waiting thread,
+ * and a transaction waits for the union of what its threads wait for. New
+ * sharers are admitted while a writer waits, so a steady stream of readers
+ * can hold off a writer.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+
+    /** A thread waiting for a lock on behalf of tid. */
+    private static final class Waiter {
+        final TransactionId tid;
+        // the transactions this thread waits for; guarded by waitsFor
+        Set<TransactionId> blockers = Collections.emptySet();
+
+        Waiter(TransactionId tid) {
+            this.tid = tid;
+        }
+    }
+
+    /** The holders of the lock on one page; guarded by itself. */
+    private static final class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId exclusive;
+        final ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+        // set once the lock has left the table; holders must look it up again
+        boolean retired;
+
+        boolean tryGrant(TransactionId tid, boolean exclusiveMode) {
+            if (tid.equals(exclusive)) {
+                return true;
+            }
+            if (exclusive != null) {
+                return false;
+            }
+            if (!exclusiveMode) {
+                sharers.add(tid);
+                return true;
+            }
+            if (sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid))) {
+                sharers.clear();
+                exclusive = tid;
+                return true;
+            }
+            return false;
+        }
+
+        /** @return the transactions keeping tid from the lock it wants */
+        Set<TransactionId> blockers(TransactionId tid) {
+            if (exclusive != null) {
+                return Collections.singleton(exclusive);
+            }
+            HashSet<TransactionId> out = new HashSet<TransactionId>(sharers);
+            out.remove(tid);
+            return out;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks = new ConcurrentHashMap<PageId, PageLock>();
+
+    /** Pages locked by each transaction, with the mode they were locked in. */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>> held =
+            new ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>>();
+
+    /** The waiting threads of each waiting transaction; guarded by itself. */
+    private final HashMap<TransactionId, List<Waiter>> waitsFor =
+            new HashMap<TransactionId, List<Waiter>>();
+
+    /**
+     * Locks pid for tid, waiting for conflicting holders to let go.
+     *
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *             thread is interrupted while waiting
+     */
+    void acquire(TransactionId tid, PageId pid, boolean exclusive) throws TransactionAbortedException {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine != null) {
+            Boolean mode = mine.get(pid);
+            if (mode != null && (mode || !exclusive)) {
+                return;
+            }
+        }
+        for (;;) {
+            PageLock lock = locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock();
+                PageLock raced = locks.putIfAbsent(pid, lock);
+                if (raced != null) {
+                    lock = raced;
+                }
+            }
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue;
+                }
+                if (!lock.tryGrant(tid, exclusive)) {
+                    await(lock, tid, exclusive);
+                }
+            }
+            if (mine == null) {
+                mine = new ConcurrentHashMap<PageId, Boolean>();
+                ConcurrentHashMap<PageId, Boolean> raced = held.putIfAbsent(tid, mine);
+                if (raced != null) {
+                    mine = raced;
+                }
+            }
+            if (exclusive) {
+                mine.put(pid, Boolean.TRUE);
+            } else {
+                mine.putIfAbsent(pid, Boolean.FALSE);
+            }
+            return;
+        }
+    }
+
+    /** Waits, holding lock's monitor, until tid is granted the lock. */
+    private void await(PageLock lock, TransactionId tid, boolean exclusive) throws TransactionAbortedException {
+        Waiter me = new Waiter(tid);
+        lock.waiters.add(me);
+        synchronized (waitsFor) {
+            List<Waiter> threads = waitsFor.get(tid);
+            if (threads == null) {
+                threads = new ArrayList<Waiter>(1);
+                waitsFor.put(tid, threads);
+            }
+            threads.add(me);
+        }
+        try {
+            do {
+                waitFor(me, lock.blockers(tid));
+                lock.wait();
+            } while (!lock.tryGrant(tid, exclusive));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            lock.waiters.remove(me);
+            synchronized (waitsFor) {
+                // other threads of tid may still be waiting
+                List<Waiter> threads = waitsFor.get(tid);
+                threads.remove(me);
+                if (threads.isEmpty()) {
+                    waitsFor.remove(tid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the waiting thread waits for blockers.
+     *
+     * @throws TransactionAbortedException if one of them, directly or not,
+     *             waits for the thread's transaction
+     */
+    private void waitFor(Waiter me, Set<TransactionId> blockers) throws TransactionAbortedException {
+        synchronized (waitsFor) {
+            me.blockers = blockers;
+            ArrayDeque<TransactionId> stack = new ArrayDeque<TransactionId>(blockers);
+            HashSet<TransactionId> seen = new HashSet<TransactionId>();
+            while (!stack.isEmpty()) {
+                TransactionId t = stack.pop();
+                if (t.equals(me.tid)) {
+                    me.blockers = Collections.emptySet();
+                    throw new TransactionAbortedException();
+                }
+                List<Waiter> threads = waitsFor.get(t);
+                if (threads != null && seen.add(t)) {
+                    for (Waiter w : threads) {
+                        stack.addAll(w.blockers);
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return true if tid holds a lock of either mode on pid */
+    boolean holdsLock(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        return mine != null && mine.containsKey(pid);
+    }
+
+    /** @return true if tid holds pid exclusive */
+    boolean holdsExclusive(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        return mine != null && Boolean.TRUE.equals(mine.get(pid));
+    }
+
+    /** Releases tid's lock on pid, if it holds one. */
+    void release(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.get(tid);
+        if (mine != null && mine.remove(pid) != null) {
+            unlock(tid, pid);
+        }
+    }
+
+    /** Releases every lock tid holds. */
+    void releaseAll(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = held.remove(tid);
+        if (mine != null) {
+            for (PageId pid : mine.keySet()) {
+                unlock(tid, pid);
+            }
+        }
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            lock.sharers.remove(tid);
+            if (tid.equals(lock.exclusive)) {
+                lock.exclusive = null;
+            }
+            if (lock.waiters.isEmpty()) {
+                if (lock.sharers.isEmpty() && lock.exclusive == null) {
+                    lock.retired = true;
+                    locks.remove(pid, lock);
+                }
+                return;
+            }
+            // the waiters no longer wait for tid, whether or not they wake first
+            synchronized (waitsFor) {
+                for (Waiter w : lock.waiters) {
+                    if (w.blockers.contains(tid)) {
+                        HashSet<TransactionId> rest = new HashSet<TransactionId>(w.blockers);
+                        rest.remove(tid);
+                        w.blockers = rest;
+                    }
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+}
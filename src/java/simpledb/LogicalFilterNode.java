@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * A LogicalFilterNode represents the parameters of a filter in the WHERE
+ * clause of a query: <code>tableAlias.fieldPureName op c</code>.
+ */
+public class LogicalFilterNode {
+
+    /** The alias of a table (or the name if no alias) over which the filter ranges */
+    public final String tableAlias;
+
+    /** The predicate in the filter */
+    public final Predicate.Op p;
+
+    /** The constant on the right side of the filter */
+    public final Field c;
+
+    /** The field from t which is in the filter. The pure name, without alias or tablename */
+    public final String fieldPureName;
+
+    public final String fieldQuantifiedName;
+
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, Field constant) {
+        tableAlias = table;
+        p = pred;
+        c = constant;
+        fieldPureName = field;
+        fieldQuantifiedName = tableAlias + "." + fieldPureName;
+    }
+
+    @Override public String toString() {
+        return fieldQuantifiedName + " " + p + " " + c;
+    }
+}
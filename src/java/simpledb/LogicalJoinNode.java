@@ -0,0 +1,84 @@
+package simpledb;
+
+/**
+ * A LogicalJoinNode represents the state needed of a join of two tables in a
+ * LogicalPlan: <code>t1Alias.f1PureName op t2Alias.f2PureName</code>.
+ */
+public class LogicalJoinNode {
+
+    /** The first table to join (may be null). It's the alias of the table (if no alias, the true table name) */
+    public final String t1Alias;
+
+    /** The second table to join (may be null). It's the alias of the table, (if no alias, the true table name). */
+    public final String t2Alias;
+
+    /** The name of the field in t1 to join with. It's the pure name of a field, rather that alias.field. */
+    public final String f1PureName;
+
+    public final String f1QuantifiedName;
+
+    /** The name of the field in t2 to join with. It's the pure name of a field. */
+    public final String f2PureName;
+
+    public final String f2QuantifiedName;
+
+    /** The join predicate */
+    public final Predicate.Op p;
+
+    public LogicalJoinNode(String table1, String table2, String joinField1, String joinField2, Predicate.Op pred) {
+        t1Alias = table1;
+        t2Alias = table2;
+        f1PureName = joinField1;
+        f2PureName = joinField2;
+        p = pred;
+        f1QuantifiedName = t1Alias + "." + f1PureName;
+        f2QuantifiedName = t2Alias + "." + f2PureName;
+    }
+
+    /** @return the operator that holds with its operands swapped: a &lt; b iff b &gt; a */
+    public static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case EQUALS:
+        case NOT_EQUALS:
+            return op;
+        default:
+            throw new IllegalArgumentException(op + " cannot be reversed");
+        }
+    }
+
+    /** Return a new LogicalJoinNode with the inner and outer (t1.f1
+     * and t2.f2) tables swapped. */
+    public LogicalJoinNode swapInnerOuter() {
+        return new LogicalJoinNode(t2Alias, t1Alias, f2PureName, f1PureName, reverse(p));
+    }
+
+    /** Two nodes are equal if they join the same fields the same way, in either order. */
+    @Override public boolean equals(Object o) {
+        if (!(o instanceof LogicalJoinNode)) {
+            return false;
+        }
+        LogicalJoinNode j2 = (LogicalJoinNode) o;
+        if (j2.t1Alias.equals(t1Alias) && j2.t2Alias.equals(t2Alias) && j2.f1PureName.equals(f1PureName)
+                && j2.f2PureName.equals(f2PureName) && j2.p == p) {
+            return true;
+        }
+        return j2.t1Alias.equals(t2Alias) && j2.t2Alias.equals(t1Alias) && j2.f1PureName.equals(f2PureName)
+                && j2.f2PureName.equals(f1PureName) && p != Predicate.Op.LIKE && j2.p == reverse(p);
+    }
+
+    @Override public String toString() {
+        return f1QuantifiedName + " " + p + " " + f2QuantifiedName;
+    }
+
+    @Override public int hashCode() {
+        return t1Alias.hashCode() + t2Alias.hashCode() + f1PureName.hashCode() + f2PureName.hashCode();
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A LogicalPlan describes a select-project-join query: the tables it reads,
+ * the filters on them, the joins between them and the fields it returns.
+ * {@link #physicalPlan} turns it into an OpIterator tree, choosing an access
+ * path for each table from the catalog's {@link TableStats} and leaving the
+ * join order and algorithms to a {@link JoinOptimizer}.
+ * <p>
+ * Fields are named <code>alias.field</code>, or just <code>field</code> when
+ * only one table of the query has a field of that name.
+ */
+public class LogicalPlan {
+
+    private final LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+    private final ArrayList<LogicalFilterNode> filters = new ArrayList<LogicalFilterNode>();
+    private final ArrayList<LogicalJoinNode> joins = new ArrayList<LogicalJoinNode>();
+    private final ArrayList<String> projection = new ArrayList<String>();
+
+    /**
+     * Adds a table to the query.
+     *
+     * @param tableId the id of the table in the catalog
+     * @param alias the name the query uses for the table
+     * @throws IllegalArgumentException if the alias is already in use
+     * @throws NoSuchElementException if the table does not exist
+     */
+    public void addScan(int tableId, String alias) {
+        Database.getCatalog().getTupleDesc(tableId);
+        if (alias == null || alias.contains(".") || tables.containsKey(alias)) {
+            throw new IllegalArgumentException("bad or duplicate table alias " + alias);
+        }
+        tables.put(alias, tableId);
+    }
+
+    /**
+     * Adds a filter <code>field op constant</code>.
+     *
+     * @throws IllegalArgumentException if the field is unknown or ambiguous,
+     *             or the constant is of another type
+     */
+    public void addFilter(String field, Predicate.Op op, Field constant) {
+        String[] name = resolve(field);
+        if (constant == null || constant.getType() != fieldType(name)) {
+            throw new IllegalArgumentException("constant " + constant + " does not match the type of " + field);
+        }
+        filters.add(new LogicalFilterNode(name[0], name[1], op, constant));
+    }
+
+    /**
+     * Adds a join <code>field1 op field2</code> between two tables.
+     *
+     * @throws IllegalArgumentException if a field is unknown or ambiguous,
+     *             the fields are of different types or in the same table, or
+     *             op is LIKE
+     */
+    public void addJoin(String field1, Predicate.Op op, String field2) {
+        String[] name1 = resolve(field1);
+        String[] name2 = resolve(field2);
+        if (name1[0].equals(name2[0])) {
+            throw new IllegalArgumentException("cannot join " + name1[0] + " with itself");
+        }
+        if (op == Predicate.Op.LIKE || fieldType(name1) != fieldType(name2)) {
+            throw new IllegalArgumentException("cannot join " + field1 + " " + op + " " + field2);
+        }
+        joins.add(new LogicalJoinNode(name1[0], name2[0], name1[1], name2[1], op));
+    }
+
+    /**
+     * Adds a field to the output, after those added before. If no fields are
+     * added, the query returns every field of every table.
+     *
+     * @throws IllegalArgumentException if the field is unknown or ambiguous
+     */
+    public void addProjectField(String field) {
+        String[] name = resolve(field);
+        projection.add(name[0] + "." + name[1]);
+    }
+
+    /** @return {alias, field} for a field name used in the query */
+    private String[] resolve(String field) {
+        if (field == null) {
+            throw new IllegalArgumentException("null field name");
+        }
+        int dot = field.indexOf('.');
+        if (dot >= 0) {
+            String alias = field.substring(0, dot);
+            String name = field.substring(dot + 1);
+            Integer id = tables.get(alias);
+            if (id == null || !hasField(id, name)) {
+                throw new IllegalArgumentException("unknown field " + field);
+            }
+            return new String[] { alias, name };
+        }
+        String found = null;
+        for (Map.Entry<String, Integer> e : tables.entrySet()) {
+            if (hasField(e.getValue(), field)) {
+                if (found != null) {
+                    throw new IllegalArgumentException("field " + field + " is ambiguous");
+                }
+                found = e.getKey();
+            }
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("unknown field " + field);
+        }
+        return new String[] { found, field };
+    }
+
+    private static boolean hasField(int tableId, String name) {
+        try {
+            Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(name);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    private Type fieldType(String[] name) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tables.get(name[0]));
+        return td.getFieldType(td.fieldNameToIndex(name[1]));
+    }
+
+    /**
+     * Chooses how to run the query.
+     *
+     * @param tid the transaction the query runs in
+     * @return an unopened OpIterator returning the query's results
+     * @throws DbException if the query reads no tables, or its tables are
+     *             not all joined to each other
+     */
+    public OpIterator physicalPlan(TransactionId tid) throws DbException, TransactionAbortedException {
+        if (tables.isEmpty()) {
+            throw new DbException("the query reads no tables");
+        }
+        ArrayList<JoinOptimizer.Relation> relations = new ArrayList<JoinOptimizer.Relation>();
+        for (Map.Entry<String, Integer> e : tables.entrySet()) {
+            relations.add(accessPath(tid, e.getKey(), e.getValue()));
+        }
+        OpIterator plan;
+        if (relations.size() == 1) {
+            plan = relations.get(0).plan;
+        } else {
+            plan = new JoinOptimizer(relations, joins).bestPlan();
+        }
+        if (projection.isEmpty()) {
+            return plan;
+        }
+        TupleDesc td = plan.getTupleDesc();
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        for (String name : projection) {
+            int i = td.fieldNameToIndex(name);
+            fields.add(i);
+            types.add(td.getFieldType(i));
+        }
+        return new Project(fields, types, plan);
+    }
+
+    /**
+     * Chooses how to read one table with its filters: a sequential scan of
+     * the file with the filters pushed into it, or a lookup in the primary
+     * key index when the query fixes the key and that reads fewer pages.
+     * A HeapFile scan skips the pages its zone map rules out, so only those
+     * are costed; a BTreeFile scan reads only the leaves in the key range.
+     */
+    private JoinOptimizer.Relation accessPath(TransactionId tid, String alias, int tableId)
+            throws DbException, TransactionAbortedException {
+        Catalog catalog = Database.getCatalog();
+        TupleDesc td = catalog.getTupleDesc(tableId);
+        DbFile file = catalog.getDatabaseFile(tableId);
+        TableStats stats = catalog.getTableStats(tableId);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode f : filters) {
+            if (f.tableAlias.equals(alias)) {
+                preds.add(new Predicate(td.fieldNameToIndex(f.fieldPureName), f.p, f.c));
+            }
+        }
+        double card = stats.estimateTableCardinality(stats.estimateSelectivity(preds));
+
+        double cost = stats.estimateScanCost();
+        if (file instanceof HeapFile && !preds.isEmpty()) {
+            ZoneMap zones = ((HeapFile) file).getZoneMap();
+            int pages = 0;
+            for (int i = 0; i < zones.numPages(); i++) {
+                if (zones.mightMatch(i, preds)) {
+                    pages++;
+                }
+            }
+            cost = (double) pages * TableStats.IOCOSTPERPAGE;
+        } else if (file instanceof BTreeFile) {
+            BTreeFile btree = (BTreeFile) file;
+            ArrayList<Predicate> keyPreds = new ArrayList<Predicate>();
+            for (Predicate p : preds) {
+                if (p.getField() == btree.keyField() && p.getOp() != Predicate.Op.NOT_EQUALS
+                        && p.getOp() != Predicate.Op.LIKE) {
+                    keyPreds.add(p);
+                }
+            }
+            if (!keyPreds.isEmpty()) {
+                // the descent from the root, then the leaves in range
+                cost = TableStats.IOCOSTPERPAGE
+                        * (2 + btree.numPages() * stats.estimateSelectivity(keyPreds));
+            }
+        }
+        OpIterator plan = new SeqScan(tid, tableId, alias, preds, null);
+
+        String pk = catalog.getPrimaryKey(tableId);
+        if (file instanceof HeapFile && pk != null && !pk.isEmpty()) {
+            int key = td.fieldNameToIndex(pk);
+            for (Predicate p : preds) {
+                if (p.getField() != key || p.getOp() != Predicate.Op.EQUALS) {
+                    continue;
+                }
+                // one index page, then a page per matching tuple
+                double matches = stats.estimateTableCardinality(stats.estimateSelectivity(p));
+                double lookupCost = TableStats.IOCOSTPERPAGE * (1 + matches);
+                if (lookupCost < cost) {
+                    cost = lookupCost;
+                    plan = new IndexLookup(tid, tableId, alias, p);
+                    for (Predicate other : preds) {
+                        if (other != p) {
+                            plan = new Filter(other, plan);
+                        }
+                    }
+                }
+                break;
+            }
+        }
+        return new JoinOptimizer.Relation(alias, plan, cost, card, stats, td);
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        sb.append(projection.isEmpty() ? "*" : String.join(", ", projection));
+        sb.append(" FROM ");
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : tables.entrySet()) {
+            sb.append(first ? "" : ", ").append(Database.getCatalog().getTableName(e.getValue()))
+                    .append(' ').append(e.getKey());
+            first = false;
+        }
+        String sep = " WHERE ";
+        for (LogicalJoinNode j : joins) {
+            sb.append(sep).append(j);
+            sep = " AND ";
+        }
+        for (LogicalFilterNode f : filters) {
+            sb.append(sep).append(f);
+            sep = " AND ";
+        }
+        return sb.toString();
+    }
+}
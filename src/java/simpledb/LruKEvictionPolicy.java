@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the evictable page whose
+ * K-th most recent reference is furthest in the past. Pages referenced fewer
+ * than K times count as infinitely old and are evicted first, oldest last
+ * reference first, so a single sequential scan cannot flush out pages that
+ * are re-read regularly.
+ * <p>
+ * Reference history of evicted pages is retained (up to one pool's worth of
+ * pages) so a page that comes straight back keeps its history.
+ *
+ * @Threadsafe
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** Default K; LRU-2 already captures most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock;
+    private final HashMap<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retired;
+
+    /**
+     * @param capacity the number of frames in the pool; also bounds how many
+     *            evicted pages keep their history
+     * @param k the number of references remembered per page
+     */
+    public LruKEvictionPolicy(final int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        this.clock = 0;
+        this.resident = new HashMap<PageId, long[]>();
+        this.retired = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public LruKEvictionPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        long[] history = retired.remove(pid);
+        if (history == null) {
+            history = resident.get(pid);
+        }
+        if (history == null) {
+            // history[0] is the most recent reference; 0 means "never"
+            history = new long[k];
+        }
+        resident.put(pid, history);
+        reference(history);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history != null) {
+            reference(history);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] history = resident.remove(pid);
+        if (history != null) {
+            retired.put(pid, history);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Candidate candidates) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1];
+            long last = history[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (candidates.isEvictable(e.getKey())) {
+                    victim = e.getKey();
+                    victimKth = kth;
+                    victimLast = last;
+                }
+            }
+        }
+        return victim;
+    }
+
+    private void reference(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+}
@@ -0,0 +1,431 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The sort is external: the child is read into memory until the memory
+ * budget is full, each such run is sorted and written to a temporary file
+ * (see {@link SpillFile}), and the runs are merged with a priority queue as
+ * tuples are requested. The last run stays in memory. Input that fits in the
+ * budget is sorted in memory and never touches the disk. The sort is stable.
+ * <p>
+ * Each run being merged holds an open file and a page buffer, so at most
+ * memoryPages - 1 runs are merged at once. When there are more, groups of
+ * them are first merged into longer runs on disk, in as many passes as it
+ * takes.
+ * <p>
+ * With a limit (ORDER BY ... LIMIT n), only the first n tuples are returned.
+ * If n tuples fit in the budget they are selected with a bounded heap in a
+ * single pass and nothing is spilled; otherwise each run is cut to n tuples
+ * before it is written and the merge stops after n.
+ */
+public class OrderBy extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages, for the runs of a sort. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Limit value meaning all tuples are returned. */
+    public static final int NO_LIMIT = -1;
+
+    private OpIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int memoryPages;
+    private final int limit;
+
+    private transient Comparator<Tuple> comparator;
+    // the last (or only) run, kept in memory
+    private transient ArrayList<Tuple> memoryRun;
+    private transient ArrayList<SpillFile> runs;
+    private transient PriorityQueue<RunHead> merge;
+    // the open readers of the runs in merge
+    private transient ArrayList<SpillFile.Reader> readers;
+    private transient int index;
+    private transient int returned;
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES, NO_LIMIT);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages of serialized tuples may be held in memory
+     *            before a run is written to disk
+     * @param limit
+     *            the maximum number of tuples to return, or NO_LIMIT
+     * @see #OrderBy(int, boolean, OpIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int memoryPages, int limit) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("a sort needs at least one page of memory");
+        }
+        if (limit < 0 && limit != NO_LIMIT) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.memoryPages = memoryPages;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return child.getTupleDesc().getFieldName(orderByField);
+    }
+
+    /** @return the maximum number of tuples returned, or NO_LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    private Comparator<Tuple> comparator() {
+        final int f = orderByField;
+        final int sign = asc ? 1 : -1;
+        if (child.getTupleDesc().getFieldType(f) == Type.INT_TYPE) {
+            return new Comparator<Tuple>() {
+                public int compare(Tuple a, Tuple b) {
+                    return sign * Integer.compare(a.getInt(f), b.getInt(f));
+                }
+            };
+        }
+        return new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                String x = ((StringField) a.getField(f)).getValue();
+                String y = ((StringField) b.getField(f)).getValue();
+                return sign * x.compareTo(y);
+            }
+        };
+    }
+
+    /** A tuple in a bounded top-n heap; seq keeps equal keys in input order. */
+    private static class Candidate {
+        final Tuple t;
+        final long seq;
+
+        Candidate(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /** The current tuple of a run being merged. */
+    private static class RunHead {
+        Tuple t;
+        final Iterator<Tuple> it;
+        final int run;
+
+        RunHead(Iterator<Tuple> it, int run) {
+            this.t = it.next();
+            this.it = it;
+            this.run = run;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        comparator = comparator();
+        child.open();
+        try {
+            sort();
+            reduceRuns();
+            startMerge();
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("sort could not spill to disk: " + e.getMessage());
+        } catch (RuntimeException e) {
+            deleteRuns();
+            if (e.getCause() instanceof IOException) {
+                throw new DbException("sort could not read its runs: " + e.getMessage());
+            }
+            throw e;
+        }
+        super.open();
+    }
+
+    /** @return how many tuples fit in the memory budget, at least one */
+    private int runCapacity() {
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, budget / getTupleDesc().getSize()));
+    }
+
+    private void sort() throws DbException, TransactionAbortedException, IOException {
+        int capacity = runCapacity();
+        if (limit != NO_LIMIT && limit <= capacity) {
+            memoryRun = topN();
+            return;
+        }
+        ArrayList<Tuple> buf = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            if (buf.size() == capacity) {
+                writeRun(buf);
+                buf = new ArrayList<Tuple>();
+            }
+            buf.add(child.next());
+        }
+        Collections.sort(buf, comparator);
+        memoryRun = buf;
+    }
+
+    private void writeRun(ArrayList<Tuple> buf) throws IOException {
+        Collections.sort(buf, comparator);
+        if (runs == null) {
+            runs = new ArrayList<SpillFile>();
+        }
+        SpillFile run = new SpillFile(getTupleDesc());
+        runs.add(run);
+        int n = limit == NO_LIMIT ? buf.size() : Math.min(limit, buf.size());
+        for (int i = 0; i < n; i++) {
+            run.add(buf.get(i));
+        }
+        run.finish();
+    }
+
+    /**
+     * Selects the first limit tuples of the child with a heap whose root is
+     * the worst tuple kept so far.
+     */
+    private ArrayList<Tuple> topN() throws DbException, TransactionAbortedException {
+        Comparator<Candidate> order = new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                int c = comparator.compare(a.t, b.t);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            }
+        };
+        PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(
+                Math.max(1, limit), Collections.reverseOrder(order));
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Candidate(t, seq++));
+            } else if (limit > 0 && comparator.compare(t, heap.peek().t) < 0) {
+                heap.poll();
+                heap.add(new Candidate(t, seq++));
+            }
+        }
+        Candidate[] best = heap.toArray(new Candidate[heap.size()]);
+        Arrays.sort(best, order);
+        ArrayList<Tuple> out = new ArrayList<Tuple>(best.length);
+        for (Candidate c : best) {
+            out.add(c.t);
+        }
+        return out;
+    }
+
+    /** @return how many runs are merged at once: a page for each, and one for the output */
+    private int fanIn() {
+        return Math.max(2, memoryPages - 1);
+    }
+
+    /**
+     * Opens runs for merging, ordered by their current tuples with ties
+     * going to the earlier run, and adds their readers to open.
+     */
+    private PriorityQueue<RunHead> openRuns(List<SpillFile> group, List<SpillFile.Reader> open)
+            throws IOException {
+        PriorityQueue<RunHead> queue = new PriorityQueue<RunHead>(group.size() + 1, new Comparator<RunHead>() {
+            public int compare(RunHead a, RunHead b) {
+                int c = comparator.compare(a.t, b.t);
+                return c != 0 ? c : Integer.compare(a.run, b.run);
+            }
+        });
+        for (int i = 0; i < group.size(); i++) {
+            SpillFile.Reader it = group.get(i).iterator();
+            open.add(it);
+            if (it.hasNext()) {
+                queue.add(new RunHead(it, i));
+            }
+        }
+        return queue;
+    }
+
+    /** Moves head on to the next tuple of its run, putting it back in queue if there is one. */
+    private static void advance(RunHead head, PriorityQueue<RunHead> queue) {
+        if (head.it.hasNext()) {
+            head.t = head.it.next();
+            queue.add(head);
+        }
+    }
+
+    private static void closeReaders(List<SpillFile.Reader> open) {
+        for (SpillFile.Reader it : open) {
+            it.close();
+        }
+        open.clear();
+    }
+
+    /**
+     * Merges consecutive groups of fanIn() runs into one until no more than
+     * fanIn() runs are left for the final merge.
+     */
+    private void reduceRuns() throws IOException {
+        int fanIn = fanIn();
+        while (runs != null && runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            ArrayList<SpillFile.Reader> open = new ArrayList<SpillFile.Reader>();
+            boolean done = false;
+            try {
+                for (int from = 0; from < runs.size(); from += fanIn) {
+                    List<SpillFile> group = runs.subList(from, Math.min(runs.size(), from + fanIn));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    SpillFile out = new SpillFile(getTupleDesc());
+                    merged.add(out);
+                    PriorityQueue<RunHead> queue = openRuns(group, open);
+                    for (int n = 0; !queue.isEmpty() && (limit == NO_LIMIT || n < limit); n++) {
+                        RunHead head = queue.poll();
+                        out.add(head.t);
+                        advance(head, queue);
+                    }
+                    closeReaders(open);
+                    out.finish();
+                    for (SpillFile run : group) {
+                        run.delete();
+                    }
+                }
+                done = true;
+            } finally {
+                if (!done) {
+                    // the runs of this pass go; those of the last pass are deleted by the caller
+                    closeReaders(open);
+                    for (SpillFile run : merged) {
+                        if (!runs.contains(run)) {
+                            run.delete();
+                        }
+                    }
+                }
+            }
+            runs = merged;
+        }
+    }
+
+    private void startMerge() throws IOException {
+        index = 0;
+        returned = 0;
+        if (readers == null) {
+            readers = new ArrayList<SpillFile.Reader>();
+        }
+        closeReaders(readers);
+        if (runs == null) {
+            merge = null;
+            return;
+        }
+        merge = openRuns(runs, readers);
+        if (!memoryRun.isEmpty()) {
+            // the in-memory run holds the last input, so it loses ties
+            merge.add(new RunHead(memoryRun.iterator(), runs.size()));
+        }
+    }
+
+    private void deleteRuns() {
+        if (readers != null) {
+            closeReaders(readers);
+        }
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+        }
+        runs = null;
+    }
+
+    /** @return the number of runs on disk being merged, and so of open run files */
+    int numRuns() {
+        return readers == null ? 0 : readers.size();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        deleteRuns();
+        memoryRun = null;
+        merge = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        try {
+            startMerge();
+        } catch (IOException e) {
+            throw new DbException("sort could not read its runs: " + e.getMessage());
+        }
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child in
+     * sorted order (as specified by the constructor) and stops at the limit.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (limit != NO_LIMIT && returned >= limit) {
+            return null;
+        }
+        Tuple next;
+        if (merge == null) {
+            if (index == memoryRun.size()) {
+                return null;
+            }
+            next = memoryRun.get(index++);
+        } else {
+            RunHead head = merge.poll();
+            if (head == null) {
+                return null;
+            }
+            next = head.t;
+            try {
+                advance(head, merge);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new DbException("sort could not read its runs: " + e.getMessage());
+                }
+                throw e;
+            }
+        }
+        returned++;
+        return next;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
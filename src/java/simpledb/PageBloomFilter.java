@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A PageBloomFilter holds one Bloom filter of the values of a field for
+ * every block of consecutive pages of a HeapFile. A scan with an EQUALS
+ * predicate on the field skips the blocks whose filter rules the value out,
+ * which makes needle-in-a-haystack lookups on high-cardinality fields cheap
+ * without an index. Unlike a {@link ZoneMap}, it works whatever the order of
+ * the values in the file.
+ * <p>
+ * Filters are opt-in per field (see {@link HeapFile#enableBloomFilter}) and
+ * stored next to the data file (see {@link #fileFor}): a header of eight
+ * ints followed by the bits of each block's filter.
+ * <p>
+ * Bits cannot be removed from a Bloom filter, so when a page of a
+ * multi-page block is rewritten its values are added to the block's filter;
+ * stale bits only cost false positives until the filter is rebuilt.
+ */
+public class PageBloomFilter {
+
+    private static final int MAGIC = 0x424C4F4D;
+    private static final int HEADER_BYTES = 32;
+    private static final int NUM_BLOCKS_OFFSET = 28;
+
+    /** Filter bits per value a block can hold; with 5 hashes about 2% false positives. */
+    public static final int DEFAULT_BITS_PER_VALUE = 8;
+    public static final int DEFAULT_NUM_HASHES = 5;
+
+    private final Type type;
+    private final int field;
+    private final int pageSize;
+    private final int pagesPerBlock;
+    private final int wordsPerBlock;
+    private final int numHashes;
+    private long[] bits;
+    private int numBlocks;
+    private final SideFile out = new SideFile();
+
+    /**
+     * Creates a filter with no blocks.
+     *
+     * @param type the type of the field
+     * @param field the index of the field in the file's tuples
+     * @param pageSize the size of the file's pages
+     * @param pagesPerBlock how many consecutive pages share a filter
+     * @param wordsPerBlock the size of each block's filter, in longs
+     * @param numHashes how many bits each value sets
+     */
+    public PageBloomFilter(Type type, int field, int pageSize, int pagesPerBlock,
+            int wordsPerBlock, int numHashes) {
+        if (pagesPerBlock < 1 || wordsPerBlock < 1 || numHashes < 1) {
+            throw new IllegalArgumentException("empty Bloom filter");
+        }
+        this.type = type;
+        this.field = field;
+        this.pageSize = pageSize;
+        this.pagesPerBlock = pagesPerBlock;
+        this.wordsPerBlock = wordsPerBlock;
+        this.numHashes = numHashes;
+        this.bits = new long[16 * wordsPerBlock];
+        this.numBlocks = 0;
+    }
+
+    /**
+     * Creates a filter for field of a file of pages of pageSize bytes, with
+     * one block per page sized for a full page of distinct values.
+     */
+    public static PageBloomFilter create(TupleDesc td, int field, int pageSize) {
+        int values = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int words = Math.max(1, (values * DEFAULT_BITS_PER_VALUE + 63) / 64);
+        return new PageBloomFilter(td.getFieldType(field), field, pageSize, 1, words, DEFAULT_NUM_HASHES);
+    }
+
+    /** @return the filter file for a field of a data file */
+    public static File fileFor(File dataFile, int field) {
+        String path = dataFile.getPath();
+        if (path.endsWith(".dat")) {
+            path = path.substring(0, path.length() - ".dat".length());
+        }
+        return new File(path + "." + field + ".bloom");
+    }
+
+    /** @return the index of the field this filter covers */
+    public int getField() {
+        return field;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPagesPerBlock() {
+        return pagesPerBlock;
+    }
+
+    /** @return the number of blocks recorded */
+    public synchronized int numBlocks() {
+        return numBlocks;
+    }
+
+    private void ensureBlock(int block) {
+        int needed = (block + 1) * wordsPerBlock;
+        if (needed > bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(needed, bits.length * 2));
+        }
+        while (numBlocks <= block) {
+            // blocks skipped over have not been recorded; until they are,
+            // they might hold anything
+            Arrays.fill(bits, numBlocks * wordsPerBlock, (numBlocks + 1) * wordsPerBlock, -1L);
+            numBlocks++;
+        }
+    }
+
+    /** @return true if any bit was not set already */
+    private boolean add(int block, long h) {
+        int base = block * wordsPerBlock;
+        int m = wordsPerBlock * 64;
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % m;
+            long word = bits[base + (bit >>> 6)];
+            changed |= (word & (1L << bit)) == 0;
+            bits[base + (bit >>> 6)] = word | 1L << bit;
+        }
+        return changed;
+    }
+
+    /**
+     * Records the values of a page. If the page is the whole of its block
+     * the block's filter is replaced, otherwise the values are added to it.
+     */
+    public synchronized void recordPage(int pageNo, HeapPage page) {
+        int block = pageNo / pagesPerBlock;
+        boolean fresh = block >= numBlocks;
+        ensureBlock(block);
+        // a new block starts empty only if this page is its first; otherwise
+        // its earlier pages are unknown and it has to stay all ones
+        if (pagesPerBlock == 1 || (fresh && pageNo % pagesPerBlock == 0)) {
+            Arrays.fill(bits, block * wordsPerBlock, (block + 1) * wordsPerBlock, 0L);
+        }
+        for (int slot = page.nextUsedSlot(0); slot >= 0; slot = page.nextUsedSlot(slot + 1)) {
+            add(block, type == Type.INT_TYPE ? FieldHash.hash64(page.getInt(slot, field))
+                    : FieldHash.hash64(page.getField(slot, field)));
+        }
+    }
+
+    /**
+     * Adds the values on page to its block's filter, keeping the bits
+     * already set, so the block still matches what the page held before.
+     *
+     * @return true if any bit changed
+     */
+    public synchronized boolean widenPage(int pageNo, HeapPage page) {
+        int block = pageNo / pagesPerBlock;
+        boolean changed = block >= numBlocks;
+        ensureBlock(block);
+        for (int slot = page.nextUsedSlot(0); slot >= 0; slot = page.nextUsedSlot(slot + 1)) {
+            changed |= add(block, type == Type.INT_TYPE ? FieldHash.hash64(page.getInt(slot, field))
+                    : FieldHash.hash64(page.getField(slot, field)));
+        }
+        return changed;
+    }
+
+    /** Adds a value stored on a page since the page was last recorded. */
+    public synchronized void addValue(int pageNo, Field value) {
+        int block = pageNo / pagesPerBlock;
+        if (block < numBlocks) {
+            add(block, FieldHash.hash64(value));
+        }
+    }
+
+    /**
+     * @return false only if no tuple on the page has the given value. Pages
+     *         past the end of the filter always might.
+     */
+    public synchronized boolean mightContain(int pageNo, Field value) {
+        int block = pageNo / pagesPerBlock;
+        if (block >= numBlocks || value.getType() != type) {
+            return true;
+        }
+        long h = FieldHash.hash64(value);
+        int base = block * wordsPerBlock;
+        int m = wordsPerBlock * 64;
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % m;
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the whole filter to f, replacing its contents. */
+    public synchronized void write(File f) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + numBlocks * wordsPerBlock * 8);
+        buf.putInt(MAGIC).putInt(type.ordinal()).putInt(field).putInt(pageSize)
+                .putInt(pagesPerBlock).putInt(wordsPerBlock).putInt(numHashes).putInt(numBlocks);
+        buf.asLongBuffer().put(bits, 0, numBlocks * wordsPerBlock);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(buf.array());
+        }
+    }
+
+    /**
+     * Writes the block holding a page, and the block count, to the filter
+     * in f, along with any blocks between the end of f and that block.
+     */
+    public synchronized void writePage(File f, int pageNo) throws IOException {
+        FileChannel ch = out.channel(f);
+        if (ch.size() < HEADER_BYTES) {
+            write(f);
+            return;
+        }
+        int block = pageNo / pagesPerBlock;
+        int blockBytes = wordsPerBlock * 8;
+        int from = (int) Math.min(block, Math.max(0, (ch.size() - HEADER_BYTES) / blockBytes));
+        ByteBuffer buf = ByteBuffer.allocate((block - from + 1) * blockBytes);
+        buf.asLongBuffer().put(bits, from * wordsPerBlock, (block - from + 1) * wordsPerBlock);
+        SideFile.write(ch, buf, HEADER_BYTES + (long) from * blockBytes);
+        SideFile.writeInt(ch, numBlocks, NUM_BLOCKS_OFFSET);
+    }
+
+    /** Releases the file handle kept by {@link #writePage}; a later write reopens it. */
+    public synchronized void close() {
+        out.close();
+    }
+
+    /**
+     * Reads the filter stored in f.
+     *
+     * @return the filter, or null if f is missing or does not hold a filter
+     *         on this field of a file of pages of this size
+     */
+    public static PageBloomFilter read(File f, Type type, int field, int pageSize) {
+        if (!f.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readInt() != type.ordinal() || in.readInt() != field
+                    || in.readInt() != pageSize) {
+                return null;
+            }
+            int pagesPerBlock = in.readInt();
+            int wordsPerBlock = in.readInt();
+            int numHashes = in.readInt();
+            int blocks = in.readInt();
+            if (pagesPerBlock < 1 || wordsPerBlock < 1 || numHashes < 1 || blocks < 0
+                    || f.length() - HEADER_BYTES < (long) blocks * wordsPerBlock * 8) {
+                return null;
+            }
+            PageBloomFilter filter = new PageBloomFilter(type, field, pageSize,
+                    pagesPerBlock, wordsPerBlock, numHashes);
+            filter.ensureBlock(blocks - 1);
+            for (int i = 0; i < blocks * wordsPerBlock; i++) {
+                filter.bits[i] = in.readLong();
+            }
+            return filter;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ParallelSeqScan reads a HeapFile on several threads. The page range is cut
+ * into morsels of consecutive pages; each morsel is read by one worker from
+ * a shared pool, and the consumer pulls finished morsels off a queue that
+ * never holds more than a fixed number of morsels, so a slow consumer stalls
+ * the workers instead of buffering the whole table.
+ * <p>
+ * By default morsels are returned as soon as they finish, so tuples come out
+ * in no particular order. With preserveOrder set, morsels are returned in
+ * page order and the output is identical to a {@link SeqScan}.
+ * <p>
+ * Tables that are not HeapFiles are scanned sequentially.
+ * <p>
+ * Closing the scan tells its morsels to stop after their current page and
+ * waits for them. Workers are never interrupted: an interrupt during a read
+ * would close the file's channel, which all transactions reading the table
+ * share.
+ */
+public class ParallelSeqScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages per morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private static ExecutorService workers;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int parallelism;
+    private final boolean preserveOrder;
+    private final int morselPages;
+
+    private transient HeapFile file;
+    private transient DbFileIterator serial;
+    private transient int nextMorsel;
+    private transient int numMorsels;
+    private transient ArrayDeque<Future<List<Tuple>>> ordered;
+    private transient CompletionService<List<Tuple>> unordered;
+    // submitted morsels not yet taken by the consumer, in either mode
+    private transient Set<Future<List<Tuple>>> running;
+    private transient AtomicBoolean stopped;
+    private transient int inFlight;
+    private transient Iterator<Tuple> current;
+    private transient boolean open;
+
+    /**
+     * Creates a parallel scan over the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in {@link SeqScan}
+     * @param parallelism
+     *            the number of morsels read at once; this also bounds the
+     *            number of finished morsels waiting for the consumer
+     * @param preserveOrder
+     *            true to return tuples in page order
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int parallelism, boolean preserveOrder) {
+        this(tid, tableid, tableAlias, parallelism, preserveOrder, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @param morselPages
+     *            the number of consecutive pages each worker reads at a time
+     * @see #ParallelSeqScan(TransactionId, int, String, int, boolean)
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int parallelism, boolean preserveOrder, int morselPages) {
+        if (parallelism < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("parallelism and morsel size must be positive");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.parallelism = parallelism;
+        this.preserveOrder = preserveOrder;
+        this.morselPages = morselPages;
+    }
+
+    /**
+     * Creates an unordered parallel scan using one worker per processor.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid),
+                Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        current = null;
+        open = true;
+        if (!(f instanceof HeapFile)) {
+            serial = f.iterator(tid);
+            serial.open();
+            return;
+        }
+        file = (HeapFile) f;
+        numMorsels = (file.numPages() + morselPages - 1) / morselPages;
+        nextMorsel = 0;
+        inFlight = 0;
+        running = new HashSet<Future<List<Tuple>>>();
+        stopped = new AtomicBoolean();
+        if (preserveOrder) {
+            ordered = new ArrayDeque<Future<List<Tuple>>>();
+        } else {
+            unordered = new ExecutorCompletionService<List<Tuple>>(workers());
+        }
+        while (inFlight < parallelism && nextMorsel < numMorsels) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Same as {@link SeqScan#getTupleDesc()}: field names are prefixed with
+     * the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        return TupleDesc.withAlias(td, tableAlias);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("scan is not open");
+        }
+        if (serial != null) {
+            return serial.hasNext();
+        }
+        while (current == null || !current.hasNext()) {
+            if (inFlight == 0) {
+                return false;
+            }
+            current = takeMorsel().iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("There is no next tuple");
+        }
+        return serial != null ? serial.next() : current.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (serial != null) {
+            serial.close();
+            serial = null;
+        }
+        if (stopped != null) {
+            stopped.set(true);
+            stopped = null;
+        }
+        if (running != null) {
+            // with stopped set the morsels end after at most one page; waiting for
+            // them keeps a worker from taking locks for tid after it completes
+            for (Future<List<Tuple>> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    // the tuples are dropped anyway
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            running = null;
+        }
+        ordered = null;
+        unordered = null;
+        inFlight = 0;
+        current = null;
+        open = false;
+    }
+
+    private void submitNext() {
+        final int first = nextMorsel * morselPages;
+        final int last = Math.min(first + morselPages, file.numPages());
+        final AtomicBoolean stop = stopped;
+        nextMorsel++;
+        inFlight++;
+        Callable<List<Tuple>> task = new Callable<List<Tuple>>() {
+            public List<Tuple> call() throws DbException, TransactionAbortedException {
+                return readMorsel(first, last, stop);
+            }
+        };
+        Future<List<Tuple>> f;
+        if (preserveOrder) {
+            f = workers().submit(task);
+            ordered.add(f);
+        } else {
+            f = unordered.submit(task);
+        }
+        running.add(f);
+    }
+
+    /** Reads pages first to last, or fewer if stop is set first. */
+    private List<Tuple> readMorsel(int first, int last, AtomicBoolean stop)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        for (int p = first; p < last && !stop.get(); p++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, p), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                out.add(it.next());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Waits for the next morsel (the oldest one if order is preserved) and
+     * starts reading another in its place.
+     */
+    private List<Tuple> takeMorsel() throws DbException, TransactionAbortedException {
+        Future<List<Tuple>> done;
+        try {
+            done = preserveOrder ? ordered.poll() : unordered.take();
+            running.remove(done);
+            List<Tuple> tuples = done.get();
+            inFlight--;
+            if (nextMorsel < numMorsels) {
+                submitNext();
+            }
+            return tuples;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while scanning table " + tableid);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static synchronized ExecutorService workers() {
+        if (workers == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-scan");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            workers = pool;
+        }
+        return workers;
+    }
+}
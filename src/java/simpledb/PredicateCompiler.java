@@ -0,0 +1,317 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Turns Predicates into CompiledPredicates. Predicate.filter goes through
+ * Tuple.getField and Field.compare, which switches on the operator for every
+ * tuple; a compiled predicate picks the operator once, compares ints as
+ * primitives and compares ASCII strings byte by byte against the serialized
+ * field without decoding it.
+ * <p>
+ * Compiled predicates give the same answers as {@link Predicate#filter}.
+ */
+public class PredicateCompiler {
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Compiles a single predicate.
+     *
+     * @param td the TupleDesc of the tuples the predicate will be tested on
+     * @param p a predicate on a field of td
+     */
+    public static CompiledPredicate compile(TupleDesc td, Predicate p) {
+        int field = p.getField();
+        int offset = td.getFieldOffset(field);
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE) {
+            return compileInt(field, offset, p.getOp(), ((IntField) p.getOperand()).getValue());
+        }
+        if (type == Type.STRING_TYPE) {
+            return new StringPredicate(td, p, offset);
+        }
+        return new GenericPredicate(td, p, offset);
+    }
+
+    /**
+     * Compiles the conjunction of some predicates.
+     *
+     * @param td the TupleDesc of the tuples the predicates will be tested on
+     * @param predicates predicates on fields of td; if empty, the result
+     *            matches every tuple
+     */
+    public static CompiledPredicate compile(TupleDesc td, List<Predicate> predicates) {
+        if (predicates.size() == 1) {
+            return compile(td, predicates.get(0));
+        }
+        CompiledPredicate[] parts = new CompiledPredicate[predicates.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = compile(td, predicates.get(i));
+        }
+        return new Conjunction(parts);
+    }
+
+    private static final class Conjunction extends CompiledPredicate {
+        private final CompiledPredicate[] parts;
+
+        Conjunction(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate p : parts) {
+                if (!p.matches(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matches(ByteBuffer buf, int offset) {
+            for (CompiledPredicate p : parts) {
+                if (!p.matches(buf, offset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Compares one int field; subclasses fix the operator. */
+    private abstract static class IntPredicate extends CompiledPredicate {
+        final int field;
+        final int offset;
+        final int operand;
+
+        IntPredicate(int field, int offset, int operand) {
+            this.field = field;
+            this.offset = offset;
+            this.operand = operand;
+        }
+
+        abstract boolean test(int value);
+
+        public boolean matches(Tuple t) {
+            return t.hasField(field) && test(t.getInt(field));
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            return test(buf.getInt(tupleOffset + offset));
+        }
+    }
+
+    private static CompiledPredicate compileInt(int field, int offset, Predicate.Op op, int operand) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value == operand;
+                }
+            };
+        case NOT_EQUALS:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value != operand;
+                }
+            };
+        case GREATER_THAN:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value > operand;
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value >= operand;
+                }
+            };
+        case LESS_THAN:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value < operand;
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new IntPredicate(field, offset, operand) {
+                boolean test(int value) {
+                    return value <= operand;
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /**
+     * Compares one string field. Strings are serialized as a 4-byte length
+     * followed by one byte per character. When the operand is ASCII the
+     * serialized bytes are compared directly; a stored byte outside ASCII
+     * could decode to a different character, so the rare tuple where the
+     * order depends on one is decoded and compared as a String instead.
+     */
+    private static final class StringPredicate extends CompiledPredicate {
+        private static final int UNDECIDED = Integer.MIN_VALUE;
+
+        private final TupleDesc td;
+        private final int field;
+        private final int offset;
+        private final Predicate.Op op;
+        private final StringField operandField;
+        private final String operand;
+        private final byte[] operandBytes;
+
+        StringPredicate(TupleDesc td, Predicate p, int offset) {
+            this.td = td;
+            this.field = p.getField();
+            this.offset = offset;
+            this.op = p.getOp();
+            this.operandField = (StringField) p.getOperand();
+            this.operand = operandField.getValue();
+            this.operandBytes = asciiBytes(operand);
+        }
+
+        private static byte[] asciiBytes(String s) {
+            byte[] bytes = new byte[s.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    return null;
+                }
+                bytes[i] = (byte) c;
+            }
+            return bytes;
+        }
+
+        public boolean matches(Tuple t) {
+            Field f = t.getField(field);
+            if (f == null) {
+                return false;
+            }
+            String value = ((StringField) f).getValue();
+            switch (op) {
+            case EQUALS:
+                return value.equals(operand);
+            case NOT_EQUALS:
+                return !value.equals(operand);
+            case LIKE:
+                return value.contains(operand);
+            default:
+                return f.compare(op, operandField);
+            }
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            int start = tupleOffset + offset;
+            if (operandBytes == null) {
+                return decode(buf, start);
+            }
+            int len = buf.getInt(start);
+            int pos = start + 4;
+            switch (op) {
+            case EQUALS:
+                return len == operandBytes.length && equalAt(buf, pos);
+            case NOT_EQUALS:
+                return len != operandBytes.length || !equalAt(buf, pos);
+            case LIKE:
+                return contains(buf, pos, len);
+            default:
+                int cmp = compare(buf, pos, len);
+                if (cmp == UNDECIDED) {
+                    return decode(buf, start);
+                }
+                switch (op) {
+                case GREATER_THAN:
+                    return cmp > 0;
+                case GREATER_THAN_OR_EQ:
+                    return cmp >= 0;
+                case LESS_THAN:
+                    return cmp < 0;
+                case LESS_THAN_OR_EQ:
+                    return cmp <= 0;
+                default:
+                    throw new IllegalArgumentException("unknown operator " + op);
+                }
+            }
+        }
+
+        private boolean decode(ByteBuffer buf, int start) {
+            return td.getFieldType(field).parse(buf, start).compare(op, operandField);
+        }
+
+        private boolean equalAt(ByteBuffer buf, int pos) {
+            for (int i = 0; i < operandBytes.length; i++) {
+                if (buf.get(pos + i) != operandBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean contains(ByteBuffer buf, int pos, int len) {
+            int n = operandBytes.length;
+            if (n == 0) {
+                return true;
+            }
+            byte first = operandBytes[0];
+            for (int i = 0; i <= len - n; i++) {
+                if (buf.get(pos + i) != first) {
+                    continue;
+                }
+                int j = 1;
+                while (j < n && buf.get(pos + i + j) == operandBytes[j]) {
+                    j++;
+                }
+                if (j == n) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** @return the sign of value.compareTo(operand), or UNDECIDED */
+        private int compare(ByteBuffer buf, int pos, int len) {
+            int n = Math.min(len, operandBytes.length);
+            for (int i = 0; i < n; i++) {
+                int b = buf.get(pos + i) & 0xff;
+                if (b >= 0x80) {
+                    return UNDECIDED;
+                }
+                if (b != operandBytes[i]) {
+                    return b - operandBytes[i];
+                }
+            }
+            for (int i = n; i < len; i++) {
+                if ((buf.get(pos + i) & 0xff) >= 0x80) {
+                    // the decoded length may differ from len
+                    return UNDECIDED;
+                }
+            }
+            return len - operandBytes.length;
+        }
+    }
+
+    /** Decodes the field and falls back on Field.compare. */
+    private static final class GenericPredicate extends CompiledPredicate {
+        private final Predicate p;
+        private final Type type;
+        private final int offset;
+
+        GenericPredicate(TupleDesc td, Predicate p, int offset) {
+            this.p = p;
+            this.type = td.getFieldType(p.getField());
+            this.offset = offset;
+        }
+
+        public boolean matches(Tuple t) {
+            return p.filter(t);
+        }
+
+        public boolean matches(ByteBuffer buf, int tupleOffset) {
+            return type.parse(buf, tupleOffset + offset).compare(p.getOp(), p.getOperand());
+        }
+    }
+}
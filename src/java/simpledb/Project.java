@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Project is an operator that implements a relational projection.
+ */
+public class Project extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read tuples to apply projection
+     * to and a list of fields in output tuple
+     * 
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param typesList
+     *            the types of the fields in the final projection
+     * @param child
+     *            The child operator
+     */
+    public Project(List<Integer> fieldList, List<Type> typesList,
+            OpIterator child) {
+        this(fieldList, typesList.toArray(new Type[] {}), child);
+    }
+
+    public Project(List<Integer> fieldList, Type[] types,
+            OpIterator child) {
+        this.child = child;
+        outFieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+
+        for (int i = 0; i < fieldAr.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(types, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        // drop the tuple hasNext() may have fetched ahead
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Iterates over tuples from the child
+     * operator, projecting out the fields from the tuple
+     * 
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t.getRecordId());
+        for (int i = 0; i < td.numFields(); i++) {
+            newTuple.setField(i, t.getField(outFieldIds[i]));
+        }
+        return newTuple;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
+    }
+    
+}
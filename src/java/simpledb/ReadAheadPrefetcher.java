@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential read-ahead for the BufferPool. Every page request is reported
+ * here; when a transaction asks for consecutive pages of a heap file, the
+ * next pages of that file are loaded into the pool on background threads so
+ * that the scan finds them resident.
+ * <p>
+ * The window of pages fetched ahead doubles with every sequential request
+ * up to a limit. The limit itself adapts: it shrinks by half whenever a
+ * prefetched page is evicted before anyone asked for it (the pool is too
+ * small for the read-ahead) and grows back by one page for every prefetched
+ * page that gets used. At most a quarter of the pool is ever held by
+ * prefetched pages that have not been requested yet.
+ *
+ * @see BufferPool#setReadAheadPages
+ * @Threadsafe
+ */
+class ReadAheadPrefetcher {
+
+    /** Access pattern of one transaction over one table. */
+    private static final class Stream {
+        int last = -2;
+        int window = 0;
+        int issuedUpTo = -1;
+    }
+
+    private static final class StreamKey {
+        final TransactionId tid;
+        final int tableId;
+
+        StreamKey(TransactionId tid, int tableId) {
+            this.tid = tid;
+            this.tableId = tableId;
+        }
+
+        public int hashCode() {
+            return 31 * tid.hashCode() + tableId;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof StreamKey))
+                return false;
+            StreamKey other = (StreamKey) o;
+            return tableId == other.tableId && tid.equals(other.tid);
+        }
+    }
+
+    /** Streams are dropped wholesale past this many, e.g. if transactions never complete. */
+    private static final int MAX_STREAMS = 256;
+
+    private final BufferPool pool;
+    private final int numPages;
+    private final ConcurrentHashMap<StreamKey, Stream> streams;
+    private final Set<PageId> pending;
+    private volatile int maxWindow;
+    private volatile int limit;
+    private ThreadPoolExecutor executor;
+
+    ReadAheadPrefetcher(BufferPool pool, int numPages, int maxWindow) {
+        this.pool = pool;
+        this.numPages = numPages;
+        this.streams = new ConcurrentHashMap<StreamKey, Stream>();
+        this.pending = ConcurrentHashMap.newKeySet();
+        setMaxWindow(maxWindow);
+    }
+
+    int getMaxWindow() {
+        return maxWindow;
+    }
+
+    void setMaxWindow(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("read-ahead window must not be negative");
+        }
+        this.maxWindow = pages;
+        this.limit = pages;
+    }
+
+    /** Called for every page requested from the pool on behalf of tid. */
+    void pageRequested(TransactionId tid, PageId pid) {
+        if (pending.remove(pid)) {
+            // read-ahead paid off; let the window grow back
+            limit = Math.min(maxWindow, limit + 1);
+        }
+        if (maxWindow == 0 || tid == null || !(pid instanceof HeapPageId)) {
+            return;
+        }
+
+        StreamKey key = new StreamKey(tid, pid.getTableId());
+        Stream s = streams.get(key);
+        if (s == null) {
+            if (streams.size() >= MAX_STREAMS) {
+                streams.clear();
+            }
+            Stream fresh = new Stream();
+            s = streams.putIfAbsent(key, fresh);
+            if (s == null) {
+                s = fresh;
+            }
+        }
+
+        int pgNo = pid.getPageNumber();
+        int from, to;
+        synchronized (s) {
+            if (pgNo == s.last + 1) {
+                s.window = Math.min(limit, s.window == 0 ? 2 : s.window * 2);
+            } else if (pgNo != s.last) {
+                s.window = 0;
+                s.issuedUpTo = pgNo;
+            }
+            s.last = pgNo;
+            if (s.window == 0) {
+                return;
+            }
+            from = Math.max(s.issuedUpTo + 1, pgNo + 1);
+            to = pgNo + s.window;
+            if (from > to) {
+                return;
+            }
+            s.issuedUpTo = to;
+        }
+
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return;
+        }
+        to = Math.min(to, ((HeapFile) file).numPages() - 1);
+        int maxPending = numPages / 4;
+        for (int p = from; p <= to && pending.size() < maxPending; p++) {
+            issue(new HeapPageId(pid.getTableId(), p));
+        }
+    }
+
+    /** Called when pid leaves the pool. */
+    void pageEvicted(PageId pid) {
+        if (pending.remove(pid)) {
+            // fetched for nothing: the pool cannot hold this much read-ahead
+            limit = Math.max(1, limit / 2);
+        }
+    }
+
+    /** Forget the access streams of a finished transaction. */
+    void transactionComplete(TransactionId tid) {
+        Iterator<StreamKey> it = streams.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().tid.equals(tid)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void issue(final PageId pid) {
+        if (pool.isResident(pid) || !pending.add(pid)) {
+            return;
+        }
+        executor().execute(new Runnable() {
+            public void run() {
+                if (!pool.prefetchPage(pid)) {
+                    pending.remove(pid);
+                }
+            }
+        });
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-read-ahead");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
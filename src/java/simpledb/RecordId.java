@@ -52,7 +52,7 @@ public class RecordId implements Serializable {
     public boolean equals(Object o) {
     	if ((o != null) && (o instanceof RecordId)){
     		RecordId otherRecordId = (RecordId) o; 
-    		if (otherRecordId.tupleNo != this.tupleNo) {
+    		if (otherRecordId.tupleNo.intValue() != this.tupleNo.intValue()) {
     			return false;
     		}
     		if (otherRecordId.pid.equals(this.pid)) {
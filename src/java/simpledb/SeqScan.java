@@ -32,12 +32,35 @@ public class SeqScan implements OpIterator {
     private Integer tableid;
     private String tableAlias;
     private DbFileIterator db_iterator;
+    private List<Predicate> predicates;
+    private int[] projection;
     
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.db_iterator = null;
+        this.predicates = Collections.emptyList();
+        this.projection = null;
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying every
+     * predicate, holding only the projected fields. Both are handed to the
+     * table's DbFile, which may test them without decoding whole tuples.
+     *
+     * @param predicates
+     *            predicates on fields of the table's TupleDesc
+     * @param projection
+     *            indexes of the table's fields to return, in order, or null
+     *            for all fields
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> predicates, int[] projection) {
+        this(tid, tableid, tableAlias);
+        this.predicates = new ArrayList<Predicate>(predicates);
+        this.projection = projection == null ? null : projection.clone();
     }
 
     /**
@@ -82,7 +105,12 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         try {
-        	this.db_iterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        	DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        	if (predicates.isEmpty() && projection == null) {
+        		this.db_iterator = file.iterator(this.tid);
+        	} else {
+        		this.db_iterator = file.iterator(this.tid, predicates, projection);
+        	}
         	this.db_iterator.open();
         } catch (Exception ex){
         	throw (DbException) ex;
@@ -101,13 +129,54 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc myTD = Database.getCatalog().getTupleDesc(this.tableid);
-        Type[] typeArray = new Type[myTD.numFields()];
-        String[] fieldArray = new String[myTD.numFields()];
-        for (int i = 0; myTD.numFields() > i; i++) {
-        	typeArray[i] = myTD.getFieldType(i);
-        	fieldArray[i] = tableAlias + "." + myTD.getFieldName(i);
+        if (projection != null) {
+        	myTD = myTD.project(projection);
+        }
+        return TupleDesc.withAlias(myTD, tableAlias);
+    }
+
+    /**
+     * Returns a batch-at-a-time scan of the same table, predicates and
+     * projection. It is independent of this operator and is opened and
+     * closed on its own. HeapFiles fill batches straight from their pages;
+     * other files are scanned tuple by tuple and copied into batches.
+     *
+     * @param batchSize the maximum number of rows per batch
+     */
+    public BatchIterator batchIterator(int batchSize) {
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid);
+        final BatchIterator batches;
+        if (file instanceof HeapFile) {
+        	batches = ((HeapFile) file).batchIterator(tid, predicates, projection, batchSize);
+        } else {
+        	batches = new TupleToBatchIterator(
+        			new SeqScan(tid, tableid, tableAlias, predicates, projection), batchSize);
         }
-        return new TupleDesc(typeArray, fieldArray);
+        final TupleDesc td = getTupleDesc();
+        // same batches, but described with the aliased field names
+        return new BatchIterator() {
+            private static final long serialVersionUID = 1L;
+
+            public void open() throws DbException, TransactionAbortedException {
+                batches.open();
+            }
+
+            public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+                return batches.nextBatch();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                batches.rewind();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                batches.close();
+            }
+        };
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The write handle of one of the files kept next to a HeapFile's data file,
+ * such as its {@link ZoneMap}. The channel is opened by the first write
+ * and kept until {@link #close}, so saving the entry of one page costs a
+ * positional write rather than an open and close of the file. Writing to
+ * a different file reopens it.
+ */
+final class SideFile {
+
+    private File file;
+    private FileChannel channel;
+
+    /** @return a channel on f for writing, creating f if it does not exist */
+    FileChannel channel(File f) throws IOException {
+        if (channel == null || !channel.isOpen() || !f.equals(file)) {
+            close();
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            file = f;
+        }
+        return channel;
+    }
+
+    /** Writes all of buf to ch at position. */
+    static void write(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    /** Writes an int to ch at position. */
+    static void writeInt(FileChannel ch, int value, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(0, value);
+        write(ch, buf, position);
+    }
+
+    /** Releases the channel; the next write reopens it. */
+    void close() {
+        FileChannel ch = channel;
+        channel = null;
+        file = null;
+        if (ch != null) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary, append-only file of tuples for operators that run out of
+ * memory. Tuples are packed into pages in the HeapFile format (see
+ * {@link HeapPage}), written sequentially, and read back sequentially
+ * without going through the BufferPool, so spilling never evicts table
+ * pages. The file is not in the Catalog; its pages are decoded with the
+ * schema given at creation.
+ * <p>
+ * Usage: add tuples, call {@link #finish}, then iterate any number of times;
+ * {@link #delete} removes the file.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int slotsPerPage;
+    private final int headerBytes;
+    private final int tupleSize;
+    private final byte[] page;
+    private final PageOutputStream pageOut;
+    private final DataOutputStream tupleOut;
+    private OutputStream out;
+    private int slotsUsed;
+    private int numPages;
+    private long size;
+
+    /**
+     * Creates an empty spill file in the temp directory.
+     *
+     * @param td the schema of the tuples to be added
+     */
+    SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb-spill", ".dat");
+        this.file.deleteOnExit();
+        this.slotsPerPage = HeapPage.slotsPerPage(td);
+        this.headerBytes = HeapPage.headerBytes(td);
+        this.tupleSize = td.getSize();
+        this.page = new byte[BufferPool.getPageSize()];
+        this.pageOut = new PageOutputStream();
+        this.tupleOut = new DataOutputStream(pageOut);
+        // whole pages are written and read, so no extra buffering is needed
+        this.out = new FileOutputStream(file);
+    }
+
+    /** Writes into page at a movable position. */
+    private class PageOutputStream extends OutputStream {
+        int pos;
+
+        public void write(int b) {
+            page[pos++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, page, pos, len);
+            pos += len;
+        }
+    }
+
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added. */
+    long size() {
+        return size;
+    }
+
+    /** Appends t, which must have this file's schema and no unset fields. */
+    void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("spill file is finished");
+        }
+        int slot = slotsUsed++;
+        page[slot / 8] |= (byte) (1 << (slot % 8));
+        pageOut.pos = headerBytes + slot * tupleSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(tupleOut);
+        }
+        if (slotsUsed == slotsPerPage) {
+            writePage();
+        }
+        size++;
+    }
+
+    private void writePage() throws IOException {
+        out.write(page);
+        java.util.Arrays.fill(page, (byte) 0);
+        slotsUsed = 0;
+        numPages++;
+    }
+
+    /** Writes the last, partly filled page; no more tuples may be added. */
+    void finish() throws IOException {
+        if (out == null) {
+            return;
+        }
+        if (slotsUsed > 0) {
+            writePage();
+        }
+        out.close();
+        out = null;
+    }
+
+    /**
+     * @return the tuples of this file, in the order they were added. The
+     *         reader reads the file a page at a time and closes it when it
+     *         runs out; IO errors surface as RuntimeExceptions.
+     */
+    Reader iterator() throws IOException {
+        finish();
+        return new Reader(new DataInputStream(new FileInputStream(file)));
+    }
+
+    /** An iterator over the tuples of the file that holds it open until closed or exhausted. */
+    class Reader implements Iterator<Tuple> {
+        private final DataInputStream in;
+        private int pageNo = 0;
+        private Iterator<Tuple> tuples = null;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        public boolean hasNext() {
+            while (tuples == null || !tuples.hasNext()) {
+                if (pageNo == numPages) {
+                    close();
+                    return false;
+                }
+                try {
+                    byte[] data = new byte[BufferPool.getPageSize()];
+                    in.readFully(data);
+                    tuples = new HeapPage(new HeapPageId(-1, pageNo++), data, td).iterator();
+                } catch (IOException e) {
+                    close();
+                    throw new RuntimeException("cannot read spill file " + file, e);
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return tuples.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Releases the file; the reader then has no more tuples. */
+        void close() {
+            pageNo = numPages;
+            tuples = null;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read anyway
+            }
+        }
+    }
+
+    /** Removes the file from disk. */
+    void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // the file is going away regardless
+        }
+        file.delete();
+    }
+}
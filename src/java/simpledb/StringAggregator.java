@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute some aggregate over a set of StringFields.
+ */
+public class StringAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final LinkedHashMap<Field, int[]> counts;
+
+    /**
+     * Aggregate constructor
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what aggregation operator to use -- only supports COUNT
+     * @throws IllegalArgumentException if what != COUNT
+     */
+
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("strings only support COUNT, not " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.counts = new LinkedHashMap<Field, int[]>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        int[] count = counts.get(key);
+        if (count == null) {
+            count = new int[1];
+            counts.put(key, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal,
+     *   aggregateVal) if using group, or a single (aggregateVal) if no
+     *   grouping. The aggregateVal is determined by the type of
+     *   aggregate specified in the constructor.
+     */
+    public OpIterator iterator() {
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[] { Type.INT_TYPE })
+                : new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+        ArrayList<Tuple> out = new ArrayList<Tuple>(counts.size());
+        for (Map.Entry<Field, int[]> e : counts.entrySet()) {
+            Tuple t = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                t.setField(0, new IntField(e.getValue()[0]));
+            } else {
+                t.setField(0, e.getKey());
+                t.setField(1, new IntField(e.getValue()[0]));
+            }
+            out.add(t);
+        }
+        return new TupleIterator(td, out);
+    }
+
+}
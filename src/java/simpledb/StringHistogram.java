@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A class to represent a fixed-width histogram over a single String-based
+ * field. Strings are mapped to ints by their first four characters, which
+ * preserves their order, and kept in an {@link IntHistogram}.
+ */
+public class StringHistogram {
+
+    private final IntHistogram hist;
+
+    /**
+     * Create a new StringHistogram with a specified number of buckets.
+     * <p>
+     * Our implementation is written in terms of an IntHistogram by converting
+     * each String to an integer.
+     *
+     * @param buckets
+     *            the number of buckets
+     */
+    public StringHistogram(int buckets) {
+        this(new IntHistogram(buckets, minVal(), maxVal()));
+    }
+
+    private StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Convert a string to an integer, with the property that if the return
+     * value(s1) < return value(s2), then s1 < s2
+     */
+    private static int stringToInt(String s) {
+        int v = 0;
+        for (int i = 3; i >= 0; i--) {
+            if (s.length() > 3 - i) {
+                int ci = s.charAt(3 - i) & 0xff;
+                v += ci << (i * 8);
+            }
+        }
+        // the ints compare as unsigned; shift them to compare signed
+        return v ^ Integer.MIN_VALUE;
+    }
+
+    /** @return the maximum value indexed by the histogram */
+    static int maxVal() {
+        return stringToInt("\u00ff\u00ff\u00ff\u00ff");
+    }
+
+    /** @return the minimum value indexed by the histogram */
+    static int minVal() {
+        return stringToInt("");
+    }
+
+    /** Add a new value to the histogram */
+    public void addValue(String s) {
+        hist.addValue(stringToInt(s));
+    }
+
+    /**
+     * Estimate the selectivity (as a double between 0 and 1) of the specified
+     * predicate over the specified string
+     *
+     * @param op
+     *            The operation being applied
+     * @param s
+     *            The string to apply op to
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        return hist.estimateSelectivity(op, stringToInt(s));
+    }
+
+    /** @see IntHistogram#bucketFraction */
+    public double bucketFraction(String s) {
+        return hist.bucketFraction(stringToInt(s));
+    }
+
+    /** @return how many distinct four-character prefixes the bucket of s covers */
+    public long bucketWidth(String s) {
+        return hist.bucketWidth(stringToInt(s));
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     *
+     *         This is not an indispensable method to implement the basic join
+     *         optimization. It may be needed if you want to implement a more
+     *         efficient optimization
+     * */
+    public double avgSelectivity() {
+        return hist.avgSelectivity();
+    }
+
+    public void write(DataOutput out) throws IOException {
+        hist.write(out);
+    }
+
+    public static StringHistogram read(DataInput in) throws IOException {
+        return new StringHistogram(IntHistogram.read(in));
+    }
+
+    public String toString() {
+        return hist.toString();
+    }
+}
@@ -0,0 +1,539 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a
+ * query, gathered in one sampling scan: the number of pages and tuples, and
+ * for each field a histogram and a {@link HyperLogLog} sketch of its
+ * distinct values. They give the selectivity estimates a planner needs to
+ * order joins and choose access paths.
+ * <p>
+ * Tables of up to {@link #MAX_SAMPLE_PAGES} pages are read in full. Larger
+ * HeapFiles are sampled: that many pages are read, chosen at random, and
+ * the tuple count is scaled up from them. A field whose sample is nearly
+ * all distinct is taken to be unique and its distinct count scaled up too;
+ * otherwise the sample's distinct count stands.
+ * <p>
+ * Each field's values are also reservoir sampled. The values that make up
+ * a large share of the sample are kept, with their shares, as the field's
+ * most common values; the rest of the sample goes into an equi-width
+ * histogram. Skewed fields, where one value fills most of its bucket, are
+ * then estimated correctly.
+ * <p>
+ * Statistics are kept by the {@link Catalog} and saved next to the table's
+ * data file (see {@link #fileFor}).
+ */
+public class TableStats {
+
+    /** Cost of reading one page from disk, in the units of {@link #estimateScanCost}. */
+    public static final int IOCOSTPERPAGE = 1000;
+
+    /**
+     * Number of bins for the histogram. Feel free to increase this value over
+     * 100, though our tests assume that you have at least 100 bins in your
+     * histograms.
+     */
+    public static final int NUM_HIST_BINS = 100;
+
+    /** Tables with more pages than this are sampled. */
+    public static final int MAX_SAMPLE_PAGES = 1024;
+
+    /** Values per field kept to build its histogram. */
+    static final int RESERVOIR_SIZE = 20000;
+
+    /** Most common values kept per field. */
+    static final int MAX_COMMON_VALUES = 16;
+
+    /** Guess for the selectivity of LIKE, which histograms cannot answer. */
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    /** Guess for the selectivity of a range predicate on an unknown value. */
+    static final double RANGE_SELECTIVITY = 1.0 / 3;
+
+    private static final int MAGIC = 0x53544154;
+
+    private final TupleDesc td;
+    private final int pageSize;
+    private int numPages;
+    private long numTuples;
+    private final long[] distinct;
+    private final IntHistogram[] intHists;
+    private final StringHistogram[] stringHists;
+    private final HyperLogLog[] sketches;
+    // per field: most common values, their shares of the table, and the
+    // share of the table left to the histogram
+    private final Field[][] commonValues;
+    private final double[][] commonFractions;
+    private final double[] histFraction;
+
+    private TableStats(TupleDesc td, int pageSize) {
+        this.td = td;
+        this.pageSize = pageSize;
+        int n = td.numFields();
+        this.distinct = new long[n];
+        this.intHists = new IntHistogram[n];
+        this.stringHists = new StringHistogram[n];
+        this.sketches = new HyperLogLog[n];
+        this.commonValues = new Field[n][0];
+        this.commonFractions = new double[n][0];
+        this.histFraction = new double[n];
+    }
+
+    /** @return the statistics file that goes with a data file */
+    public static File fileFor(File dataFile) {
+        String path = dataFile.getPath();
+        if (path.endsWith(".dat")) {
+            path = path.substring(0, path.length() - ".dat".length());
+        }
+        return new File(path + ".stats");
+    }
+
+    /** Collects values for the histograms and sketches during the scan. */
+    private static class Collector {
+        final TupleDesc td;
+        final HyperLogLog[] sketches;
+        final int[] min;
+        final int[] max;
+        final int[][] intSample;
+        final String[][] stringSample;
+        final Random random;
+        long seen;
+
+        Collector(TupleDesc td, long seed) {
+            this.td = td;
+            int n = td.numFields();
+            this.sketches = new HyperLogLog[n];
+            this.min = new int[n];
+            this.max = new int[n];
+            this.intSample = new int[n][];
+            this.stringSample = new String[n][];
+            for (int f = 0; f < n; f++) {
+                sketches[f] = new HyperLogLog();
+                min[f] = Integer.MAX_VALUE;
+                max[f] = Integer.MIN_VALUE;
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    intSample[f] = new int[RESERVOIR_SIZE];
+                } else {
+                    stringSample[f] = new String[RESERVOIR_SIZE];
+                }
+            }
+            this.random = new Random(seed);
+        }
+
+        void add(Tuple t) {
+            // one reservoir slot per tuple, shared by all fields
+            int slot;
+            if (seen < RESERVOIR_SIZE) {
+                slot = (int) seen;
+            } else {
+                long r = (long) (random.nextDouble() * (seen + 1));
+                slot = r < RESERVOIR_SIZE ? (int) r : -1;
+            }
+            seen++;
+            for (int f = 0; f < sketches.length; f++) {
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    int v = t.getInt(f);
+                    sketches[f].add(v);
+                    min[f] = Math.min(min[f], v);
+                    max[f] = Math.max(max[f], v);
+                    if (slot >= 0) {
+                        intSample[f][slot] = v;
+                    }
+                } else {
+                    Field v = t.getField(f);
+                    sketches[f].add(v);
+                    if (slot >= 0) {
+                        stringSample[f][slot] = ((StringField) v).getValue();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the statistics of a table with one scan. HeapFile pages are
+     * read straight from the file, so the scan does not flush the buffer
+     * pool; other files are scanned through their iterator.
+     */
+    public static TableStats compute(DbFile file) throws DbException, TransactionAbortedException {
+        TupleDesc td = file.getTupleDesc();
+        TableStats stats = new TableStats(td, BufferPool.getPageSize());
+        Collector c = new Collector(td, file.getId());
+        if (file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) file;
+            int pages = hf.numPages();
+            int[] sample = samplePages(pages, c.random);
+            for (int p : sample) {
+                HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), p));
+                if (page == null) {
+                    throw new DbException("cannot read page " + p + " of " + hf.getFile());
+                }
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    c.add(it.next());
+                }
+            }
+            stats.numPages = pages;
+            stats.numTuples = sample.length == pages ? c.seen
+                    : Math.round((double) c.seen * pages / sample.length);
+        } else {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                c.add(it.next());
+            }
+            it.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                throw new DbException("cannot finish statistics scan: " + e.getMessage());
+            }
+            stats.numPages = numPages(file);
+            stats.numTuples = c.seen;
+        }
+        stats.summarize(c);
+        return stats;
+    }
+
+    /** @return the pages to read, in file order: all of them, or a random subset */
+    private static int[] samplePages(int pages, Random random) {
+        if (pages <= MAX_SAMPLE_PAGES) {
+            int[] all = new int[pages];
+            for (int i = 0; i < pages; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        // Floyd's algorithm: MAX_SAMPLE_PAGES distinct pages
+        HashSet<Integer> chosen = new HashSet<Integer>();
+        for (int j = pages - MAX_SAMPLE_PAGES; j < pages; j++) {
+            int t = random.nextInt(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+        int[] sample = new int[chosen.size()];
+        int i = 0;
+        for (int p : chosen) {
+            sample[i++] = p;
+        }
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    private static int numPages(DbFile file) {
+        if (file instanceof BTreeFile) {
+            return ((BTreeFile) file).numPages();
+        }
+        return 0;
+    }
+
+    private void summarize(Collector c) {
+        int kept = (int) Math.min(c.seen, RESERVOIR_SIZE);
+        for (int f = 0; f < td.numFields(); f++) {
+            sketches[f] = c.sketches[f];
+            long d = Math.min(c.sketches[f].estimate(), c.seen);
+            if (c.seen > 0 && c.seen < numTuples && d >= 0.9 * c.seen) {
+                d = Math.round((double) d * numTuples / c.seen);
+            }
+            distinct[f] = Math.min(numTuples, Math.max(d, c.seen > 0 ? 1 : 0));
+            if (c.seen == 0) {
+                continue;
+            }
+            Field[] sample = new Field[kept];
+            for (int i = 0; i < kept; i++) {
+                sample[i] = td.getFieldType(f) == Type.INT_TYPE ? new IntField(c.intSample[f][i])
+                        : new StringField(c.stringSample[f][i], Type.STRING_LEN);
+            }
+            HashSet<Field> common = findCommonValues(f, sample);
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                IntHistogram h = new IntHistogram(NUM_HIST_BINS, c.min[f], c.max[f]);
+                for (Field v : sample) {
+                    if (!common.contains(v)) {
+                        h.addValue(((IntField) v).getValue());
+                    }
+                }
+                intHists[f] = h;
+            } else {
+                StringHistogram h = new StringHistogram(NUM_HIST_BINS);
+                for (Field v : sample) {
+                    if (!common.contains(v)) {
+                        h.addValue(((StringField) v).getValue());
+                    }
+                }
+                stringHists[f] = h;
+            }
+        }
+    }
+
+    /**
+     * Picks the values that hold at least a bucket's share of the sample,
+     * most frequent first, and records their shares.
+     *
+     * @return the values picked
+     */
+    private HashSet<Field> findCommonValues(int f, Field[] sample) {
+        final HashMap<Field, Integer> counts = new HashMap<Field, Integer>();
+        for (Field v : sample) {
+            Integer n = counts.get(v);
+            counts.put(v, n == null ? 1 : n + 1);
+        }
+        int threshold = Math.max(2, sample.length / NUM_HIST_BINS);
+        ArrayList<Field> candidates = new ArrayList<Field>();
+        for (Map.Entry<Field, Integer> e : counts.entrySet()) {
+            if (e.getValue() >= threshold) {
+                candidates.add(e.getKey());
+            }
+        }
+        Collections.sort(candidates, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                return counts.get(b) - counts.get(a);
+            }
+        });
+        int n = Math.min(MAX_COMMON_VALUES, candidates.size());
+        commonValues[f] = new Field[n];
+        commonFractions[f] = new double[n];
+        double rest = 1;
+        for (int i = 0; i < n; i++) {
+            commonValues[f][i] = candidates.get(i);
+            commonFractions[f][i] = (double) counts.get(candidates.get(i)) / sample.length;
+            rest -= commonFractions[f][i];
+        }
+        histFraction[f] = Math.max(0, rest);
+        return new HashSet<Field>(candidates.subList(0, n));
+    }
+
+    /** @return the number of pages in the table */
+    public int numPages() {
+        return numPages;
+    }
+
+    /** @return the page size the statistics were gathered with */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the file, given that the
+     * cost to read a page is IOCOSTPERPAGE. Seeks are ignored: the file is
+     * assumed to be read in one sequential pass.
+     *
+     * @return The estimated cost of scanning the table.
+     */
+    public double estimateScanCost() {
+        return (double) numPages * IOCOSTPERPAGE;
+    }
+
+    /**
+     * This method returns the number of tuples in the relation, given that a
+     * predicate with selectivity selectivityFactor is applied.
+     *
+     * @param selectivityFactor
+     *            The selectivity of any predicates over the table
+     * @return The estimated cardinality of the scan with the specified
+     *         selectivityFactor
+     */
+    public long estimateTableCardinality(double selectivityFactor) {
+        return Math.round(numTuples * selectivityFactor);
+    }
+
+    /** return the total number tuples in this table */
+    public long totalTuples() {
+        return numTuples;
+    }
+
+    /** @return the estimated number of distinct values of a field */
+    public long estimateDistinct(int field) {
+        return distinct[field];
+    }
+
+    /**
+     * The average selectivity of the field under op.
+     * @param field
+     *        the index of the field
+     * @param op
+     *        the operator in the predicate
+     * The semantic of the method is that, given the table, and then given a
+     * tuple, of which we do not know the value of the field, return the
+     * expected selectivity. You may estimate this value from the histograms.
+     * */
+    public double avgSelectivity(int field, Predicate.Op op) {
+        double eq = distinct[field] == 0 ? 0 : 1.0 / distinct[field];
+        switch (op) {
+        case EQUALS:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        case LIKE:
+            return LIKE_SELECTIVITY;
+        default:
+            return RANGE_SELECTIVITY;
+        }
+    }
+
+    /**
+     * Estimate the selectivity of predicate <tt>field op constant</tt> on the
+     * table.
+     *
+     * @param field
+     *            The field over which the predicate ranges
+     * @param op
+     *            The logical operation in the predicate
+     * @param constant
+     *            The value against which the field is compared
+     * @return The estimated selectivity (fraction of tuples that satisfy) the
+     *         predicate
+     */
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (numTuples == 0) {
+            return 0;
+        }
+        if (op == Predicate.Op.LIKE) {
+            return LIKE_SELECTIVITY;
+        }
+        double common = 0;
+        for (int i = 0; i < commonValues[field].length; i++) {
+            if (commonValues[field][i].compare(op, constant)) {
+                common += commonFractions[field][i];
+            }
+        }
+        if (op == Predicate.Op.EQUALS) {
+            return common > 0 ? common : histFraction[field] * equalitySelectivity(field, constant);
+        }
+        if (op == Predicate.Op.NOT_EQUALS) {
+            return common + histFraction[field] * (1 - equalitySelectivity(field, constant));
+        }
+        double rest;
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            rest = intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        } else {
+            rest = stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        }
+        return common + histFraction[field] * rest;
+    }
+
+    /**
+     * Estimates the share of the histogram's values equal to constant. The
+     * histogram gives the share of its values in the constant's bucket; the
+     * distinct values left to the histogram say how many values that share
+     * is split between.
+     */
+    private double equalitySelectivity(int field, Field constant) {
+        double fraction;
+        long width;
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            int v = ((IntField) constant).getValue();
+            fraction = intHists[field].bucketFraction(v);
+            width = intHists[field].bucketWidth(v);
+        } else {
+            String v = ((StringField) constant).getValue();
+            fraction = stringHists[field].bucketFraction(v);
+            width = stringHists[field].bucketWidth(v);
+        }
+        if (fraction == 0) {
+            return 0;
+        }
+        long rest = Math.max(1, distinct[field] - commonValues[field].length);
+        double values = Math.max(1, Math.min(width, rest * fraction));
+        return fraction / values;
+    }
+
+    /** @see #estimateSelectivity(int, Predicate.Op, Field) */
+    public double estimateSelectivity(Predicate p) {
+        return estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+    }
+
+    /**
+     * @return the estimated selectivity of a conjunction of predicates,
+     *         taking them to be independent
+     */
+    public double estimateSelectivity(List<Predicate> predicates) {
+        double s = 1;
+        for (Predicate p : predicates) {
+            s *= estimateSelectivity(p);
+        }
+        return s;
+    }
+
+    /** Writes the statistics to f, replacing its contents. */
+    public void write(File f) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pageSize);
+            out.writeInt(td.numFields());
+            out.writeInt(numPages);
+            out.writeLong(numTuples);
+            for (int i = 0; i < td.numFields(); i++) {
+                out.writeInt(td.getFieldType(i).ordinal());
+                out.writeLong(distinct[i]);
+                boolean hasHist = intHists[i] != null || stringHists[i] != null;
+                out.writeBoolean(hasHist);
+                if (intHists[i] != null) {
+                    intHists[i].write(out);
+                } else if (stringHists[i] != null) {
+                    stringHists[i].write(out);
+                }
+                sketches[i].write(out);
+                out.writeInt(commonValues[i].length);
+                for (int j = 0; j < commonValues[i].length; j++) {
+                    commonValues[i][j].serialize(out);
+                    out.writeDouble(commonFractions[i][j]);
+                }
+                out.writeDouble(histFraction[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the statistics stored in f.
+     *
+     * @return the statistics, or null if f is missing or does not hold
+     *         statistics of a table with this schema and page size
+     */
+    public static TableStats read(File f, TupleDesc td, int pageSize) {
+        if (!f.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readInt() != pageSize || in.readInt() != td.numFields()) {
+                return null;
+            }
+            TableStats stats = new TableStats(td, pageSize);
+            stats.numPages = in.readInt();
+            stats.numTuples = in.readLong();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (in.readInt() != td.getFieldType(i).ordinal()) {
+                    return null;
+                }
+                stats.distinct[i] = in.readLong();
+                if (in.readBoolean()) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        stats.intHists[i] = IntHistogram.read(in);
+                    } else {
+                        stats.stringHists[i] = StringHistogram.read(in);
+                    }
+                }
+                stats.sketches[i] = HyperLogLog.read(in);
+                int n = in.readInt();
+                if (n < 0 || n > MAX_COMMON_VALUES) {
+                    return null;
+                }
+                stats.commonValues[i] = new Field[n];
+                stats.commonFractions[i] = new double[n];
+                for (int j = 0; j < n; j++) {
+                    stats.commonValues[i][j] = td.getFieldType(i).parse(in);
+                    stats.commonFractions[i][j] = in.readDouble();
+                }
+                stats.histFraction[i] = in.readDouble();
+            }
+            return stats;
+        } catch (IOException e) {
+            return null;
+        } catch (java.text.ParseException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -18,7 +20,17 @@ public class Tuple implements Serializable {
     
     private TupleDesc schema; 
     private RecordId recID; 
-    private  ArrayList<Field> field_values;     
+    private final Field[] field_values;
+
+    /*
+     * Tuples read from a page are views over the page image: a field is only
+     * turned into a Field object the first time it is asked for, and getInt
+     * reads integers without creating one at all.
+     */
+    private transient ByteBuffer slab;
+    private transient int slabOffset;
+    private transient TupleDesc slabLayout;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -29,11 +41,19 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         this.schema= td; 
         this.recID = null; 
-        this.field_values = new ArrayList<Field>();
-        
-        for (int i = 0; i < td.numFields(); ++i) {
-        	this.field_values.add(null); 
-        }
+        this.field_values = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are stored in slab, in the serialized
+     * format, starting at offset. Fields that are set later override the
+     * stored ones. The bytes must not change while the tuple is in use.
+     */
+    Tuple(TupleDesc td, ByteBuffer slab, int offset) {
+        this(td);
+        this.slab = slab;
+        this.slabOffset = offset;
+        this.slabLayout = td;
     }
 
     /**
@@ -70,7 +90,7 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-    	field_values.set(i, f); 
+    	field_values[i] = f; 
     }
 
     /**
@@ -81,14 +101,42 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        if (i< field_values.size() && i >= 0) {
-        	return field_values.get(i); 
+        if (i< field_values.length && i >= 0) {
+        	Field f = field_values[i];
+        	if (f == null && slab != null) {
+        		// fields are immutable, so a racing decode is harmless
+        		f = slabLayout.getFieldType(i).parse(slab, slabOffset + slabLayout.getFieldOffset(i));
+        		field_values[i] = f;
+        	}
+        	return f;
         }else {
         	return null;
         }
     	
     }
 
+    /**
+     * @return true if the ith field has a value, i.e. getField(i) would not
+     *         return null. Does not decode the field.
+     */
+    public boolean hasField(int i) {
+        return i < field_values.length && i >= 0
+                && (slab != null || field_values[i] != null);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set. Avoids creating an IntField for values that
+     *         are still in the page image.
+     */
+    public int getInt(int i) {
+        Field f = field_values[i];
+        if (f == null && slab != null) {
+            return slab.getInt(slabOffset + slabLayout.getFieldOffset(i));
+        }
+        return ((IntField) f).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -101,12 +149,12 @@ public class Tuple implements Serializable {
     	String strDescribe = ""; 
     	String end; 
     	
-    	for (int i = 0; i< field_values.size(); ++i ) {
+    	for (int i = 0; i< field_values.length; ++i ) {
     		end = "\t";
-    		if (i == field_values.size() -1) {
+    		if (i == field_values.length -1) {
     			end = "\n";
     		}
-    		strDescribe += (field_values.get(i))+end; 
+    		strDescribe += getField(i)+end; 
     	}
 
         return strDescribe;
@@ -119,7 +167,22 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-    	return field_values.iterator();
+    	materialize();
+    	return Arrays.asList(field_values).iterator();
+    }
+
+    /** Decodes every field still held in the page image. */
+    private void materialize() {
+        if (slab != null) {
+            for (int i = 0; i < field_values.length; i++) {
+                getField(i);
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
     }
 
     /**
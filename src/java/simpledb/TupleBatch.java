@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A block of up to capacity() tuples stored column by column: INT_TYPE
+ * columns as int arrays and STRING_TYPE columns as String arrays, so
+ * operators can loop over primitive values without creating a Tuple or a
+ * Field per row.
+ * <p>
+ * A selection vector lists the rows that are still live, in order. Filters
+ * narrow it with {@link #select} instead of moving data, so consumers should
+ * visit rows as
+ * <pre>
+ *   for (int k = 0; k &lt; batch.selectedCount(); k++) {
+ *       int row = batch.selected(k);
+ *       ...
+ *   }
+ * </pre>
+ * Batches are reused by their producers; a batch returned by
+ * {@link BatchIterator#nextBatch} is only valid until the next call.
+ */
+public class TupleBatch {
+
+    /** Default number of rows per batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private final RecordId[] rids;
+    private final int[] selection;
+    private int size;
+    private int selectedCount;
+
+    /**
+     * @param td the schema of the rows; only INT_TYPE and STRING_TYPE
+     *            fields are supported
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("batch capacity must be positive");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else if (td.getFieldType(i) == Type.STRING_TYPE) {
+                strings[i] = new String[capacity];
+            } else {
+                throw new IllegalArgumentException("unsupported type " + td.getFieldType(i));
+            }
+        }
+        this.rids = new RecordId[capacity];
+        this.selection = new int[capacity];
+        clear();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows, selected or not. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        size = 0;
+        selectedCount = 0;
+    }
+
+    /**
+     * Appends an empty, selected row. Its fields must be set before the row
+     * is read.
+     *
+     * @param rid the RecordId of the row, or null
+     * @return the index of the new row
+     */
+    public int addRow(RecordId rid) {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        rids[size] = rid;
+        selection[selectedCount++] = size;
+        return size++;
+    }
+
+    /**
+     * Appends a row holding the fields of t, which must have this batch's
+     * types and no unset INT_TYPE fields.
+     *
+     * @return the index of the new row
+     */
+    public int addTuple(Tuple t) {
+        int row = addRow(t.getRecordId());
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][row] = t.getInt(i);
+            } else {
+                Field f = t.getField(i);
+                strings[i][row] = f == null ? null : ((StringField) f).getValue();
+            }
+        }
+        return row;
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    public void setString(int col, int row, String value) {
+        strings[col][row] = value;
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return strings[col][row];
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by row; only the
+     *         first size() entries are meaningful
+     */
+    public int[] intColumn(int col) {
+        if (ints[col] == null) {
+            throw new NoSuchElementException("column " + col + " is not an int column");
+        }
+        return ints[col];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE column, indexed by row; only the
+     *         first size() entries are meaningful
+     */
+    public String[] stringColumn(int col) {
+        if (strings[col] == null) {
+            throw new NoSuchElementException("column " + col + " is not a string column");
+        }
+        return strings[col];
+    }
+
+    /** @return the value at (col, row) as a Field, or null if it is unset. */
+    public Field getField(int col, int row) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][row]);
+        }
+        String s = strings[col][row];
+        return s == null ? null : new StringField(s, Type.STRING_LEN);
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /** @return a new Tuple holding the fields of a row. */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(i, row));
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /** @return the number of selected rows. */
+    public int selectedCount() {
+        return selectedCount;
+    }
+
+    /** @return the index of the kth selected row. */
+    public int selected(int k) {
+        return selection[k];
+    }
+
+    /**
+     * Keeps only the selected rows that satisfy p, in one pass over the
+     * predicate's column.
+     *
+     * @param p a predicate on a field of this batch's TupleDesc
+     */
+    public void select(Predicate p) {
+        int col = p.getField();
+        Predicate.Op op = p.getOp();
+        int kept = 0;
+        if (ints[col] != null) {
+            int[] values = ints[col];
+            int operand = ((IntField) p.getOperand()).getValue();
+            for (int k = 0; k < selectedCount; k++) {
+                int row = selection[k];
+                if (IntField.compare(op, values[row], operand)) {
+                    selection[kept++] = row;
+                }
+            }
+        } else {
+            String[] values = strings[col];
+            Field operand = p.getOperand();
+            for (int k = 0; k < selectedCount; k++) {
+                int row = selection[k];
+                if (values[row] != null
+                        && new StringField(values[row], Type.STRING_LEN).compare(op, operand)) {
+                    selection[kept++] = row;
+                }
+            }
+        }
+        selectedCount = kept;
+    }
+}
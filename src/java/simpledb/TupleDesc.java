@@ -35,7 +35,15 @@ public class TupleDesc implements Serializable {
         }
     }
 
-    private final ArrayList<TDItem> tupleDescriptor; 
+    /*
+     * A TupleDesc never changes after construction, so everything derived
+     * from the items is computed once here rather than on every call.
+     */
+    private final TDItem[] tupleDescriptor; 
+    private final int size;
+    private final int[] fieldOffsets;
+    private final HashMap<String, Integer> nameToIndex;
+    private final int hash;
     
     /**
      * @return
@@ -43,7 +51,7 @@ public class TupleDesc implements Serializable {
      *        that are included in this TupleDesc
      * */
     public Iterator<TDItem> iterator() {
-        return tupleDescriptor.iterator(); 
+        return Collections.unmodifiableList(Arrays.asList(tupleDescriptor)).iterator(); 
     	}
 
     
@@ -61,11 +69,7 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // some code goes here
-    	this.tupleDescriptor = new ArrayList<TDItem>(); 
-    	for (int i =0; typeAr.length > i && fieldAr.length > i; ++i) {
-    		this.tupleDescriptor.add(new TDItem(typeAr[i],fieldAr[i]));
-    	}
+        this(items(typeAr, fieldAr));
     }
 
     /**
@@ -77,17 +81,41 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-    	this.tupleDescriptor = new ArrayList<TDItem>(); 
-    	for (int i =0; typeAr.length > i; ++i) {
-    		this.tupleDescriptor.add(new TDItem(typeAr[i], ""));
-    	}
+        this(items(typeAr, null));
+    }
+
+    private static TDItem[] items(Type[] typeAr, String[] fieldAr) {
+        int n = fieldAr == null ? typeAr.length : Math.min(typeAr.length, fieldAr.length);
+        TDItem[] items = new TDItem[n];
+        for (int i = 0; i < n; ++i) {
+            items[i] = new TDItem(typeAr[i], fieldAr == null ? "" : fieldAr[i]);
+        }
+        return items;
+    }
+
+    private TupleDesc(TDItem[] items) {
+        this.tupleDescriptor = items;
+        this.fieldOffsets = new int[items.length];
+        this.nameToIndex = new HashMap<String, Integer>();
+        int offset = 0;
+        int h = 1;
+        for (int i = 0; i < items.length; ++i) {
+            fieldOffsets[i] = offset;
+            offset += items[i].fieldType.getLen();
+            if (items[i].fieldName != null && !nameToIndex.containsKey(items[i].fieldName)) {
+                nameToIndex.put(items[i].fieldName, i);
+            }
+            h = 31 * h + items[i].fieldType.ordinal();
+        }
+        this.size = offset;
+        this.hash = h;
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-    	return this.tupleDescriptor.size(); 
+    	return this.tupleDescriptor.length; 
     }
 
     /**
@@ -101,8 +129,8 @@ public class TupleDesc implements Serializable {
      */
     public String getFieldName(int i) throws NoSuchElementException {
         // some code goes here
-    	if (i< this.tupleDescriptor.size() && i>=0) {
-    		return this.tupleDescriptor.get(i).fieldName; 
+    	if (i< this.tupleDescriptor.length && i>=0) {
+    		return this.tupleDescriptor[i].fieldName; 
     	}else {
     		throw new NoSuchElementException();
     	}
@@ -119,8 +147,25 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-    	if (i < this.tupleDescriptor.size() && i>=0) {
-    		return this.tupleDescriptor.get(i).fieldType; 
+    	if (i < this.tupleDescriptor.length && i>=0) {
+    		return this.tupleDescriptor[i].fieldType; 
+    	}else {
+    		throw new NoSuchElementException();
+    	}
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the sum of the lengths of the fields before field i
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	if (i < this.fieldOffsets.length && i>=0) {
+    		return this.fieldOffsets[i]; 
     	}else {
     		throw new NoSuchElementException();
     	}
@@ -136,13 +181,12 @@ public class TupleDesc implements Serializable {
      *             if no field with a matching name is found.
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
-        	for (int i =0; this.tupleDescriptor.size() > i; ++i) {
-        		if (this.tupleDescriptor.get(i).fieldName.equals(name)) {
-        			return i;
-        		}
-        	}
+    	Integer i = name == null ? null : nameToIndex.get(name);
+    	if (i == null) {
     		throw new NoSuchElementException();
     	}
+    	return i;
+    	}
    
 
     /**
@@ -150,11 +194,28 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-    	int size_TupleDesc = 0;
-    	for (int i =0; this.tupleDescriptor.size() > i; ++i) {
-    		size_TupleDesc+= this.tupleDescriptor.get(i).fieldType.getLen();
+    	return size; 
+    }
+
+    /**
+     * Create a TupleDesc holding only some of this TupleDesc's fields.
+     * 
+     * @param fields
+     *            the indexes of the fields to keep, in the order they should
+     *            appear in the result; each must be a valid index
+     * @return the new TupleDesc
+     * @throws NoSuchElementException
+     *             if an index is not a valid field reference.
+     */
+    public TupleDesc project(int[] fields) throws NoSuchElementException {
+    	TDItem[] items = new TDItem[fields.length];
+    	for (int i = 0; i < fields.length; ++i) {
+    		if (fields[i] < 0 || fields[i] >= tupleDescriptor.length) {
+    			throw new NoSuchElementException();
+    		}
+    		items[i] = tupleDescriptor[fields[i]];
     	}
-    	return size_TupleDesc; 
+    	return new TupleDesc(items);
     }
 
     /**
@@ -168,24 +229,31 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-    	int size_of_both = td1.numFields()+td2.numFields(); 
-    	Type[] typeAr = new Type[size_of_both];
-    	String[] fieldAr = new String[size_of_both];
-    	
-    	for (int i = 0; i< td1.numFields(); ++i ) {
-    		typeAr[i] = td1.tupleDescriptor.get(i).fieldType; 
-    		fieldAr[i] = td1.tupleDescriptor.get(i).fieldName; 
-
-    	}
-    	
-    	for (int i = td1.numFields(); i< size_of_both; ++i ) {
-    		typeAr[i] = td2.tupleDescriptor.get(i-td1.numFields()).fieldType; 
-    		fieldAr[i] = td2.tupleDescriptor.get(i-td1.numFields()).fieldName; 
+    	TDItem[] items = new TDItem[td1.numFields() + td2.numFields()];
+    	System.arraycopy(td1.tupleDescriptor, 0, items, 0, td1.numFields());
+    	System.arraycopy(td2.tupleDescriptor, 0, items, td1.numFields(), td2.numFields());
+    	return new TupleDesc(items); 
+    }
 
+    /**
+     * Create a TupleDesc with the same types as td, and field names prefixed
+     * with alias, as in "alias.name". This is how scans of a table name the
+     * fields they return.
+     * 
+     * @param td
+     *            the TupleDesc to rename
+     * @param alias
+     *            the table alias to prefix the field names with
+     * @return the new TupleDesc
+     */
+    public static TupleDesc withAlias(TupleDesc td, String alias) {
+    	Type[] types = new Type[td.numFields()];
+    	String[] names = new String[td.numFields()];
+    	for (int i = 0; i < td.numFields(); i++) {
+    		types[i] = td.getFieldType(i);
+    		names[i] = alias + "." + td.getFieldName(i);
     	}
-    		
-
-    	return new TupleDesc(typeAr,fieldAr ); 
+    	return new TupleDesc(types, names);
     }
     
 
@@ -201,30 +269,22 @@ public class TupleDesc implements Serializable {
      */
 
     public boolean equals(Object o) {
-
-    	if (o instanceof TupleDesc) {
-    		TupleDesc otherTupleDesc = (TupleDesc) o; 
-    		if (otherTupleDesc.numFields() != this.numFields()) {
+    	if (this == o) {
+    		return true;
+    	}
+    	if (!(o instanceof TupleDesc)) {
+    		return false;
+    	}
+    	TupleDesc other = (TupleDesc) o;
+    	if (other.hash != hash || other.numFields() != numFields()) {
+    		return false;
+    	}
+    	for (int i = 0; i < numFields(); ++i) {
+    		if (tupleDescriptor[i].fieldType != other.tupleDescriptor[i].fieldType) {
     			return false;
     		}
-    		else {
-    			String originalName; 
-    			String otherName;
-    			for (int i = 0; i< this.numFields(); ++i ) {
-    				originalName = this.tupleDescriptor.get(i).fieldName; 
-    				otherName = otherTupleDesc.tupleDescriptor.get(i).fieldName; 
-    				if (!originalName.equals(otherName)) {
-    					return false; 
-    				}
-    				
-    			}
-    			return true; 
-    		}
-    		
-    	}else {
-    		return false; 
     	}
-    	
+    	return true;
     }
 
     /**
@@ -242,7 +302,7 @@ public class TupleDesc implements Serializable {
     		if (i == this.numFields() -1) {
     			end = "";
     		}
-    		strDescribe += this.tupleDescriptor.get(i).fieldType+"("+this.tupleDescriptor.get(i).fieldName + ")"+end; 
+    		strDescribe += this.tupleDescriptor[i].fieldType+"("+this.tupleDescriptor[i].fieldName + ")"+end; 
     	}
     	
         return strDescribe;
@@ -251,10 +311,8 @@ public class TupleDesc implements Serializable {
     
     
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-    	return toString().hashCode();
- 
+        // computed from the field types only, like equals
+    	return hash;
     }
 
     
@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * Presents an OpIterator as a BatchIterator by copying its tuples into
+ * batches, so batch operators can run on top of any tuple operator.
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the operator to read tuples from
+     * @param batchSize the maximum number of rows per batch
+     */
+    public TupleToBatchIterator(OpIterator child, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public TupleToBatchIterator(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("iterator is not open");
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Committed page versions for snapshot transactions.
+ * <p>
+ * Every commit that writes pages is given a timestamp, and a snapshot
+ * transaction sees the database as of the last commit before it began. The
+ * committed image of a page that is in the BufferPool is its before image
+ * (see {@link Page#getBeforeImage}); this class remembers, per page, the
+ * timestamp of that image and the older images that running snapshots may
+ * still need. Older images are kept only while a snapshot that began before
+ * they were replaced is running, so without snapshots nothing is retained.
+ * <p>
+ * Versions are kept here rather than in the pages because the pool may
+ * evict a page while a snapshot still needs one of its old images.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+
+    /** An image of a page that was current from ts until the next commit of the page. */
+    private static final class Version {
+        final long ts;
+        final Page image;
+        Version older;
+
+        Version(long ts, Page image, Version older) {
+            this.ts = ts;
+            this.image = image;
+            this.older = older;
+        }
+    }
+
+    /** The timestamp of a page's committed image and its retained older images. */
+    private static final class PageVersions {
+        long current;
+        Version older;
+    }
+
+    /** The timestamp of the last commit whose pages are all in place; guarded by this. */
+    private long clock;
+
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<TransactionId, Long>();
+
+    /** Guarded by this. */
+    private final HashMap<PageId, PageVersions> versions = new HashMap<PageId, PageVersions>();
+
+    /** Starts a snapshot for tid as of the last commit. */
+    synchronized void begin(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    /** @return true if tid is a running snapshot transaction */
+    boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /** @return true if any snapshot transaction is running */
+    boolean hasSnapshots() {
+        return !snapshots.isEmpty();
+    }
+
+    /** Ends tid's snapshot, dropping the images only it needed. */
+    synchronized void end(TransactionId tid) {
+        if (snapshots.remove(tid) == null) {
+            return;
+        }
+        if (snapshots.isEmpty()) {
+            versions.clear();
+            return;
+        }
+        Iterator<PageVersions> it = versions.values().iterator();
+        while (it.hasNext()) {
+            PageVersions pv = it.next();
+            long until = pv.current;
+            Version newer = null;
+            for (Version v = pv.older; v != null; v = v.older) {
+                if (needed(v.ts, until)) {
+                    newer = v;
+                } else if (newer == null) {
+                    pv.older = v.older;
+                } else {
+                    newer.older = v.older;
+                }
+                until = v.ts;
+            }
+            if (pv.older == null) {
+                it.remove();
+            }
+        }
+    }
+
+    /** @return true if some snapshot sees an image current from ts until until */
+    private boolean needed(long ts, long until) {
+        for (long s : snapshots.values()) {
+            if (ts <= s && s < until) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the timestamp of the commit about to be applied */
+    synchronized long nextCommit() {
+        return clock + 1;
+    }
+
+    /**
+     * Records that a commit with timestamp ts is replacing the committed
+     * image of page. Must be called before the page's before image is reset.
+     */
+    synchronized void replaced(Page page, long ts) {
+        PageId pid = page.getId();
+        if (snapshots.isEmpty()) {
+            // every later snapshot sees this commit
+            versions.remove(pid);
+            return;
+        }
+        PageVersions pv = versions.get(pid);
+        if (pv == null) {
+            pv = new PageVersions();
+            versions.put(pid, pv);
+        }
+        pv.older = new Version(pv.current, page.getBeforeImage(), pv.older);
+        pv.current = ts;
+    }
+
+    /** Makes the commit with timestamp ts visible to snapshots that begin later. */
+    synchronized void publish(long ts) {
+        clock = ts;
+    }
+
+    /**
+     * @param committed the page's committed image as of now
+     * @return the image of the page that tid's snapshot sees
+     */
+    synchronized Page read(TransactionId tid, PageId pid, Page committed) {
+        Long s = snapshots.get(tid);
+        PageVersions pv = versions.get(pid);
+        if (s == null || pv == null || pv.current <= s) {
+            return committed;
+        }
+        for (Version v = pv.older; v != null; v = v.older) {
+            if (v.ts <= s) {
+                return v.image;
+            }
+        }
+        throw new IllegalStateException("no version of " + pid + " for snapshot " + s);
+    }
+
+    /** @return the number of old page images retained */
+    synchronized int retainedVersions() {
+        int n = 0;
+        for (PageVersions pv : versions.values()) {
+            for (Version v = pv.older; v != null; v = v.older) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A zone map records, for every page of a HeapFile, the smallest and largest
+ * value of each INT_TYPE field on that page. A scan with range or equality
+ * predicates on those fields can then skip pages that cannot hold a
+ * matching tuple without reading them. This pays off when a table is laid
+ * out roughly in the order of the predicate's field, as tables appended in
+ * timestamp order are.
+ * <p>
+ * The map is stored next to the data file (see {@link #fileFor}):
+ * a header of five ints (a magic number, the number of fields, the number
+ * of INT_TYPE fields, the page size and the number of pages) followed, for each page, by a
+ * min and a max per INT_TYPE field, in field order. A page with no tuples
+ * is recorded with min greater than max, so no predicate matches it.
+ *
+ * @see HeapFileEncoder
+ * @see HeapFile#getZoneMap
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5A4D4150;
+    private static final int HEADER_BYTES = 20;
+    private static final int NUM_PAGES_OFFSET = 16;
+
+    private final Type[] types;
+    private final int pageSize;
+    // index of each field among the INT_TYPE fields, or -1
+    private final int[] intColumn;
+    private final int numIntColumns;
+    // per page: min and max of each INT_TYPE field, interleaved
+    private int[] bounds;
+    private int numPages;
+    private final SideFile out = new SideFile();
+
+    /**
+     * Creates a zone map with no pages for a file of pages of pageSize bytes
+     * holding tuples of the given types.
+     */
+    public ZoneMap(Type[] types, int pageSize) {
+        this.types = types.clone();
+        this.pageSize = pageSize;
+        this.intColumn = new int[types.length];
+        int n = 0;
+        for (int i = 0; i < types.length; i++) {
+            intColumn[i] = types[i] == Type.INT_TYPE ? n++ : -1;
+        }
+        this.numIntColumns = n;
+        this.bounds = new int[Math.max(2, 16 * 2 * n)];
+        this.numPages = 0;
+    }
+
+    /** @return the zone map file that goes with a data file */
+    public static File fileFor(File dataFile) {
+        String path = dataFile.getPath();
+        if (path.endsWith(".dat")) {
+            path = path.substring(0, path.length() - ".dat".length());
+        }
+        return new File(path + ".zmap");
+    }
+
+    /** @return the size of the pages this map describes */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the number of pages recorded */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    private void ensurePage(int pageNo) {
+        int needed = (pageNo + 1) * 2 * numIntColumns;
+        if (needed > bounds.length) {
+            bounds = Arrays.copyOf(bounds, Math.max(needed, bounds.length * 2));
+        }
+        while (numPages <= pageNo) {
+            // pages skipped over have not been recorded; until they are,
+            // they might hold anything
+            setUnknown(numPages++);
+        }
+    }
+
+    private void setUnknown(int pageNo) {
+        int base = pageNo * 2 * numIntColumns;
+        for (int c = 0; c < numIntColumns; c++) {
+            bounds[base + 2 * c] = Integer.MIN_VALUE;
+            bounds[base + 2 * c + 1] = Integer.MAX_VALUE;
+        }
+    }
+
+    private void setEmpty(int pageNo) {
+        int base = pageNo * 2 * numIntColumns;
+        for (int c = 0; c < numIntColumns; c++) {
+            bounds[base + 2 * c] = Integer.MAX_VALUE;
+            bounds[base + 2 * c + 1] = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Records the range of each INT_TYPE field of a page.
+     *
+     * @param mins the smallest value of each field, indexed by field;
+     *            entries for other types are ignored
+     * @param maxs the largest value of each field, likewise
+     * @param empty true if the page has no tuples
+     */
+    public synchronized void recordPage(int pageNo, int[] mins, int[] maxs, boolean empty) {
+        ensurePage(pageNo);
+        if (empty) {
+            setEmpty(pageNo);
+            return;
+        }
+        int base = pageNo * 2 * numIntColumns;
+        for (int f = 0; f < types.length; f++) {
+            int c = intColumn[f];
+            if (c >= 0) {
+                bounds[base + 2 * c] = mins[f];
+                bounds[base + 2 * c + 1] = maxs[f];
+            }
+        }
+    }
+
+    /** Records the exact ranges of the tuples on page. */
+    public void recordPage(int pageNo, HeapPage page) {
+        int[] mins = new int[types.length];
+        int[] maxs = new int[types.length];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        boolean empty = true;
+        for (int slot = page.nextUsedSlot(0); slot >= 0; slot = page.nextUsedSlot(slot + 1)) {
+            empty = false;
+            for (int f = 0; f < types.length; f++) {
+                if (intColumn[f] >= 0) {
+                    int v = page.getInt(slot, f);
+                    mins[f] = Math.min(mins[f], v);
+                    maxs[f] = Math.max(maxs[f], v);
+                }
+            }
+        }
+        recordPage(pageNo, mins, maxs, empty);
+    }
+
+    /**
+     * Widens the ranges of a page to take in every tuple on page, keeping
+     * whatever it held before. Pages past the end of the map are added as
+     * unknown, so they might hold anything.
+     *
+     * @return true if any range changed
+     */
+    public synchronized boolean widenPage(int pageNo, HeapPage page) {
+        if (pageNo >= numPages) {
+            ensurePage(pageNo);
+            return true;
+        }
+        int base = pageNo * 2 * numIntColumns;
+        boolean changed = false;
+        for (int slot = page.nextUsedSlot(0); slot >= 0; slot = page.nextUsedSlot(slot + 1)) {
+            for (int f = 0; f < types.length; f++) {
+                int c = intColumn[f];
+                if (c >= 0) {
+                    int v = page.getInt(slot, f);
+                    if (v < bounds[base + 2 * c]) {
+                        bounds[base + 2 * c] = v;
+                        changed = true;
+                    }
+                    if (v > bounds[base + 2 * c + 1]) {
+                        bounds[base + 2 * c + 1] = v;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Widens the ranges of a page to take in a tuple added to it. Pages past
+     * the end of the map are left alone, since they might hold anything.
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        if (pageNo >= numPages) {
+            return;
+        }
+        int base = pageNo * 2 * numIntColumns;
+        for (int f = 0; f < types.length; f++) {
+            int c = intColumn[f];
+            if (c >= 0) {
+                int v = ((IntField) t.getField(f)).getValue();
+                bounds[base + 2 * c] = Math.min(bounds[base + 2 * c], v);
+                bounds[base + 2 * c + 1] = Math.max(bounds[base + 2 * c + 1], v);
+            }
+        }
+    }
+
+    /**
+     * @return the smallest value of field f on a page, or Integer.MAX_VALUE
+     *         if the page has no tuples
+     */
+    public synchronized int getMin(int pageNo, int f) {
+        return bounds[pageNo * 2 * numIntColumns + 2 * intColumn[f]];
+    }
+
+    /**
+     * @return the largest value of field f on a page, or Integer.MIN_VALUE
+     *         if the page has no tuples
+     */
+    public synchronized int getMax(int pageNo, int f) {
+        return bounds[pageNo * 2 * numIntColumns + 2 * intColumn[f] + 1];
+    }
+
+    /**
+     * @return false only if no tuple on the page can satisfy p. Pages past
+     *         the end of the map, and predicates on other types or with
+     *         LIKE, always might match.
+     */
+    public synchronized boolean mightMatch(int pageNo, Predicate p) {
+        if (pageNo >= numPages || intColumn[p.getField()] < 0) {
+            return true;
+        }
+        int base = pageNo * 2 * numIntColumns + 2 * intColumn[p.getField()];
+        int min = bounds[base];
+        int max = bounds[base + 1];
+        if (min > max) {
+            return false;
+        }
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /** @return false only if no tuple on the page can satisfy all of predicates */
+    public boolean mightMatch(int pageNo, List<Predicate> predicates) {
+        for (int i = 0; i < predicates.size(); i++) {
+            if (!mightMatch(pageNo, predicates.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the whole map to f, replacing its contents. */
+    public synchronized void write(File f) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + numPages * 2 * numIntColumns * 4);
+        buf.putInt(MAGIC).putInt(types.length).putInt(numIntColumns).putInt(pageSize).putInt(numPages);
+        buf.asIntBuffer().put(bounds, 0, numPages * 2 * numIntColumns);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(buf.array());
+        }
+    }
+
+    /**
+     * Writes the entry of one page, and the page count, to the map in f,
+     * along with the entries of any pages between the end of f and pageNo.
+     */
+    public synchronized void writePage(File f, int pageNo) throws IOException {
+        FileChannel ch = out.channel(f);
+        if (ch.size() < HEADER_BYTES) {
+            write(f);
+            return;
+        }
+        int entry = 2 * numIntColumns * 4;
+        int from = pageNo;
+        if (entry > 0) {
+            from = (int) Math.min(pageNo, Math.max(0, (ch.size() - HEADER_BYTES) / entry));
+        }
+        ByteBuffer buf = ByteBuffer.allocate((pageNo - from + 1) * entry);
+        buf.asIntBuffer().put(bounds, from * 2 * numIntColumns, (pageNo - from + 1) * 2 * numIntColumns);
+        SideFile.write(ch, buf, HEADER_BYTES + (long) from * entry);
+        SideFile.writeInt(ch, numPages, NUM_PAGES_OFFSET);
+    }
+
+    /** Releases the file handle kept by {@link #writePage}; a later write reopens it. */
+    public synchronized void close() {
+        out.close();
+    }
+
+    /**
+     * Reads the map stored in f.
+     *
+     * @return the map, or null if f is missing or does not hold a zone map
+     *         for pages of this size holding tuples of these types
+     */
+    public static ZoneMap read(File f, Type[] types, int pageSize) {
+        if (!f.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            ZoneMap map = new ZoneMap(types, pageSize);
+            if (in.readInt() != MAGIC || in.readInt() != types.length
+                    || in.readInt() != map.numIntColumns || in.readInt() != pageSize) {
+                return null;
+            }
+            int pages = in.readInt();
+            if (pages < 0 || (f.length() - HEADER_BYTES) < (long) pages * 2 * map.numIntColumns * 4) {
+                return null;
+            }
+            map.ensurePage(pages - 1);
+            for (int i = 0; i < pages * 2 * map.numIntColumns; i++) {
+                map.bounds[i] = in.readInt();
+            }
+            return map;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
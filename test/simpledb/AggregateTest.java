@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateTest extends SimpleDbTestBase {
+
+    private static final int[] DATA = {
+        1, 2,
+        1, 4,
+        1, 6,
+        3, 2,
+        3, 5,
+        5, 7,
+    };
+
+    private static final Object[] STRINGS = {
+        1, "a",
+        1, "b",
+        3, "c",
+    };
+
+    private static void check(Aggregator.Op op, int gfield, int[] expected) throws Exception {
+        Aggregate agg = new Aggregate(TestUtil.createTupleList(2, DATA), 1, gfield, op);
+        int width = gfield == Aggregator.NO_GROUPING ? 1 : 2;
+        agg.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(width, expected), agg);
+        agg.rewind();
+        int n = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            n++;
+        }
+        assertEquals(expected.length / width, n);
+        agg.close();
+    }
+
+    /**
+     * Unit test for grouped integer aggregates
+     */
+    @Test public void groupedAggregates() throws Exception {
+        check(Aggregator.Op.SUM, 0, new int[] { 1, 12, 3, 7, 5, 7 });
+        check(Aggregator.Op.MIN, 0, new int[] { 1, 2, 3, 2, 5, 7 });
+        check(Aggregator.Op.MAX, 0, new int[] { 1, 6, 3, 5, 5, 7 });
+        check(Aggregator.Op.COUNT, 0, new int[] { 1, 3, 3, 2, 5, 1 });
+        check(Aggregator.Op.AVG, 0, new int[] { 1, 4, 3, 3, 5, 7 });
+    }
+
+    /**
+     * Unit test for integer aggregates without grouping
+     */
+    @Test public void ungroupedAggregates() throws Exception {
+        check(Aggregator.Op.SUM, Aggregator.NO_GROUPING, new int[] { 26 });
+        check(Aggregator.Op.COUNT, Aggregator.NO_GROUPING, new int[] { 6 });
+        check(Aggregator.Op.AVG, Aggregator.NO_GROUPING, new int[] { 4 });
+    }
+
+    /**
+     * Unit test for COUNT over a string column
+     */
+    @Test public void stringCount() throws Exception {
+        Aggregate agg = new Aggregate(TestUtil.createTupleList(2, STRINGS), 1, 0, Aggregator.Op.COUNT);
+        agg.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 2, 3, 1 }), agg);
+        agg.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stringSumUnsupported() {
+        new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    }
+
+    /**
+     * Unit test for Aggregate.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        Aggregate agg = new Aggregate(TestUtil.createTupleList(2, DATA), 1, 0, Aggregator.Op.MAX);
+        TupleDesc td = agg.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals(Type.INT_TYPE, td.getFieldType(1));
+        assertEquals(agg.aggregateFieldName(), td.getFieldName(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 12;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 504 two-int tuples fit on a 4096 byte page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * A scan over a table larger than the pool must evict rather than fail.
+     */
+    @Test public void scanLargerThanPoolClock() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setReadAheadPages(0);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(PAGES - 4, bp.getEvictionCount());
+    }
+
+    @Test public void scanLargerThanPoolLruK() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4, new LruKEvictionPolicy(4));
+        bp.setReadAheadPages(0);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(PAGES - 4, bp.getEvictionCount());
+    }
+
+    /**
+     * Hits and misses are counted per getPage call.
+     */
+    @Test public void counters() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+        assertEquals(2, bp.getMissCount());
+        assertEquals(0, bp.getEvictionCount());
+
+        bp.resetStats();
+        assertEquals(0, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * LRU-2 keeps a page that was referenced twice over pages touched once
+     * by a scan.
+     */
+    @Test public void lruKKeepsHotPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3, new LruKEvictionPolicy(3, 2));
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+
+        bp.resetStats();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * Dirty pages are never evicted; a pool holding only dirty pages cannot
+     * accept another page.
+     */
+    @Test public void dirtyPagesNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(0), Permissions.READ_WRITE).markDirty(true, tid);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+
+        // page 1 is clean and goes first
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.resetStats();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+
+        bp.getPage(tid, pid(2), Permissions.READ_WRITE).markDirty(true, tid);
+        try {
+            bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Threads missing on the same pages at the same time read each page from
+     * disk only once.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        class SlowHeapFile extends HeapFile {
+            final AtomicInteger reads = new AtomicInteger();
+
+            SlowHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.readPage(pid);
+            }
+        }
+        final SlowHeapFile slow = new SlowHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(PAGES);
+        bp.setReadAheadPages(0);
+
+        final int THREADS = 8;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = 0; i < PAGES; i++) {
+                            bp.getPage(tid, new HeapPageId(slow.getId(), i), Permissions.READ_ONLY);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(PAGES, slow.reads.get());
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(PAGES * (THREADS - 1), bp.getHitCount());
+    }
+
+    /**
+     * With read-ahead on, a sequential scan still reads every page exactly
+     * once, whether on demand or ahead of it.
+     */
+    @Test public void readAheadReadsEachPageOnce() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        assertEquals(BufferPool.DEFAULT_READ_AHEAD_PAGES, bp.getReadAheadPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(PAGES, bp.getMissCount() + bp.getPrefetchCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FilterTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for Filter over a list of tuples, including rewind
+     */
+    @Test public void filterSomeLessThan() throws Exception {
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(2));
+        Filter op = new Filter(pred, new TestUtil.MockScan(-5, 5, 2));
+        op.open();
+        TestUtil.compareDbIterators(new TestUtil.MockScan(-5, 2, 2), op);
+        op.rewind();
+        TestUtil.compareDbIterators(new TestUtil.MockScan(-5, 2, 2), op);
+        op.close();
+    }
+
+    @Test public void filterAllRejected() throws Exception {
+        Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(10));
+        Filter op = new Filter(pred, new TestUtil.MockScan(-5, 5, 2));
+        op.open();
+        assertTrue(TestUtil.checkExhausted(op));
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FilterTest.class);
+    }
+}
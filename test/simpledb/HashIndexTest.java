@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 7;
+
+    @After public void restorePageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("index", ".hidx");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static RecordId rid(int i) {
+        return new RecordId(new HeapPageId(TABLE, i / 100), i % 100);
+    }
+
+    /**
+     * Inserts enough keys to split many buckets and, with small pages, to
+     * spill the bucket directory out of the header; then deletes half and
+     * checks the index, before and after reopening it.
+     */
+    @Test public void insertLookupDelete() throws Exception {
+        BufferPool.setPageSize(256);
+        File f = tempFile();
+        HashIndex index = new HashIndex(f, Type.INT_TYPE, TABLE);
+        int n = 20000;
+        for (int i = 0; i < n; i++) {
+            index.insert(new IntField(i * 7), rid(i));
+        }
+        assertEquals(n, index.getNumEntries());
+        assertTrue(index.getNumBuckets() > 100);
+        for (int i = 0; i < n; i += 2) {
+            assertTrue(index.delete(new IntField(i * 7), rid(i)));
+        }
+        assertFalse(index.delete(new IntField(0), rid(0)));
+        index.close();
+
+        index = new HashIndex(f, Type.INT_TYPE, TABLE);
+        assertEquals(n / 2, index.getNumEntries());
+        for (int i = 0; i < n; i++) {
+            List<RecordId> found = index.lookup(new IntField(i * 7));
+            if (i % 2 == 0) {
+                assertTrue(found.isEmpty());
+            } else {
+                assertEquals(Collections.singletonList(rid(i)), found);
+            }
+        }
+        assertTrue(index.lookup(new IntField(3)).isEmpty());
+        index.close();
+    }
+
+    /** Lookups read about one page each, however large the index. */
+    @Test public void lookupsReadFewPages() throws Exception {
+        HashIndex index = new HashIndex(tempFile(), Type.INT_TYPE, TABLE);
+        Random r = new Random(5);
+        int[] keys = new int[50000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = r.nextInt();
+            index.insert(new IntField(keys[i]), rid(i));
+        }
+        long before = index.getPageReads();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(index.lookup(new IntField(keys[i])).contains(rid(i)));
+        }
+        assertTrue(index.getPageReads() - before <= 1500);
+        index.close();
+    }
+
+    @Test public void stringKeys() throws Exception {
+        HashIndex index = new HashIndex(tempFile(), Type.STRING_TYPE, TABLE);
+        for (int i = 0; i < 500; i++) {
+            index.insert(new StringField("key" + i, Type.STRING_LEN), rid(i));
+        }
+        assertEquals(Collections.singletonList(rid(42)),
+                index.lookup(new StringField("key42", Type.STRING_LEN)));
+        assertTrue(index.lookup(new StringField("key500", Type.STRING_LEN)).isEmpty());
+        index.close();
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void wrongKeyType() throws Exception {
+        File f = tempFile();
+        new HashIndex(f, Type.INT_TYPE, TABLE).close();
+        new HashIndex(f, Type.STRING_TYPE, TABLE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
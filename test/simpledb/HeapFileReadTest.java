@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,143 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() past the end of the file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readMissingPage() throws Exception {
+        hf.readPage(new HeapPageId(hf.getId(), 1));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() of a table whose file is missing:
+     * the read fails without creating the file
+     */
+    @Test
+    public void readMissingFile() throws Exception {
+        File missing = File.createTempFile("missing", ".dat");
+        missing.delete();
+        HeapFile gone = new HeapFile(missing, td);
+        try {
+            gone.readPage(new HeapPageId(gone.getId(), 0));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(missing.getPath()));
+        }
+        assertFalse(missing.exists());
+    }
+
+    /**
+     * Closing a HeapFile releases its handle; later reads reopen it.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * A memory-mapped HeapFile returns the same pages and tuples as the
+     * channel-backed one.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile channelFile = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+        HeapFile mappedFile = new HeapFile(channelFile.getFile(), channelFile.getTupleDesc(),
+                HeapFile.ReadMode.MEMORY_MAPPED);
+        Database.getCatalog().addTable(mappedFile, SystemTestUtil.getUUID());
+
+        assertEquals(channelFile.numPages(), mappedFile.numPages());
+        for (int i = 0; i < mappedFile.numPages(); i++) {
+            HeapPage expected = (HeapPage) channelFile.readPage(new HeapPageId(channelFile.getId(), i));
+            HeapPage actual = (HeapPage) mappedFile.readPage(new HeapPageId(mappedFile.getId(), i));
+            assertArrayEquals(expected.getPageData(), actual.getPageData());
+        }
+        SystemTestUtil.matchTuples(mappedFile, tuples);
+    }
+
+    /**
+     * A mapped page is read in place and copied only when modified, so the
+     * mapping never sees an unwritten change and the before image survives
+     * the write-back.
+     */
+    @Test
+    public void memoryMappedCopyOnWrite() throws Exception {
+        HeapFile mappedFile = new HeapFile(hf.getFile(), td, HeapFile.ReadMode.MEMORY_MAPPED);
+        Database.getCatalog().addTable(mappedFile, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(mappedFile.getId(), 0);
+        HeapPage page = (HeapPage) mappedFile.readPage(pid);
+        int first = page.getInt(0, 0);
+
+        page.deleteTuple(page.getTuple(0));
+        assertEquals(first, ((HeapPage) mappedFile.readPage(pid)).getInt(0, 0));
+        HeapPage before = page.getBeforeImage();
+        mappedFile.writePage(page);
+        assertFalse(((HeapPage) mappedFile.readPage(pid)).isSlotUsed(0));
+        assertTrue(before.isSlotUsed(0));
+        assertEquals(first, before.getInt(0, 0));
+    }
+
+    /**
+     * A tuple read from a memory-mapped page keeps its values after the
+     * page is written back over the mapping.
+     */
+    @Test
+    public void memoryMappedTupleOutlivesWrite() throws Exception {
+        HeapFile mappedFile = new HeapFile(hf.getFile(), td, HeapFile.ReadMode.MEMORY_MAPPED);
+        Database.getCatalog().addTable(mappedFile, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(mappedFile.getId(), 0);
+        HeapPage page = (HeapPage) mappedFile.readPage(pid);
+        Tuple t = page.getTuple(0);
+        int first = page.getInt(0, 0);
+
+        HeapPage copy = (HeapPage) mappedFile.readPage(pid);
+        copy.deleteTuple(copy.getTuple(0));
+        Tuple replacement = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            replacement.setField(i, new IntField(first + 1));
+        }
+        copy.insertTuple(replacement);
+        mappedFile.writePage(copy);
+
+        assertEquals(first + 1, ((HeapPage) mappedFile.readPage(pid)).getInt(0, 0));
+        assertEquals(new IntField(first), t.getField(0));
+    }
+
+    /**
+     * A scan with pushed-down predicates and a projection returns the
+     * projected fields of exactly the matching tuples.
+     */
+    @Test
+    public void pushdownScan() throws Exception {
+        final int MAX_VALUE = 1 << 16;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1500, MAX_VALUE, null, tuples);
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE / 4)),
+                new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(MAX_VALUE / 2)));
+        int[] projection = new int[] { 2, 0 };
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) > MAX_VALUE / 4 && t.get(2) <= MAX_VALUE / 2) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", predicates, projection);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals(Type.INT_TYPE, scan.getTupleDesc().getFieldType(1));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
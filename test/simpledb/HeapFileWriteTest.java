@@ -0,0 +1,290 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileWriteTest extends SimpleDbTestBase {
+
+    // 504 two-int tuples fit on a 4096 byte page
+    private static final int SLOTS = 504;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.getBufferPool();
+    }
+
+    private static HeapFile createEmptyTable() throws Exception {
+        File f = File.createTempFile("write", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        return Utility.openHeapFile(2, f);
+    }
+
+    private static Tuple tuple(int a, int b) {
+        return Utility.getTuple(new int[] { a, b }, 2);
+    }
+
+    private static ArrayList<Integer> row(int a, int b) {
+        return new ArrayList<Integer>(Arrays.asList(a, b));
+    }
+
+    @Test public void pageInsertDelete() throws Exception {
+        HeapPageId pid = new HeapPageId(1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData(), Utility.getTupleDesc(2));
+        assertEquals(SLOTS, page.getNumEmptySlots());
+        for (int i = 0; i < SLOTS; i++) {
+            Tuple t = tuple(i, -i);
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(tuple(0, 0));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+
+        Tuple victim = page.getTuple(100);
+        page.deleteTuple(victim);
+        assertFalse(page.isSlotUsed(100));
+        try {
+            page.deleteTuple(victim);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        Tuple t = tuple(7, 7);
+        page.insertTuple(t);
+        assertEquals(100, t.getRecordId().getTupleNumber());
+
+        // the image on disk matches
+        HeapPage copy = new HeapPage(pid, page.getPageData(), Utility.getTupleDesc(2));
+        assertEquals(0, copy.getNumEmptySlots());
+        assertEquals(7, copy.getInt(100, 0));
+        assertEquals(-101, copy.getInt(101, 1));
+    }
+
+    /** The file grows by extents, and committed rows are on disk with their maps. */
+    @Test public void insertAndCommit() throws Exception {
+        HeapFile hf = createEmptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < SLOTS + 1; i++) {
+            bp.insertTuple(tid, hf.getId(), tuple(i, i % 10));
+            expected.add(row(i, i % 10));
+        }
+        assertEquals(HeapFile.MIN_EXTENT_PAGES, hf.numPages());
+        FreeSpaceMap free = hf.getFreeSpaceMap();
+        assertFalse(free.isFree(0));
+        assertEquals(1, free.findFree());
+
+        // this transaction's own scans see its rows, even where the zone map had the page empty
+        List<Predicate> preds = Collections.singletonList(new Predicate(0, Predicate.Op.EQUALS, new IntField(SLOTS)));
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t", preds, null),
+                Collections.singletonList(row(SLOTS, SLOTS % 10)));
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, expected);
+        FreeSpaceMap saved = FreeSpaceMap.read(FreeSpaceMap.fileFor(hf.getFile()), BufferPool.getPageSize());
+        assertNotNull(saved);
+        assertEquals(HeapFile.MIN_EXTENT_PAGES, saved.numPages());
+        assertEquals(1, saved.findFree());
+        ZoneMap zones = hf.getZoneMap();
+        assertEquals(SLOTS, zones.getMin(1, 0));
+        assertEquals(Integer.MAX_VALUE, zones.getMin(2, 0));
+    }
+
+    @Test public void abortDiscardsInserts() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), tuple(-1, -1));
+        bp.transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** An abort puts back the free space map bits its inserts and deletes changed. */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, SLOTS - 1, null, null);
+        assertEquals(0, hf.getFreeSpaceMap().findFree());
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), tuple(-1, -1));
+        assertEquals(-1, hf.getFreeSpaceMap().findFree());
+        bp.transactionComplete(tid, false);
+        assertEquals(0, hf.getFreeSpaceMap().findFree());
+
+        hf = SystemTestUtil.createRandomHeapFile(2, SLOTS, null, null);
+        assertEquals(-1, hf.getFreeSpaceMap().findFree());
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.getTuple(0));
+        assertEquals(0, hf.getFreeSpaceMap().findFree());
+        bp.transactionComplete(tid, false);
+        assertEquals(-1, hf.getFreeSpaceMap().findFree());
+    }
+
+    /** Deleting from a full file frees its slot for the next insert. */
+    @Test public void deleteFreesSlot() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, SLOTS * 2, null, tuples);
+        assertEquals(-1, hf.getFreeSpaceMap().findFree());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        Tuple victim = page.getTuple(5);
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        bp.deleteTuple(tid, victim);
+        assertEquals(1, hf.getFreeSpaceMap().findFree());
+
+        Tuple t = tuple(-5, -5);
+        bp.insertTuple(tid, hf.getId(), t);
+        tuples.add(row(-5, -5));
+        assertEquals(new RecordId(new HeapPageId(hf.getId(), 1), 5), t.getRecordId());
+        assertEquals(2, hf.numPages());
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** An open primary key index follows inserts at once and deletes on commit. */
+    private static HeapFile createIndexedTable() throws Exception {
+        File f = File.createTempFile("write", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID(), "c0");
+        return hf;
+    }
+
+    @Test public void maintainsPrimaryKeyIndex() throws Exception {
+        HeapFile hf = createIndexedTable();
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(hf.getId());
+        assertEquals(0, index.getNumEntries());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = tuple(42, 1);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(Collections.singletonList(t.getRecordId()), index.lookup(new IntField(42)));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        bp.deleteTuple(tid, t);
+        assertEquals(1, index.lookup(new IntField(42)).size());
+        bp.transactionComplete(tid);
+        assertTrue(index.lookup(new IntField(42)).isEmpty());
+    }
+
+    /** An abort takes back the entries of its inserts, so a retry is indexed once. */
+    @Test public void abortRemovesIndexEntry() throws Exception {
+        HeapFile hf = createIndexedTable();
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(hf.getId());
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), tuple(42, 1));
+        bp.transactionComplete(tid, false);
+        assertTrue(index.lookup(new IntField(42)).isEmpty());
+
+        tid = new TransactionId();
+        Tuple t = tuple(42, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        bp.transactionComplete(tid);
+        assertEquals(Collections.singletonList(t.getRecordId()), index.lookup(new IntField(42)));
+        assertFalse(index.insert(new IntField(42), t.getRecordId()));
+
+        // deleted and put back in the same slot by one transaction: the entry stays
+        tid = new TransactionId();
+        bp.deleteTuple(tid, t);
+        Tuple again = tuple(42, 3);
+        bp.insertTuple(tid, hf.getId(), again);
+        assertEquals(t.getRecordId(), again.getRecordId());
+        bp.transactionComplete(tid);
+        assertEquals(Collections.singletonList(again.getRecordId()), index.lookup(new IntField(42)));
+
+        tid = new TransactionId();
+        bp.bulkInsert(tid, hf.getId(), Collections.singletonList(tuple(43, 1)).iterator());
+        assertEquals(1, index.lookup(new IntField(43)).size());
+        bp.transactionComplete(tid, false);
+        assertTrue(index.lookup(new IntField(43)).isEmpty());
+    }
+
+    private static List<Tuple> tuples(int n, ArrayList<ArrayList<Integer>> expected) {
+        List<Tuple> ts = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            ts.add(tuple(i, -i));
+            expected.add(row(i, -i));
+        }
+        return ts;
+    }
+
+    /** Bulk loaded rows are packed onto new pages that bypass the pool. */
+    @Test public void bulkInsertAndCommit() throws Exception {
+        HeapFile hf = createEmptyTable();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        assertEquals(SLOTS * 3 + 10, bp.bulkInsert(tid, hf.getId(), tuples(SLOTS * 3 + 10, expected).iterator()));
+        assertEquals(4, hf.numPages());
+        PageId last = new HeapPageId(hf.getId(), 3);
+        assertFalse(bp.isResident(last));
+        assertTrue(bp.holdsLock(tid, last));
+        // read-ahead must not cache the page until the load commits
+        assertFalse(bp.prefetchPage(last));
+        assertFalse(bp.isResident(last));
+        assertEquals(3, hf.getFreeSpaceMap().findFree());
+        bp.transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(hf, expected);
+        tid = new TransactionId();
+        Tuple t = tuple(-1, -1);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(new RecordId(last, 10), t.getRecordId());
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void bulkInsertAbort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, SLOTS, null, tuples);
+        TransactionId tid = new TransactionId();
+        bp.bulkInsert(tid, hf.getId(), tuples(SLOTS * 2, new ArrayList<ArrayList<Integer>>()).iterator());
+        assertEquals(3, hf.numPages());
+        bp.transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(1, hf.getFreeSpaceMap().findFree());
+    }
+
+    /** A snapshot sees a bulk load only if it began after the load committed. */
+    @Test public void bulkInsertSnapshot() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        TransactionId early = new TransactionId();
+        bp.beginSnapshot(early);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> after = new ArrayList<ArrayList<Integer>>(tuples);
+        bp.bulkInsert(tid, hf.getId(), tuples(SLOTS + 1, after).iterator());
+        SystemTestUtil.matchTuples(new SeqScan(early, hf.getId(), ""), tuples);
+        bp.transactionComplete(tid);
+
+        TransactionId late = new TransactionId();
+        bp.beginSnapshot(late);
+        SystemTestUtil.matchTuples(new SeqScan(early, hf.getId(), ""), tuples);
+        SystemTestUtil.matchTuples(new SeqScan(late, hf.getId(), ""), after);
+        bp.transactionComplete(early);
+        bp.transactionComplete(late);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
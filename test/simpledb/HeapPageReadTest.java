@@ -10,6 +10,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -55,9 +56,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
 
         // Convert it to a HeapFile and read in the bytes
         try {
-            File temp = File.createTempFile("table", ".dat");
-            temp.deleteOnExit();
-            HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
+            File temp = SystemTestUtil.createHeapFileUnopened(table, 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -120,6 +119,55 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.iterator() and nextUsedSlot() over slots that
+     * straddle header word boundaries.
+     */
+    @Test public void sparseSlots() throws Exception {
+        int[] used = { 0, 63, 64, 200, 503 };
+        byte[] data = HeapPage.createEmptyPageData();
+        for (int slot : used) {
+            data[slot / 8] |= 1 << (slot % 8);
+        }
+        HeapPage page = new HeapPage(pid, data);
+        assertEquals(504 - used.length, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int slot : used) {
+            assertTrue(it.hasNext());
+            assertEquals(slot, it.next().getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+
+        assertEquals(63, page.nextUsedSlot(1));
+        assertEquals(200, page.nextUsedSlot(65));
+        assertEquals(503, page.nextUsedSlot(503));
+        assertEquals(-1, page.nextUsedSlot(504));
+    }
+
+    /**
+     * Unit test for HeapPage.getField(): single fields decode straight from
+     * the page bytes.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+        }
+        assertEquals(null, page.getField(EXAMPLE_VALUES.length, 0));
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() and getBeforeImage(): both
+     * reproduce the bytes the page was built from.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        assertTrue(page.getPageData() != page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinTest extends SimpleDbTestBase {
+
+    private static final int WIDTH = 2;
+
+    /** @return the rows of it, rendered and sorted, since join order is unspecified */
+    private static List<String> rows(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /** @return the expected join of two width-2 relations on field 0 under op */
+    private static List<String> expected(int[] left, int[] right, Predicate.Op op) {
+        ArrayList<String> out = new ArrayList<String>();
+        for (int i = 0; i < left.length; i += WIDTH) {
+            for (int j = 0; j < right.length; j += WIDTH) {
+                if (IntField.compare(op, left[i], right[j])) {
+                    out.add(left[i] + "\t" + left[i + 1] + "\t" + right[j] + "\t" + right[j + 1] + "\n");
+                }
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static int[] randomRelation(Random r, int rows, int keys) {
+        int[] data = new int[rows * WIDTH];
+        for (int i = 0; i < rows; i++) {
+            data[i * WIDTH] = r.nextInt(keys);
+            data[i * WIDTH + 1] = i;
+        }
+        return data;
+    }
+
+    /**
+     * Unit test for Join.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        OpIterator s1 = TestUtil.createTupleList(WIDTH, new int[] { 1, 2 });
+        OpIterator s2 = TestUtil.createTupleList(3, new int[] { 1, 2, 3 });
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), s1, s2);
+        TupleDesc expected = TupleDesc.merge(s1.getTupleDesc(), s2.getTupleDesc());
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    /**
+     * An equi-join whose build side fits in memory
+     */
+    @Test public void hashJoin() throws Exception {
+        Random r = new Random(1);
+        int[] left = randomRelation(r, 300, 50);
+        int[] right = randomRelation(r, 200, 50);
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(WIDTH, left), TestUtil.createTupleList(WIDTH, right));
+        op.open();
+        List<String> first = rows(op);
+        assertEquals(expected(left, right, Predicate.Op.EQUALS), first);
+        op.rewind();
+        assertEquals(first, rows(op));
+        op.close();
+    }
+
+    /**
+     * An equi-join whose build side is many times the memory budget, so it
+     * partitions both inputs to disk and joins some partitions in chunks
+     */
+    @Test public void spillingHashJoin() throws Exception {
+        Random r = new Random(2);
+        int[] left = randomRelation(r, 3000, 40);
+        int[] right = randomRelation(r, 5000, 40);
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(WIDTH, left), TestUtil.createTupleList(WIDTH, right), 2);
+        op.open();
+        List<String> first = rows(op);
+        assertEquals(expected(left, right, Predicate.Op.EQUALS), first);
+        op.rewind();
+        assertEquals(first, rows(op));
+        op.close();
+    }
+
+    /**
+     * A join on an inequality, evaluated with nested loops
+     */
+    @Test public void nestedLoopJoin() throws Exception {
+        Random r = new Random(3);
+        int[] left = randomRelation(r, 60, 20);
+        int[] right = randomRelation(r, 40, 20);
+        Join op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                TestUtil.createTupleList(WIDTH, left), TestUtil.createTupleList(WIDTH, right));
+        op.open();
+        assertEquals(expected(left, right, Predicate.Op.LESS_THAN), rows(op));
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinTest.class);
+    }
+}
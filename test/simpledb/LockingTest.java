@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking the state of a lock grab */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 504 two-int tuples fit on a 4096 byte page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.getBufferPool();
+    }
+
+    /**
+     * Starts a thread asking for a lock and checks, after a while, whether
+     * it got it.
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+            boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        return t;
+    }
+
+    @Test public void sharedLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p0, Permissions.READ_ONLY, true);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    @Test public void exclusiveBlocksOthers() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+        grabLock(tid2, p1, Permissions.READ_WRITE, true);
+
+        bp.transactionComplete(tid1);
+        reader.join(TIMEOUT * 10);
+        assertTrue(reader.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    @Test public void sharedBlocksWriter() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        writer.join(TIMEOUT * 10);
+        assertTrue(writer.acquired());
+    }
+
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid1, p0, Permissions.READ_WRITE, true);
+        grabLock(tid2, p0, Permissions.READ_ONLY, false);
+
+        // a second sharer keeps the first from upgrading
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        grabLock(tid1, p1, Permissions.READ_WRITE, false);
+    }
+
+    /** Two transactions waiting for each other: one is aborted at once. */
+    @Test public void deadlockDetected() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber first = grabLock(tid1, p1, Permissions.READ_WRITE, false);
+        try {
+            bp.getPage(tid2, p0, Permissions.READ_ONLY);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid2, false);
+        first.join(TIMEOUT * 10);
+        assertTrue(first.acquired());
+    }
+
+    /** Two sharers both asking to upgrade deadlock. */
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber first = grabLock(tid1, p0, Permissions.READ_WRITE, false);
+        TestUtil.LockGrabber second = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        second.join(TIMEOUT * 10);
+        assertTrue(second.getError() instanceof TransactionAbortedException);
+        first.join(TIMEOUT * 10);
+        assertTrue(first.acquired());
+    }
+
+    /**
+     * One thread of a transaction getting its lock leaves the waits of its
+     * other threads in the graph, so a cycle through them is still found.
+     */
+    @Test public void deadlockWithSeveralThreads() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        PageId q0 = new HeapPageId(hf.getId(), 0);
+        PageId q1 = new HeapPageId(hf.getId(), 1);
+        PageId q2 = new HeapPageId(hf.getId(), 2);
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid2, q0, Permissions.READ_WRITE);
+        bp.getPage(tid1, q1, Permissions.READ_WRITE);
+        bp.getPage(tid3, q2, Permissions.READ_WRITE);
+
+        TestUtil.LockGrabber first = grabLock(tid1, q0, Permissions.READ_WRITE, false);
+        TestUtil.LockGrabber second = grabLock(tid1, q2, Permissions.READ_WRITE, false);
+        bp.transactionComplete(tid3);
+        second.join(TIMEOUT * 10);
+        assertTrue(second.acquired());
+
+        TestUtil.LockGrabber cycle = grabLock(tid2, q1, Permissions.READ_ONLY, false);
+        cycle.join(TIMEOUT * 10);
+        assertTrue(cycle.getError() instanceof TransactionAbortedException);
+        bp.transactionComplete(tid2, false);
+        first.join(TIMEOUT * 10);
+        assertTrue(first.acquired());
+    }
+
+    /** A transaction's changes are kept on commit and dropped on abort. */
+    @Test public void commitAndAbort() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        page.markDirty(true, tid1);
+        bp.transactionComplete(tid1, false);
+        assertNotSame(page, bp.getPage(tid2, p0, Permissions.READ_ONLY));
+
+        TransactionId tid3 = new TransactionId();
+        page = (HeapPage) bp.getPage(tid3, p1, Permissions.READ_WRITE);
+        page.markDirty(true, tid3);
+        bp.transactionComplete(tid3, true);
+        assertNull(page.isDirty());
+        assertSame(page, bp.getPage(tid2, p1, Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
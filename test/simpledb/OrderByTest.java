@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    /** Rows of (key, input position), with many duplicate keys. */
+    private static int[] randomRows() {
+        Random r = new Random(7);
+        int[] data = new int[ROWS * 2];
+        for (int i = 0; i < ROWS; i++) {
+            data[2 * i] = r.nextInt(300);
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    /** @return the rows sorted on key, ties in input order, cut to limit */
+    private static int[] expected(int[] data, final boolean asc, int limit) {
+        Integer[] order = new Integer[data.length / 2];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final int[] d = data;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Integer.compare(d[2 * a], d[2 * b]);
+                return asc ? c : -c;
+            }
+        });
+        int n = limit == OrderBy.NO_LIMIT ? order.length : Math.min(limit, order.length);
+        int[] out = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            out[2 * i] = data[2 * order[i]];
+            out[2 * i + 1] = data[2 * order[i] + 1];
+        }
+        return out;
+    }
+
+    private static void check(boolean asc, int memoryPages, int limit) throws Exception {
+        int[] data = randomRows();
+        OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(2, data), memoryPages, limit);
+        op.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(2, expected(data, asc, limit)), op);
+        op.rewind();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(2, expected(data, asc, limit)), op);
+        op.close();
+    }
+
+    /**
+     * Input that fits in memory is sorted stably in both directions
+     */
+    @Test public void inMemorySort() throws Exception {
+        check(true, OrderBy.DEFAULT_MEMORY_PAGES, OrderBy.NO_LIMIT);
+        check(false, OrderBy.DEFAULT_MEMORY_PAGES, OrderBy.NO_LIMIT);
+    }
+
+    /**
+     * Input many times the budget is sorted through runs on disk
+     */
+    @Test public void externalSort() throws Exception {
+        check(true, 1, OrderBy.NO_LIMIT);
+        check(false, 1, OrderBy.NO_LIMIT);
+    }
+
+    /**
+     * Many more runs than the budget has pages are merged in passes, and a
+     * rewind reopens the runs instead of adding to them
+     */
+    @Test public void boundedFanIn() throws Exception {
+        int[] data = randomRows();
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 3, OrderBy.NO_LIMIT);
+        op.open();
+        assertEquals(2, op.numRuns());
+        for (int i = 0; i < 3; i++) {
+            TestUtil.compareDbIterators(TestUtil.createTupleList(2, expected(data, true, OrderBy.NO_LIMIT)), op);
+            op.rewind();
+            assertEquals(2, op.numRuns());
+        }
+        op.close();
+        assertEquals(0, op.numRuns());
+    }
+
+    /**
+     * ORDER BY ... LIMIT, with the limit inside and beyond the budget
+     */
+    @Test public void limit() throws Exception {
+        check(true, 1, 0);
+        check(true, 1, 10);
+        check(false, 1, 10);
+        check(true, 1, 2000);
+        check(true, 1, ROWS + 1);
+    }
+
+    @Test public void stringKeys() throws Exception {
+        OrderBy op = new OrderBy(1, true, TestUtil.createTupleList(2,
+                new Object[] { 1, "pear", 2, "apple", 3, "fig" }));
+        op.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+                new Object[] { 2, "apple", 3, "fig", 1, "pear" }), op);
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
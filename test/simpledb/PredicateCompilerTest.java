@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "i" });
+
+    private static final String[] STRINGS = { "", "a", "ab", "abc", "abd", "b", "ba", "zz",
+            "xabcx", "ab\u00e9", "\u00e9" };
+
+    private static final int[] INTS = { Integer.MIN_VALUE, -5, 0, 1, 2, 7, Integer.MAX_VALUE };
+
+    private static Tuple tuple(String s, int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new StringField(s, Type.STRING_LEN));
+        t.setField(1, new IntField(i));
+        return t;
+    }
+
+    private static ByteBuffer serialize(Tuple t) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        // leading padding checks that offsets are honored
+        dos.writeInt(0);
+        for (int i = 0; i < TD.numFields(); i++) {
+            t.getField(i).serialize(dos);
+        }
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    /**
+     * Compiled predicates agree with Predicate.filter for every operator,
+     * on tuples and on serialized bytes, including non-ASCII strings.
+     */
+    @Test public void agreesWithFilter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String operand : STRINGS) {
+                Predicate p = new Predicate(0, op, new StringField(operand, Type.STRING_LEN));
+                CompiledPredicate cp = PredicateCompiler.compile(TD, p);
+                for (String value : STRINGS) {
+                    // compare against the tuple as it decodes from disk
+                    Tuple stored = new Tuple(TD, serialize(tuple(value, 0)), 4);
+                    String msg = "'" + value + "' " + op + " '" + operand + "'";
+                    assertEquals(msg, p.filter(stored), cp.matches(stored));
+                    assertEquals(msg, p.filter(stored), cp.matches(serialize(tuple(value, 0)), 4));
+                }
+            }
+            for (int operand : INTS) {
+                Predicate p = new Predicate(1, op, new IntField(operand));
+                CompiledPredicate cp = PredicateCompiler.compile(TD, p);
+                for (int value : INTS) {
+                    Tuple t = tuple("", value);
+                    String msg = value + " " + op + " " + operand;
+                    assertEquals(msg, p.filter(t), cp.matches(t));
+                    assertEquals(msg, p.filter(t), cp.matches(serialize(t), 4));
+                }
+            }
+        }
+    }
+
+    /** Conjunctions require every part; an empty one matches everything. */
+    @Test public void conjunction() throws Exception {
+        Tuple t = tuple("abc", 3);
+        Predicate a = new Predicate(0, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN));
+        Predicate b = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3));
+        assertEquals(true, PredicateCompiler.compile(TD, Arrays.asList(a)).matches(t));
+        assertEquals(false, PredicateCompiler.compile(TD, Arrays.asList(a, b)).matches(serialize(t), 4));
+        assertEquals(true, PredicateCompiler.compile(TD, Arrays.<Predicate>asList()).matches(t));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SnapshotTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking the state of a lock grab */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private PageId p0, p1;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 504 two-int tuples fit on a 4096 byte page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, tuples);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        bp = Database.getBufferPool();
+    }
+
+    private static TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    /** A snapshot reads past a writer's lock, and a writer is not held up by it. */
+    @Test public void noBlocking() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        Page written = bp.getPage(writer, p0, Permissions.READ_WRITE);
+        written.markDirty(true, writer);
+
+        bp.beginSnapshot(reader);
+        assertTrue(grab(reader, p0, Permissions.READ_ONLY).acquired());
+        Page seen = bp.getPage(reader, p0, Permissions.READ_ONLY);
+        assertNotSame(written, seen);
+        assertNull(seen.isDirty());
+        assertFalse(bp.holdsLock(reader, p0));
+
+        bp.getPage(reader, p1, Permissions.READ_ONLY);
+        assertTrue(grab(writer, p1, Permissions.READ_WRITE).acquired());
+
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), ""), tuples);
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+    }
+
+    @Test public void snapshotsAreReadOnly() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        try {
+            bp.getPage(reader, p0, Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /** Old images are kept exactly as long as a snapshot may read them. */
+    @Test public void versionsRetained() throws Exception {
+        TransactionId early = new TransactionId();
+        bp.beginSnapshot(early);
+
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE).markDirty(true, writer);
+        bp.transactionComplete(writer);
+        assertEquals(1, bp.retainedVersions());
+
+        TransactionId late = new TransactionId();
+        bp.beginSnapshot(late);
+        writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE).markDirty(true, writer);
+        bp.transactionComplete(writer);
+        assertEquals(2, bp.retainedVersions());
+
+        // the image only early could see goes with it
+        bp.transactionComplete(early);
+        assertEquals(1, bp.retainedVersions());
+        SystemTestUtil.matchTuples(new SeqScan(late, hf.getId(), ""), tuples);
+        bp.transactionComplete(late);
+        assertEquals(0, bp.retainedVersions());
+
+        // with no snapshot running, commits keep nothing
+        writer = new TransactionId();
+        bp.getPage(writer, p1, Permissions.READ_WRITE).markDirty(true, writer);
+        bp.transactionComplete(writer);
+        assertEquals(0, bp.retainedVersions());
+    }
+
+    /** A snapshot sees neither uncommitted rows nor rows committed after it began. */
+    @Test public void snapshotIsolation() throws Exception {
+        TransactionId early = new TransactionId();
+        bp.beginSnapshot(early);
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, hf.getId(), Utility.getTuple(new int[] { -1, -1 }, 2));
+        Tuple victim = ((HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE)).getTuple(0);
+        bp.deleteTuple(writer, victim);
+        SystemTestUtil.matchTuples(new SeqScan(early, hf.getId(), ""), tuples);
+        bp.transactionComplete(writer);
+
+        TransactionId late = new TransactionId();
+        bp.beginSnapshot(late);
+        ArrayList<ArrayList<Integer>> after = new ArrayList<ArrayList<Integer>>(tuples);
+        after.remove(SystemTestUtil.tupleToList(victim));
+        after.add(new ArrayList<Integer>(Arrays.asList(-1, -1)));
+        SystemTestUtil.matchTuples(new SeqScan(late, hf.getId(), ""), after);
+        SystemTestUtil.matchTuples(new SeqScan(early, hf.getId(), ""), tuples);
+        bp.transactionComplete(early);
+        bp.transactionComplete(late);
+    }
+
+    /** Pruning by the maps, which follow the latest writes, must not hide rows a snapshot still sees. */
+    @Test public void filteredScanSeesDeletedRow() throws Exception {
+        TransactionId writer = new TransactionId();
+        Tuple t = Utility.getTuple(new int[] { -7, -7 }, 2);
+        bp.insertTuple(writer, hf.getId(), t);
+        bp.transactionComplete(writer);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        writer = new TransactionId();
+        bp.deleteTuple(writer, t);
+        bp.transactionComplete(writer);
+
+        List<Predicate> preds = Collections.singletonList(new Predicate(0, Predicate.Op.EQUALS, new IntField(-7)));
+        SystemTestUtil.matchTuples(new SeqScan(reader, hf.getId(), "", preds, null),
+                Collections.singletonList(new ArrayList<Integer>(Arrays.asList(-7, -7))));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
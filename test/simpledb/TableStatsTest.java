@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 30000;
+
+    /** Column 0 is unique, column 1 takes ten values, column 2 is skewed. */
+    private static HeapFile createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10, i % 4 == 0 ? i : 0)));
+        }
+        File f = SystemTestUtil.createHeapFileUnopened(tuples, 3);
+        HeapFile hf = Utility.openHeapFile(3, f);
+        return hf;
+    }
+
+    private static void assertNear(double expected, double actual, double slack) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= slack);
+    }
+
+    @Test public void histogram() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int i = 1; i <= 100; i++) {
+            h.addValue(i);
+        }
+        assertNear(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 1e-9);
+        assertNear(0.5, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 50), 1e-9);
+        assertNear(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 50), 1e-9);
+        assertNear(0.25, h.estimateSelectivity(Predicate.Op.LESS_THAN, 26), 1e-9);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.EQUALS, 101), 0);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -5), 0);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 0), 0);
+
+        // more buckets than values: one value per bucket
+        IntHistogram narrow = new IntHistogram(100, 0, 3);
+        narrow.addValue(3);
+        narrow.addValue(3);
+        narrow.addValue(0);
+        assertNear(2.0 / 3, narrow.estimateSelectivity(Predicate.Op.EQUALS, 3), 1e-9);
+        assertEquals(0, narrow.estimateSelectivity(Predicate.Op.EQUALS, 1), 0);
+
+        StringHistogram s = new StringHistogram(100);
+        for (String v : new String[] { "apple", "banana", "cherry", "date" }) {
+            s.addValue(v);
+        }
+        assertNear(0.5, s.estimateSelectivity(Predicate.Op.LESS_THAN, "c"), 0.01);
+        assertEquals(1, s.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, "a"), 0.01);
+    }
+
+    @Test public void hyperLogLog() {
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            small.add(i % 100);
+        }
+        assertNear(100, small.estimate(), 3);
+
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 200000; i++) {
+            a.add(i);
+            b.add(new IntField(i + 100000));
+        }
+        assertNear(200000, a.estimate(), 200000 * 0.05);
+        a.merge(b);
+        assertNear(300000, a.estimate(), 300000 * 0.05);
+    }
+
+    @Test public void tableStatistics() throws Exception {
+        HeapFile hf = createTable();
+        TableStats stats = TableStats.compute(hf);
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(hf.numPages(), stats.numPages());
+        assertEquals(hf.numPages() * (double) TableStats.IOCOSTPERPAGE, stats.estimateScanCost(), 0);
+
+        assertNear(ROWS, stats.estimateDistinct(0), ROWS * 0.05);
+        assertEquals(10, stats.estimateDistinct(1));
+        assertNear(ROWS / 4 + 1, stats.estimateDistinct(2), ROWS / 4 * 0.05);
+
+        assertNear(1.0 / ROWS, stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(77)), 1e-4);
+        assertNear(0.5, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)), 0.02);
+        assertNear(0.1, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        assertNear(0.9, stats.estimateSelectivity(1, Predicate.Op.NOT_EQUALS, new IntField(3)), 0.02);
+        assertEquals(0, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(10)), 0);
+        // the bucket holding 0 is dominated by it
+        assertTrue(stats.estimateSelectivity(2, Predicate.Op.EQUALS, new IntField(0)) > 0.5);
+        assertNear(0.1 * 0.5, stats.estimateSelectivity(Arrays.asList(
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3)),
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS / 2)))), 0.01);
+        assertEquals(3000, stats.estimateTableCardinality(0.1));
+        assertNear(0.1, stats.avgSelectivity(1, Predicate.Op.EQUALS), 1e-9);
+    }
+
+    /** The Catalog saves statistics next to the table and reads them back. */
+    @Test public void catalogPersistsStatistics() throws Exception {
+        HeapFile hf = createTable();
+        File statsFile = TableStats.fileFor(hf.getFile());
+        assertFalse(statsFile.exists());
+        TableStats stats = Database.getCatalog().getTableStats(hf.getId());
+        assertTrue(statsFile.exists());
+        assertSame(stats, Database.getCatalog().getTableStats(hf.getId()));
+
+        TableStats reread = TableStats.read(statsFile, hf.getTupleDesc(), BufferPool.getPageSize());
+        assertNotNull(reread);
+        assertEquals(stats.totalTuples(), reread.totalTuples());
+        assertEquals(stats.estimateDistinct(0), reread.estimateDistinct(0));
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000));
+        assertEquals(stats.estimateSelectivity(p), reread.estimateSelectivity(p), 0);
+
+        // a fresh catalog picks up the saved copy
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf, "stats");
+        long before = statsFile.lastModified();
+        assertEquals(stats.totalTuples(), Database.getCatalog().getTableStats(hf.getId()).totalTuples());
+        assertEquals(before, statsFile.lastModified());
+    }
+
+    /** A large table is sampled, and its counts are scaled up. */
+    @Test public void sampledStatistics() throws Exception {
+        BufferPool.setPageSize(64);
+        try {
+            HeapFile hf = createTable();
+            assertTrue(hf.numPages() > TableStats.MAX_SAMPLE_PAGES);
+            TableStats stats = TableStats.compute(hf);
+            assertNear(ROWS, stats.totalTuples(), ROWS * 0.1);
+            assertNear(ROWS, stats.estimateDistinct(0), ROWS * 0.15);
+            assertEquals(10, stats.estimateDistinct(1));
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import java.io.*;
 import java.util.*;
 
@@ -379,7 +381,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            SystemTestUtil.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
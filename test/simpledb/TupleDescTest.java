@@ -121,6 +121,20 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }    
 
+    /**
+     * Unit test for TupleDesc.withAlias()
+     */
+    @Test public void withAlias() {
+        TupleDesc td = Utility.getTupleDesc(3, "f");
+        TupleDesc aliased = TupleDesc.withAlias(td, "t");
+        assertEquals(3, aliased.numFields());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(Type.INT_TYPE, aliased.getFieldType(i));
+            assertEquals("t.f" + i, aliased.getFieldName(i));
+        }
+        assertEquals("f0", td.getFieldName(0));
+    }
+
     /**
      * Unit test for TupleDesc.getSize()
      */
@@ -167,6 +181,29 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for TupleDesc.getFieldOffset()
+     */
+    @Test public void getFieldOffset() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+        try {
+            td.getFieldOffset(3);
+            Assert.fail("3 is not a valid field index");
+        } catch (NoSuchElementException e) {
+            // expected to get here
+        }
+    }
+
+    @Test public void testHashCode() {
+        TupleDesc a = Utility.getTupleDesc(3, "a");
+        TupleDesc b = Utility.getTupleDesc(3, "b");
+        assertTrue(a.equals(b));
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
     /**
      * JUnit suite target
      */
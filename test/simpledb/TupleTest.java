@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
@@ -57,6 +60,31 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Tuples backed by serialized bytes decode fields on demand, prefer
+     * fields set later, and survive Java serialization.
+     */
+    @Test public void slabBackedFields() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ByteBuffer slab = ByteBuffer.allocate(12);
+        slab.putInt(4, 7).putInt(8, -3);
+        Tuple tup = new Tuple(td, slab, 4);
+
+        assertEquals(7, tup.getInt(0));
+        assertEquals(new IntField(-3), tup.getField(1));
+        tup.setField(0, new IntField(11));
+        assertEquals(11, tup.getInt(0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(tup);
+        out.close();
+        Tuple copy = (Tuple) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(new IntField(11), copy.getField(0));
+        assertEquals(-3, copy.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
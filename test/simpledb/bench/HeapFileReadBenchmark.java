@@ -0,0 +1,106 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares HeapFile page reads through a FileChannel against reads from a
+ * memory-mapped file. Not a unit test; run it by hand, e.g.
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.bench.HeapFileReadBenchmark 4096 3 /data/bench.dat
+ * </pre>
+ * Arguments (all optional): table size in MB (default 4096, i.e. past the
+ * 2GB single-mapping limit), number of passes per mode (default 3), and the
+ * file to use. The file is generated if it does not exist and deleted
+ * afterwards only if it was generated in the temp directory.
+ */
+public class HeapFileReadBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        long sizeMb = args.length > 0 ? Long.parseLong(args[0]) : 4096;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File f;
+        boolean temporary = args.length <= 2;
+        if (temporary) {
+            f = File.createTempFile("bench", ".dat");
+            f.deleteOnExit();
+        } else {
+            f = new File(args[2]);
+        }
+
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        long pages = sizeMb * 1024 * 1024 / BufferPool.getPageSize();
+        if (f.length() != pages * BufferPool.getPageSize()) {
+            System.out.println("Generating " + pages + " pages in " + f);
+            writeFullPages(f, td, pages);
+        }
+
+        for (HeapFile.ReadMode mode : HeapFile.ReadMode.values()) {
+            HeapFile hf = new HeapFile(f, td, mode);
+            Database.getCatalog().addTable(hf, mode.toString());
+            for (int pass = 0; pass < passes; pass++) {
+                long start = System.nanoTime();
+                long sum = scan(hf);
+                long elapsed = System.nanoTime() - start;
+                double seconds = elapsed / 1e9;
+                System.out.printf("%-14s pass %d: %8.1f MB/s, %6.0f ns/page (checksum %d)%n",
+                        mode, pass, sizeMb / seconds, (double) elapsed / hf.numPages(), sum);
+            }
+            hf.close();
+        }
+
+        if (temporary) {
+            f.delete();
+        }
+    }
+
+    /** Reads every page directly (bypassing the BufferPool) and touches every tuple. */
+    private static long scan(HeapFile hf) {
+        long sum = 0;
+        int n = hf.numPages();
+        for (int i = 0; i < n; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                sum += ((IntField) it.next().getField(0)).getValue();
+            }
+        }
+        return sum;
+    }
+
+    /** Writes pages with every slot in use, in HeapFileEncoder's format. */
+    private static void writeFullPages(File f, TupleDesc td, long pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+        Random r = new Random(0);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < headerBytes; i++) {
+            int bits = Math.min(8, slots - i * 8);
+            dos.writeByte((1 << bits) - 1);
+        }
+        for (int i = 0; i < slots * COLUMNS; i++) {
+            dos.writeInt(r.nextInt(1 << 16));
+        }
+        while (baos.size() < pageSize) {
+            dos.writeByte(0);
+        }
+        byte[] page = baos.toByteArray();
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(f), 1 << 20);
+        try {
+            for (long i = 0; i < pages; i++) {
+                os.write(page);
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
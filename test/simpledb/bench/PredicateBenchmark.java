@@ -0,0 +1,87 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the per-tuple cost of Predicate.filter against compiled
+ * predicates, on decoded tuples and on serialized tuple bytes. Not a unit
+ * test; run it by hand, e.g.
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.bench.PredicateBenchmark 1000000 5
+ * </pre>
+ * Arguments (all optional): number of tuples (default 1000000) and number
+ * of timed passes (default 5). The first pass of each case warms up the JIT
+ * and is not reported.
+ */
+public class PredicateBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "i", "s" });
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random r = new Random(0);
+        Tuple[] tuples = new Tuple[n];
+        ByteBuffer bytes = ByteBuffer.allocate(n * TD.getSize());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(TD.getSize());
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(1000)));
+            t.setField(1, new StringField("customer#" + r.nextInt(100000), Type.STRING_LEN));
+            tuples[i] = t;
+
+            baos.reset();
+            DataOutputStream dos = new DataOutputStream(baos);
+            t.getField(0).serialize(dos);
+            t.getField(1).serialize(dos);
+            bytes.put(baos.toByteArray());
+        }
+
+        Predicate[] predicates = {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)),
+            new Predicate(1, Predicate.Op.EQUALS, new StringField("customer#4242", Type.STRING_LEN)),
+            new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("customer#5", Type.STRING_LEN)),
+            new Predicate(1, Predicate.Op.LIKE, new StringField("#99", Type.STRING_LEN)),
+        };
+
+        System.out.printf("%-36s %12s %12s %12s%n", "predicate", "filter", "compiled", "bytes");
+        for (Predicate p : predicates) {
+            CompiledPredicate cp = PredicateCompiler.compile(TD, p);
+            double filter = 0, compiled = 0, raw = 0;
+            for (int pass = 0; pass <= passes; pass++) {
+                long t0 = System.nanoTime();
+                int a = 0;
+                for (Tuple t : tuples) {
+                    if (p.filter(t)) a++;
+                }
+                long t1 = System.nanoTime();
+                int b = 0;
+                for (Tuple t : tuples) {
+                    if (cp.matches(t)) b++;
+                }
+                long t2 = System.nanoTime();
+                int c = 0;
+                for (int i = 0, size = TD.getSize(); i < n; i++) {
+                    if (cp.matches(bytes, i * size)) c++;
+                }
+                long t3 = System.nanoTime();
+                if (a != b || a != c) {
+                    throw new IllegalStateException("results differ for " + p + ": " + a + " " + b + " " + c);
+                }
+                if (pass > 0) {
+                    filter += (double) (t1 - t0) / n;
+                    compiled += (double) (t2 - t1) / n;
+                    raw += (double) (t3 - t2) / n;
+                }
+            }
+            System.out.printf("%-36s %9.2f ns %9.2f ns %9.2f ns%n", p.getField() + " " + p.getOp() + " "
+                    + p.getOperand(), filter / passes, compiled / passes, raw / passes);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BTreeScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 5000;
+
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+
+    @After public void restorePageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    /** Builds a tree over random rows, keyed on column 0, via a sorted heap file. */
+    private BTreeFile createTree() throws Exception {
+        File unsorted = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, MAX_VALUE, null, tuples);
+        unsorted.delete();
+        Collections.sort(tuples, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return a.get(0).compareTo(b.get(0));
+            }
+        });
+        File sorted = SystemTestUtil.createHeapFileUnopened(tuples, 2);
+        HeapFile source = Utility.openHeapFile(2, sorted);
+        Database.getCatalog().addTable(source, SystemTestUtil.getUUID());
+
+        File treeFile = File.createTempFile("btree", ".dat");
+        SystemTestUtil.deleteOnExit(treeFile);
+        TransactionId tid = new TransactionId();
+        BTreeFile tree = BTreeFile.bulkLoad(tid, source, 0, treeFile);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addTable(tree, SystemTestUtil.getUUID());
+        return tree;
+    }
+
+    private List<ArrayList<Integer>> expected(Predicate.Op op, int key) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (IntField.compare(op, t.get(0), key)) {
+                out.add(t);
+            }
+        }
+        return out;
+    }
+
+    private static List<ArrayList<Integer>> read(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    private static void assertSortedOnKey(List<ArrayList<Integer>> rows) {
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue(rows.get(i - 1).get(0) <= rows.get(i).get(0));
+        }
+    }
+
+    /** Rows come back in key order, and as a multiset equal to the input. */
+    private static void assertSameRows(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+        assertSortedOnKey(actual);
+        assertEquals(expected.size(), actual.size());
+        Comparator<ArrayList<Integer>> byRow = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        };
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, byRow);
+        Collections.sort(a, byRow);
+        assertEquals(e, a);
+    }
+
+    @Test public void fullScan() throws Exception {
+        BTreeFile tree = createTree();
+        TransactionId tid = new TransactionId();
+        assertSameRows(tuples, read(tree.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Every operator agrees with a scan, on keys that are present, absent
+     * and outside the range of the table, with a tree several levels deep.
+     */
+    @Test public void lookups() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.reset();
+        BTreeFile tree = createTree();
+        TransactionId tid = new TransactionId();
+        int[] keys = { -1, 0, tuples.get(ROWS / 2).get(0), tuples.get(ROWS - 1).get(0), MAX_VALUE + 1 };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE) {
+                continue;
+            }
+            for (int key : keys) {
+                assertSameRows(expected(op, key), read(tree.indexIterator(tid, op, new IntField(key))));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A pushed-down range on the key plus a filter on another field. */
+    @Test public void rangeWithPredicates() throws Exception {
+        BTreeFile tree = createTree();
+        TransactionId tid = new TransactionId();
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(2000)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) > 1000 && t.get(0) <= 2000 && t.get(1) < 100) {
+                expected.add(t);
+            }
+        }
+        assertSameRows(expected, read(tree.iterator(tid, predicates, null)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A point lookup reads one page per level, not the whole table. */
+    @Test public void pointLookupReadsFewPages() throws Exception {
+        BTreeFile tree = createTree();
+        int key = tuples.get(ROWS / 3).get(0);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().resetStats();
+        assertSameRows(expected(Predicate.Op.EQUALS, key),
+                read(tree.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+        BufferPool pool = Database.getBufferPool();
+        assertTrue(pool.getHitCount() + pool.getMissCount() <= 5);
+        assertTrue(tree.numPages() > 20);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing the tree releases its file; reads then reopen it. */
+    @Test public void readAfterClose() throws Exception {
+        BTreeFile tree = createTree();
+        PageId root = new BTreePageId(tree.getId(), 0);
+        byte[] before = tree.readPage(root).getPageData();
+        tree.close();
+        assertArrayEquals(before, tree.readPage(root).getPageData());
+        assertEquals(ROWS, read(tree.iterator(new TransactionId())).size());
+    }
+
+    @Test(expected = DbException.class)
+    public void unsortedSourceRejected() throws Exception {
+        HeapFile unsorted = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        Database.getCatalog().addTable(unsorted, SystemTestUtil.getUUID());
+        File treeFile = File.createTempFile("btree", ".dat");
+        SystemTestUtil.deleteOnExit(treeFile);
+        BTreeFile.bulkLoad(new TransactionId(), unsorted, 0, treeFile);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BatchScanTest extends SimpleDbTestBase {
+
+    /** A batch scan seen through the tuple adapter returns every tuple. */
+    @Test public void testScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        TransactionId tid = new TransactionId();
+        BatchIterator batches = new SeqScan(tid, f.getId(), "t").batchIterator(100);
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(batches), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pushed-down predicates, selection vectors and projections compose, and
+     * round-tripping through both adapters changes nothing.
+     */
+    @Test public void testSelectAndProject() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        List<Predicate> pushed = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(200)));
+        Predicate selected = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(700));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 200 && t.get(0) < 700) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(1), t.get(0))));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        BatchIterator batches = new SeqScan(tid, f.getId(), "t", pushed, new int[] { 1, 0 })
+                .batchIterator(64);
+        assertEquals(2, batches.getTupleDesc().numFields());
+
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        batches.open();
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            assertTrue(batch.size() <= 64);
+            batch.select(new Predicate(1, selected.getOp(), selected.getOperand()));
+            for (int k = 0; k < batch.selectedCount(); k++) {
+                int row = batch.selected(k);
+                actual.add(new ArrayList<Integer>(Arrays.asList(batch.getInt(0, row), batch.getInt(1, row))));
+            }
+        }
+        batches.close();
+        sort(expected);
+        sort(actual);
+        assertEquals(expected, actual);
+
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(new TupleToBatchIterator(
+                new SeqScan(tid, f.getId(), "t"), 7)), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void sort(List<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new java.util.Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        });
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchScanTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    /** Column 0 is a shuffled permutation of the row numbers, column 1 is random. */
+    private static File createShuffledTable(ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++) {
+            keys.add(i);
+        }
+        Random r = new Random(19);
+        Collections.shuffle(keys, r);
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(keys.get(i), r.nextInt(1000))));
+        }
+        return SystemTestUtil.createHeapFileUnopened(tuples, 2);
+    }
+
+    private static long pagesRead() {
+        return Database.getBufferPool().getHitCount() + Database.getBufferPool().getMissCount();
+    }
+
+    private static ArrayList<ArrayList<Integer>> withKey(ArrayList<ArrayList<Integer>> tuples, int key) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key) {
+                out.add(t);
+            }
+        }
+        return out;
+    }
+
+    private static SeqScan probe(TransactionId tid, HeapFile hf, int key) {
+        return new SeqScan(tid, hf.getId(), "t",
+                Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(key))), null);
+    }
+
+    /** Equality probes on an unordered field read only the page that holds the value. */
+    @Test public void testProbeSkipsPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = Utility.openHeapFile(2, createShuffledTable(tuples));
+        Database.getBufferPool().setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+
+        // without a filter the zone map cannot help: every page is read
+        Database.getBufferPool().resetStats();
+        SystemTestUtil.matchTuples(probe(tid, hf, 1234), withKey(tuples, 1234));
+        assertEquals(hf.numPages(), pagesRead());
+
+        hf.enableBloomFilter(0);
+        assertNotNull(hf.getBloomFilter(0));
+        assertNull(hf.getBloomFilter(1));
+        for (int key : new int[] { 0, 1234, ROWS - 1 }) {
+            Database.getBufferPool().resetStats();
+            SystemTestUtil.matchTuples(probe(tid, hf, key), withKey(tuples, key));
+            assertTrue(pagesRead() <= 4);
+        }
+
+        // a value that is not there at all is usually found out without any reads
+        Database.getBufferPool().resetStats();
+        SystemTestUtil.matchTuples(probe(tid, hf, ROWS + 5), withKey(tuples, ROWS + 5));
+        assertTrue(pagesRead() <= 3);
+
+        // the batch scan skips the same pages
+        Database.getBufferPool().resetStats();
+        BatchIterator batches = probe(tid, hf, 777).batchIterator(64);
+        batches.open();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        batches.close();
+        assertEquals(1, rows);
+        assertTrue(pagesRead() <= 4);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The filter is saved next to the table, and written pages update it. */
+    @Test public void testPersistAndWrite() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createShuffledTable(tuples);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        hf.enableBloomFilter(0);
+        PageBloomFilter filter = hf.getBloomFilter(0);
+        File bf = PageBloomFilter.fileFor(f, 0);
+        assertTrue(bf.exists());
+        PageBloomFilter reread = PageBloomFilter.read(bf, Type.INT_TYPE, 0, BufferPool.getPageSize());
+        assertNotNull(reread);
+        assertEquals(hf.numPages(), reread.numBlocks());
+
+        // copy the last page's tuples over page 0
+        int last = hf.numPages() - 1;
+        HeapPage lastPage = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), last));
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), lastPage.getPageData()));
+        Field moved = lastPage.getField(lastPage.nextUsedSlot(0), 0);
+        assertTrue(filter.mightContain(0, moved));
+        reread = PageBloomFilter.read(bf, Type.INT_TYPE, 0, BufferPool.getPageSize());
+        assertTrue(reread.mightContain(0, moved));
+
+        TransactionId tid = new TransactionId();
+        int key = ((IntField) moved).getValue();
+        ArrayList<ArrayList<Integer>> expected = withKey(tuples, key);
+        expected.addAll(withKey(tuples, key));
+        SystemTestUtil.matchTuples(probe(tid, hf, key), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
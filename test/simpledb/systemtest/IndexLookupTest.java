@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexLookupTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    /** Writes a table whose first column holds the unique keys 0..ROWS-1, shuffled. */
+    private static File createTableFile(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(11));
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(keys.get(i), i)));
+        }
+        return SystemTestUtil.createHeapFileUnopened(tuples, 2);
+    }
+
+    /** Adds the table in f to the catalog with primary key "c0". */
+    private static int addTable(File f) {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID(), "c0");
+        return hf.getId();
+    }
+
+    private static int createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        return addTable(createTableFile(tuples));
+    }
+
+    @Test public void lookupByPrimaryKey() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int table = createTable(tuples);
+        TransactionId tid = new TransactionId();
+        for (int row = 0; row < ROWS; row += 997) {
+            int key = tuples.get(row).get(0);
+            IndexLookup lookup = new IndexLookup(tid, table, "t",
+                    new Predicate(0, Predicate.Op.EQUALS, new IntField(key)));
+            assertEquals(1, lookup.getRecordIds().size());
+            SystemTestUtil.matchTuples(lookup, Collections.singletonList(tuples.get(row)));
+        }
+        IndexLookup missing = new IndexLookup(tid, table, "t",
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS)));
+        SystemTestUtil.matchTuples(missing, new ArrayList<ArrayList<Integer>>());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Once the index exists, a lookup reads a single table page. */
+    @Test public void lookupReadsOnePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createTableFile(tuples);
+        int table = addTable(f);
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(table);
+        assertEquals(ROWS, index.getNumEntries());
+
+        // a fresh catalog and buffer pool reopen the index built above
+        Database.reset();
+        table = addTable(f);
+        TransactionId tid = new TransactionId();
+        IndexLookup lookup = new IndexLookup(tid, table, "t",
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(tuples.get(1234).get(0))));
+        lookup.open();
+        assertTrue(lookup.hasNext());
+        assertEquals(1234, ((IntField) lookup.next().getField(1)).getValue());
+        lookup.close();
+        BufferPool pool = Database.getBufferPool();
+        assertEquals(1, pool.getHitCount() + pool.getMissCount());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Committed changes keep the saved index in step, so a reopen need not rebuild it. */
+    @Test public void reopenAfterInsert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createTableFile(tuples);
+        int table = addTable(f);
+        Database.getCatalog().getPrimaryKeyIndex(table);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table, Utility.getHeapTuple(new int[] { ROWS, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.reset();
+        table = addTable(f);
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(table);
+        BufferPool pool = Database.getBufferPool();
+        assertEquals(0, pool.getHitCount() + pool.getMissCount());
+        assertEquals(ROWS + 1, index.getNumEntries());
+        assertEquals(1, index.lookup(new IntField(ROWS)).size());
+    }
+
+    /** A table written while its index was closed gets the index rebuilt. */
+    @Test public void rebuildAfterUnindexedInsert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createTableFile(tuples);
+        int table = addTable(f);
+        Database.getCatalog().getPrimaryKeyIndex(table);
+
+        Database.reset();
+        table = addTable(f);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table, Utility.getHeapTuple(new int[] { ROWS, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.reset();
+        table = addTable(f);
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(table);
+        assertEquals(ROWS + 1, index.getNumEntries());
+        assertEquals(1, index.lookup(new IntField(ROWS)).size());
+    }
+
+    /** A delete leaves the file the same length, but still moves its version. */
+    @Test public void rebuildAfterUnindexedDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createTableFile(tuples);
+        int table = addTable(f);
+        Database.getCatalog().getPrimaryKeyIndex(table);
+
+        Database.reset();
+        table = addTable(f);
+        int key = tuples.get(0).get(0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(table).iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        assertEquals(key, ((IntField) first.getField(0)).getValue());
+        long length = f.length();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(length, f.length());
+
+        Database.reset();
+        table = addTable(f);
+        HashIndex index = Database.getCatalog().getPrimaryKeyIndex(table);
+        assertEquals(ROWS - 1, index.getNumEntries());
+        assertEquals(0, index.lookup(new IntField(key)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonHeapFile() throws Exception {
+        TestUtil.SkeletonFile file = new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID(), "c0");
+        new IndexLookup(new TransactionId(), file.getId(), "t",
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonKeyPredicate() throws Exception {
+        int table = createTable(new ArrayList<ArrayList<Integer>>());
+        new IndexLookup(new TransactionId(), table, "t",
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexLookupTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    /** Unordered parallel scans return every tuple exactly once. */
+    @Test public void testUnordered() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 6000, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "", 4, false, 2), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Ordered parallel scans return the same sequence as SeqScan, also after a rewind. */
+    @Test public void testOrdered() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 6000, null, null);
+        TransactionId tid = new TransactionId();
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            expected.add(SystemTestUtil.tupleToList(scan.next()));
+        }
+        scan.close();
+
+        ParallelSeqScan parallel = new ParallelSeqScan(tid, f.getId(), "", 3, true, 1);
+        parallel.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (ArrayList<Integer> t : expected) {
+                assertTrue(parallel.hasNext());
+                assertEquals(t, SystemTestUtil.tupleToList(parallel.next()));
+            }
+            assertFalse(parallel.hasNext());
+            parallel.rewind();
+        }
+        parallel.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Closing a scan while its workers are reading leaves the table readable
+     * by everyone else.
+     */
+    @Test public void testCloseEarly() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        for (int i = 0; i < 20; i++) {
+            // an empty pool makes the workers read from disk
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            ParallelSeqScan parallel = new ParallelSeqScan(tid, f.getId(), "", 4, i % 2 == 0, 1);
+            parallel.open();
+            assertTrue(parallel.hasNext());
+            parallel.next();
+            parallel.close();
+            assertNotNull(f.readPage(new HeapPageId(f.getId(), f.numPages() - 1)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), ""), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** An empty table produces no tuples. */
+    @Test public void testEmpty() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 0, null, null);
+        ParallelSeqScan parallel = new ParallelSeqScan(new TransactionId(), f.getId());
+        parallel.open();
+        assertFalse(parallel.hasNext());
+        parallel.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
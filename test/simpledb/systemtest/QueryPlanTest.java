@@ -0,0 +1,182 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class QueryPlanTest extends SimpleDbTestBase {
+
+    /** Adds a two-column table with primary key "c0" holding tuples. */
+    private static int createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createHeapFileUnopened(tuples, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID(), "c0");
+        return hf.getId();
+    }
+
+    /** @return a table of rows (i * step, i % mod) for i in [0, rows) */
+    private static ArrayList<ArrayList<Integer>> rows(int rows, int step, int mod) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i * step, i % mod)));
+        }
+        return tuples;
+    }
+
+    /** @return the join of the plan that runs first */
+    private static Join deepestJoin(OpIterator it) {
+        Join deepest = null;
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                Join j = deepestJoin(child);
+                if (j != null) {
+                    deepest = j;
+                }
+            }
+        }
+        if (deepest == null && it instanceof Join) {
+            deepest = (Join) it;
+        }
+        return deepest;
+    }
+
+    private static String alias(OpIterator it) {
+        if (it instanceof SeqScan) {
+            return ((SeqScan) it).getAlias();
+        }
+        return it instanceof IndexLookup ? ((IndexLookup) it).getAlias() : null;
+    }
+
+    /** The two small tables are joined first, building on the smaller. */
+    @Test public void joinOrder() throws Exception {
+        ArrayList<ArrayList<Integer>> big = rows(20000, 1, 1000);
+        ArrayList<ArrayList<Integer>> mid = rows(1000, 1, 50);
+        ArrayList<ArrayList<Integer>> small = rows(10, 5, 10);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(createTable(big), "b");
+        lp.addScan(createTable(mid), "m");
+        lp.addScan(createTable(small), "s");
+        lp.addJoin("b.c1", Predicate.Op.EQUALS, "m.c0");
+        lp.addJoin("m.c1", Predicate.Op.EQUALS, "s.c0");
+        lp.addFilter("s.c1", Predicate.Op.LESS_THAN, new IntField(5));
+        lp.addProjectField("b.c0");
+        lp.addProjectField("m.c0");
+        lp.addProjectField("s.c0");
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid);
+        Join first = deepestJoin(plan);
+        OpIterator[] children = first.getChildren();
+        assertEquals("m", alias(children[0]));
+        assertEquals("s", alias(children[1]));
+        assertTrue(first.getEstimatedCardinality() > 0);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> s : small) {
+            if (s.get(1) >= 5) {
+                continue;
+            }
+            for (ArrayList<Integer> m : mid) {
+                if (!m.get(1).equals(s.get(0))) {
+                    continue;
+                }
+                for (ArrayList<Integer> b : big) {
+                    if (b.get(1).equals(m.get(0))) {
+                        expected.add(new ArrayList<Integer>(Arrays.asList(b.get(0), m.get(0), s.get(0))));
+                    }
+                }
+            }
+        }
+        assertEquals(2000, expected.size());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A filter fixing the primary key is answered from the index. */
+    @Test public void indexAccessPath() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = rows(10000, 1, 7);
+        // shuffled, so that no zone map narrows a scan to one page
+        Collections.shuffle(tuples, new Random(3));
+        int table = createTable(tuples);
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan byKey = new LogicalPlan();
+        byKey.addScan(table, "t");
+        byKey.addFilter("c0", Predicate.Op.EQUALS, new IntField(4321));
+        byKey.addFilter("c1", Predicate.Op.EQUALS, new IntField(4321 % 7));
+        OpIterator plan = byKey.physicalPlan(tid);
+        assertTrue(plan instanceof Filter);
+        assertTrue(((Filter) plan).getChildren()[0] instanceof IndexLookup);
+        SystemTestUtil.matchTuples(plan, Collections.singletonList(new ArrayList<Integer>(Arrays.asList(4321, 4321 % 7))));
+
+        LogicalPlan byValue = new LogicalPlan();
+        byValue.addScan(table, "t");
+        byValue.addFilter("t.c1", Predicate.Op.EQUALS, new IntField(3));
+        plan = byValue.physicalPlan(tid);
+        assertTrue(plan instanceof SeqScan);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == 3) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Past the dynamic programming limit, a chain of joins is ordered greedily. */
+    @Test public void greedyJoinOrder() throws Exception {
+        int n = JoinOptimizer.DP_MAX_RELATIONS + 2;
+        LogicalPlan lp = new LogicalPlan();
+        for (int i = 0; i < n; i++) {
+            lp.addScan(createTable(rows(20 + i * 10, 1, 20)), "t" + i);
+            if (i > 0) {
+                lp.addJoin("t" + (i - 1) + ".c1", Predicate.Op.EQUALS, "t" + i + ".c0");
+            }
+        }
+        // t0.c1 ranges over [0, 20) and each later c0 = c1 holds for it
+        lp.addJoin("t0.c0", Predicate.Op.LESS_THAN_OR_EQ, "t" + (n - 1) + ".c0");
+        lp.addProjectField("t0.c0");
+        lp.addProjectField("t" + (n - 1) + ".c1");
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        }
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(lp.physicalPlan(tid), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void badQueries() throws Exception {
+        int a = createTable(rows(10, 1, 10));
+        int b = createTable(rows(10, 1, 10));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a, "a");
+        lp.addScan(b, "b");
+        try {
+            lp.addFilter("c0", Predicate.Op.EQUALS, new IntField(1));
+            fail("c0 is in both tables");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            lp.addJoin("a.c0", Predicate.Op.EQUALS, "a.c1");
+            fail("a table cannot join itself");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            lp.addScan(b, "a");
+            fail("aliases are unique");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            lp.physicalPlan(new TransactionId());
+            fail("cross products are not planned");
+        } catch (DbException expected) {
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -18,6 +19,21 @@ public class SystemTestUtil {
 
     private static final int MAX_RAND_VALUE = 1 << 16;
 
+    /** Data files whose side files are deleted on exit; see {@link #deleteOnExit}. */
+    private static final List<File> tempTables = Collections.synchronizedList(new ArrayList<File>());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                synchronized (tempTables) {
+                    for (File f : tempTables) {
+                        deleteSideFiles(f);
+                    }
+                }
+            }
+        });
+    }
+
     /** @param columnSpecification Mapping between column index and value. */
     public static HeapFile createRandomHeapFile(
             int columns, int rows, Map<Integer, Integer> columnSpecification,
@@ -78,13 +94,48 @@ public class SystemTestUtil {
             tuples.add(tuple);
         }
 
-        // Convert the tuples list to a heap file and open it
+        return createHeapFileUnopened(tuples, columns);
+    }
+
+    /**
+     * Writes tuples to a temporary heap file, which is deleted on exit with
+     * its side files.
+     */
+    public static File createHeapFileUnopened(ArrayList<ArrayList<Integer>> tuples, int columns)
+            throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Deletes the table in dataFile on exit, along with every side file
+     * SimpleDb may have written next to it: the zone map, free space map,
+     * statistics, write version, Bloom filters and primary key indexes.
+     */
+    public static void deleteOnExit(File dataFile) {
+        dataFile.deleteOnExit();
+        tempTables.add(dataFile);
+    }
+
+    /** Deletes the files named like dataFile's side files, name.*, next to it. */
+    private static void deleteSideFiles(File dataFile) {
+        String base = dataFile.getName();
+        if (base.endsWith(".dat")) {
+            base = base.substring(0, base.length() - ".dat".length());
+        }
+        File[] siblings = dataFile.getAbsoluteFile().getParentFile().listFiles();
+        if (siblings == null) {
+            return;
+        }
+        for (File f : siblings) {
+            if (f.getName().startsWith(base + ".") && !f.equals(dataFile)) {
+                f.delete();
+            }
+        }
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
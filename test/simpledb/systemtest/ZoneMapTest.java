@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    /** Column 0 ascends with the row number, column 1 is random. */
+    private static File createSortedTable(ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        Random r = new Random(18);
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, r.nextInt(1000))));
+        }
+        return SystemTestUtil.createHeapFileUnopened(tuples, 2);
+    }
+
+    private static long pagesRead() {
+        return Database.getBufferPool().getHitCount() + Database.getBufferPool().getMissCount();
+    }
+
+    /** The encoder writes the exact range of each page next to the table. */
+    @Test public void testEncoderWritesZoneMap() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createSortedTable(tuples);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        assertTrue(ZoneMap.fileFor(f).exists());
+
+        ZoneMap zones = hf.getZoneMap();
+        assertEquals(hf.numPages(), zones.numPages());
+        int perPage = HeapPage.slotsPerPage(hf.getTupleDesc());
+        for (int p = 0; p < zones.numPages(); p++) {
+            assertEquals(p * perPage, zones.getMin(p, 0));
+            assertEquals(Math.min(ROWS, (p + 1) * perPage) - 1, zones.getMax(p, 0));
+        }
+    }
+
+    /** A range scan on the sorted column reads only the pages it needs. */
+    @Test public void testRangeScanSkipsPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = Utility.openHeapFile(2, createSortedTable(tuples));
+        assertTrue(hf.numPages() > 20);
+        Database.getBufferPool().setReadAheadPages(0);
+
+        List<Predicate> range = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2000)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2100)));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 2000 && t.get(0) < 2100) {
+                expected.add(t);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        hf.getZoneMap();
+        Database.getBufferPool().resetStats();
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t", range, null), expected);
+        int perPage = HeapPage.slotsPerPage(hf.getTupleDesc());
+        assertTrue(pagesRead() <= 100 / perPage + 2);
+
+        // a predicate on the random column cannot skip anything, but still works
+        List<Predicate> random = Arrays.asList(
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(7)));
+        expected.clear();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == 7) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t", random, null), expected);
+
+        // the batch scan skips the same pages
+        Database.getBufferPool().resetStats();
+        BatchIterator batches = new SeqScan(tid, hf.getId(), "t",
+                Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 10))), null)
+                .batchIterator(64);
+        batches.open();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        batches.close();
+        assertEquals(9, rows);
+        assertTrue(pagesRead() <= 2);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A missing map is rebuilt from the pages, and written pages update it. */
+    @Test public void testRebuildAndWrite() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = createSortedTable(tuples);
+        File zf = ZoneMap.fileFor(f);
+        assertTrue(zf.delete());
+
+        HeapFile hf = Utility.openHeapFile(2, f);
+        ZoneMap zones = hf.getZoneMap();
+        assertTrue(zf.exists());
+        assertEquals(hf.numPages(), zones.numPages());
+        assertEquals(0, zones.getMin(0, 0));
+
+        // copy the last page's tuples over page 0
+        int last = hf.numPages() - 1;
+        HeapPage lastPage = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), last));
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), lastPage.getPageData()));
+        assertEquals(zones.getMin(last, 0), zones.getMin(0, 0));
+        ZoneMap reread = ZoneMap.read(zf, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                BufferPool.getPageSize());
+        assertEquals(zones.getMin(last, 0), reread.getMin(0, 0));
+        assertEquals(zones.getMax(last, 0), reread.getMax(0, 0));
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == ROWS - 1) {
+                expected.add(t);
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t",
+                Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS - 1))), null),
+                expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Widening a page keeps its old range and takes in the new page's. */
+    @Test public void testWidenPage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = Utility.openHeapFile(2, createSortedTable(tuples));
+        ZoneMap zones = hf.getZoneMap();
+        int last = hf.numPages() - 1;
+        int min = zones.getMin(0, 0);
+        HeapPage lastPage = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), last));
+
+        assertTrue(zones.widenPage(0, lastPage));
+        assertEquals(min, zones.getMin(0, 0));
+        assertEquals(zones.getMax(last, 0), zones.getMax(0, 0));
+        assertFalse(zones.widenPage(0, lastPage));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}